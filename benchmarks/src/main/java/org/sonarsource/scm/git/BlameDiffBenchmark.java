@@ -0,0 +1,90 @@
+/*
+ * Git Plugin Benchmarks
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Diff of two versions of a file as done by blame, depending on the diff algorithm and on the comparison of lines.
+ * {@code jgitIgnoreAll} is the whitespace ignoring comparator of JGit, for reference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlameDiffBenchmark {
+
+  @Param({"1000", "100000"})
+  public int lines;
+
+  @Param({GitConfiguration.DIFF_ALGORITHM_HISTOGRAM, GitConfiguration.DIFF_ALGORITHM_MYERS})
+  public String algorithm;
+
+  @Param({GitConfiguration.WHITESPACE_EXACT, GitConfiguration.WHITESPACE_IGNORE_CHANGE, GitConfiguration.WHITESPACE_IGNORE_ALL, "jgitIgnoreAll"})
+  public String whitespace;
+
+  private DiffAlgorithm diffAlgorithm;
+  private RawText before;
+  private RawText after;
+
+  @Setup
+  public void setUp() {
+    diffAlgorithm = DiffAlgorithm.getAlgorithm(GitConfiguration.DIFF_ALGORITHM_MYERS.equals(algorithm)
+      ? DiffAlgorithm.SupportedAlgorithm.MYERS
+      : DiffAlgorithm.SupportedAlgorithm.HISTOGRAM);
+    Random random = new Random(lines);
+    StringBuilder beforeContent = new StringBuilder();
+    StringBuilder afterContent = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      String line = "    int field" + random.nextInt(lines) + " = " + random.nextInt(100) + ";\n";
+      beforeContent.append(line);
+      // one line out of a hundred is changed
+      afterContent.append(random.nextInt(100) == 0 ? ("    long value" + i + " = 0;\n") : line);
+    }
+    before = new RawText(beforeContent.toString().getBytes(StandardCharsets.UTF_8));
+    after = new RawText(afterContent.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public EditList diff() {
+    // a new comparator for each diff, as for each blamed file
+    RawTextComparator comparator = "jgitIgnoreAll".equals(whitespace) ? RawTextComparator.WS_IGNORE_ALL : GitBlamer.comparator(whitespace);
+    return diffAlgorithm.diff(comparator, before, after);
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Git Plugin Benchmarks
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.scan.filesystem.PathResolver;
+import org.sonarsource.scm.git.RepositoryGenerator.GeneratedRepository;
+
+/**
+ * Changed lines of a pull request branch compared to its target branch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BranchChangedLinesBenchmark {
+
+  private static final int FILES = 500;
+  private static final int LINES = 300;
+
+  @Param({"10", "100"})
+  public int changedFiles;
+
+  private GeneratedRepository repository;
+  private GitRepositorySession session;
+  private GitScmProviderBefore77 provider;
+  private final Set<Path> changed = new HashSet<>();
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    repository = GeneratedRepositories.generate(new RepositoryGenerator()
+      .setFiles(FILES)
+      .setLines(LINES, LINES)
+      .setCommits(1));
+    repository.git().checkout().setCreateBranch(true).setName("feature").call();
+    for (int i = 0; i < changedFiles; i++) {
+      String file = repository.paths().get(i);
+      repository.modifyLines(file, 10);
+      changed.add(repository.worktree().resolve(file));
+    }
+    repository.commit();
+
+    GitMetrics metrics = new GitMetrics(new MapSettings().asConfig());
+    session = new GitRepositorySession(new MapSettings().asConfig(), metrics);
+    AnalysisWarningsWrapper analysisWarnings = text -> {
+    };
+    provider = new GitScmProviderBefore77(new JGitBlameCommand(new PathResolver(), analysisWarnings, new GitConfiguration(new MapSettings().asConfig()), session, metrics), analysisWarnings, session, metrics);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    session.stop();
+    GeneratedRepositories.delete(repository);
+  }
+
+  @Benchmark
+  public Map<Path, Set<Integer>> branchChangedLines() {
+    return provider.branchChangedLines("master", repository.worktree(), changed);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Git Plugin Benchmarks
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of the unified diff of a single file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChangedLinesComputerBenchmark {
+
+  @Param({"100", "10000"})
+  public int hunks;
+
+  private byte[] diff;
+
+  @Setup
+  public void setUp() {
+    StringBuilder sb = new StringBuilder()
+      .append("diff --git a/Foo.java b/Foo.java\n")
+      .append("index 635ef2c..7f050f2 100644\n")
+      .append("--- a/Foo.java\n")
+      .append("+++ b/Foo.java\n");
+    for (int i = 0; i < hunks; i++) {
+      int start = 1 + i * 10;
+      sb.append("@@ -").append(start).append(",7 +").append(start).append(",7 @@ class Foo {\n")
+        .append("   int a = 1;\n")
+        .append("   int b = 2;\n")
+        .append("-  int c = 3;\n")
+        .append("+  int c = 4;\n")
+        .append("   int d = 5;\n")
+        .append("-  int e = 6;\n")
+        .append("+  int e = 7;\n")
+        .append("   int f = 8;\n")
+        .append("   int g = 9;\n");
+    }
+    diff = sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public Set<Integer> parse() throws IOException {
+    ChangedLinesComputer computer = new ChangedLinesComputer();
+    computer.receiver().write(diff);
+    return computer.changedLines();
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Git Plugin Benchmarks
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.sonarsource.scm.git.RepositoryGenerator.GeneratedRepository;
+
+/**
+ * Repositories of the benchmarks, generated in temporary directories.
+ */
+class GeneratedRepositories {
+
+  private GeneratedRepositories() {
+    // only static methods
+  }
+
+  static GeneratedRepository generate(RepositoryGenerator generator) throws IOException, GitAPIException {
+    return generator.generate(Files.createTempDirectory("sonar-scm-git-benchmark"));
+  }
+
+  /**
+   * Sets the modification time of all files and directories of the work tree one hour in the past, so that persisted
+   * indexes consider them as unchanged.
+   */
+  static void setModificationTimesInThePast(GeneratedRepository repository) throws IOException {
+    FileTime past = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+    try (Stream<Path> paths = Files.walk(repository.worktree())) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        Files.setLastModifiedTime(path, past);
+      }
+    }
+  }
+
+  static void delete(GeneratedRepository repository) throws IOException {
+    repository.close();
+    try (Stream<Path> paths = Files.walk(repository.worktree())) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+}
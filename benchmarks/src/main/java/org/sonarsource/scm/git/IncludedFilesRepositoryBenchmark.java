@@ -0,0 +1,102 @@
+/*
+ * Git Plugin Benchmarks
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.eclipse.jgit.lib.Repository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonarsource.scm.git.RepositoryGenerator.GeneratedRepository;
+
+/**
+ * Indexing of the files that are not ignored, with or without the index persisted by a previous analysis.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IncludedFilesRepositoryBenchmark {
+
+  @Param({"1000", "20000"})
+  public int files;
+
+  @Param({"false", "true"})
+  public boolean persistedIndex;
+
+  private GeneratedRepository repository;
+  private GitMetrics metrics;
+  private GitRepositorySession session;
+  private Path indexDir;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    repository = GeneratedRepositories.generate(new RepositoryGenerator()
+      .setFiles(files)
+      .setLines(1, 1)
+      .setCommits(1)
+      .setGeneratedFileRatio(0.1)
+      .setIgnoreRules(40));
+    GeneratedRepositories.setModificationTimesInThePast(repository);
+    indexDir = repository.git().getRepository().getDirectory().toPath().resolve("sonar-scm-git");
+    metrics = new GitMetrics(new MapSettings().asConfig());
+    session = new GitRepositorySession(new MapSettings().asConfig(), metrics);
+  }
+
+  @Setup(Level.Invocation)
+  public void deleteIndex() throws Exception {
+    if (!persistedIndex && Files.isDirectory(indexDir)) {
+      try (Stream<Path> paths = Files.list(indexDir)) {
+        for (Path path : (Iterable<Path>) paths::iterator) {
+          Files.delete(path);
+        }
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    session.stop();
+    GeneratedRepositories.delete(repository);
+  }
+
+  @Benchmark
+  public IncludedFilesRepository index() throws Exception {
+    try (Repository repo = session.open(repository.worktree())) {
+      return new IncludedFilesRepository(repo, repository.worktree(), metrics);
+    }
+  }
+}
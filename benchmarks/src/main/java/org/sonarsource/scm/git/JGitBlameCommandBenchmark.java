@@ -0,0 +1,116 @@
+/*
+ * Git Plugin Benchmarks
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.batch.scm.BlameCommand;
+import org.sonar.api.batch.scm.BlameLine;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.scan.filesystem.PathResolver;
+import org.sonarsource.scm.git.RepositoryGenerator.GeneratedRepository;
+
+/**
+ * Blame of a single file, depending on its size and on the length of its history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JGitBlameCommandBenchmark {
+
+  @Param({"100", "10000"})
+  public int lines;
+
+  @Param({"1", "200"})
+  public int commits;
+
+  private GeneratedRepository repository;
+  private GitRepositorySession session;
+  private JGitBlameCommand blameCommand;
+  private BlameCommand.BlameInput input;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    repository = GeneratedRepositories.generate(new RepositoryGenerator()
+      .setFiles(1)
+      .setLines(lines, lines)
+      .setCommits(commits)
+      .setChangedFilesPerCommit(1));
+
+    GitMetrics metrics = new GitMetrics(new MapSettings().asConfig());
+    session = new GitRepositorySession(new MapSettings().asConfig(), metrics);
+    blameCommand = new JGitBlameCommand(new PathResolver(), text -> {
+    }, new GitConfiguration(new MapSettings().asConfig()), session, metrics);
+    DefaultFileSystem fs = new DefaultFileSystem(repository.worktree()).setWorkDir(repository.worktree().resolve(".scannerwork"));
+    InputFile inputFile = new TestInputFileBuilder("benchmark", repository.paths().get(0))
+      .setModuleBaseDir(repository.worktree())
+      .setLines(lines + 1)
+      .build();
+    input = new BlameCommand.BlameInput() {
+      @Override
+      public FileSystem fileSystem() {
+        return fs;
+      }
+
+      @Override
+      public Iterable<InputFile> filesToBlame() {
+        return Collections.singleton(inputFile);
+      }
+    };
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    session.stop();
+    GeneratedRepositories.delete(repository);
+  }
+
+  @Benchmark
+  public void blame(Blackhole blackhole) {
+    blameCommand.blame(input, new BlameCommand.BlameOutput() {
+      @Override
+      public void blameResult(InputFile file, List<BlameLine> result) {
+        blackhole.consume(result);
+      }
+    });
+  }
+}
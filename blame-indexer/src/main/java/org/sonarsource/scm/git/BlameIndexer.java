@@ -0,0 +1,185 @@
+/*
+ * Git Plugin Blame Indexer
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.MessageException;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Writes the blame of all the files of a commit to an index, which analyses load with
+ * {@value GitConfiguration#BLAME_INDEX_PROP_KEY} instead of blaming these files. Blaming ahead of time, for example in
+ * a nightly job, takes blame off the critical path of the analyses: they only blame the files changed since.
+ * <p>
+ * Files are blamed by the same {@link FileBlamer} as in analyses, with the blame settings given as system properties,
+ * for example {@code -Dsonar.git.blameWhitespace=exact}. The index is ignored by analyses with other settings.
+ */
+public class BlameIndexer {
+
+  private static final Logger LOG = Loggers.get(BlameIndexer.class);
+
+  private BlameIndexer() {
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 3) {
+      System.err.println("Usage: " + BlameIndexer.class.getName() + " <repository> <revision> <index file>");
+      System.exit(2);
+    }
+    MapSettings settings = new MapSettings();
+    System.getProperties().stringPropertyNames().stream()
+      .filter(key -> key.startsWith("sonar."))
+      .forEach(key -> settings.setProperty(key, System.getProperty(key)));
+    Configuration config = settings.asConfig();
+    try (SessionRepository repo = open(new File(args[0]))) {
+      index(repo, args[1], Paths.get(args[2]).toAbsolutePath(), new GitConfiguration(config), new GitMetrics(config));
+    } catch (MessageException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    } catch (IOException e) {
+      LOG.error("Unable to write the blame index", e);
+      System.exit(1);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      System.exit(1);
+    }
+  }
+
+  private static SessionRepository open(File dir) {
+    RepositoryBuilder builder = new RepositoryBuilder().findGitDir(dir);
+    if (builder.getGitDir() == null) {
+      throw MessageException.of("Not inside a Git repository: " + dir);
+    }
+    return JGitUtils.buildRepository(builder.setMustExist(true));
+  }
+
+  /**
+   * @return the number of files written to the index
+   */
+  static int index(SessionRepository repo, String revision, Path indexFile, GitConfiguration configuration, GitMetrics metrics)
+    throws IOException, InterruptedException {
+    ObjectId commit = repo.resolve(revision + "^{commit}");
+    if (commit == null) {
+      throw MessageException.of("Unknown revision: " + revision);
+    }
+    BlameCache.Writer writer = new BlameCache.Writer();
+    BlobCache blobCache = new BlobCache(BlobCache.defaultMaxWeight(), metrics);
+    UnaryOperator<ObjectReader> sharedBlobs = blobCache::wrap;
+    repo.addReaderDecorator(sharedBlobs);
+    try {
+      JGitBlameCommand.withBlameHistory(repo, commit, configuration, metrics, () -> {
+        GitBlamer blamer = new GitBlamer(repo, metrics, commit, configuration.blameDiffAlgorithm(), configuration.blameWhitespace());
+        FileBlamer fileBlamer = new FileBlamer(blamer, metrics, configuration.shallowBoundaryAuthor());
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (String path : files(repo, commit)) {
+          tasks.add(() -> {
+            index(repo, blamer, fileBlamer, metrics, writer, path);
+            return null;
+          });
+        }
+        LOG.info("Blame {} files of {}", tasks.size(), commit.name());
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new GitThreadFactory());
+        try {
+          executor.invokeAll(tasks);
+        } finally {
+          executor.shutdownNow();
+        }
+        writer.save(indexFile, JGitBlameCommand.blameFingerprint(configuration, blamer));
+      });
+    } finally {
+      repo.removeReaderDecorator(sharedBlobs);
+    }
+    LOG.info("Blame of {} files written to {}", writer.size(), indexFile);
+    return writer.size();
+  }
+
+  private static List<String> files(Repository repo, ObjectId commit) throws IOException {
+    List<String> files = new ArrayList<>();
+    try (RevWalk walk = new RevWalk(repo); TreeWalk treeWalk = new TreeWalk(walk.getObjectReader())) {
+      treeWalk.addTree(walk.parseCommit(commit).getTree());
+      treeWalk.setRecursive(true);
+      while (treeWalk.next()) {
+        if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE) {
+          files.add(treeWalk.getPathString());
+        }
+      }
+    }
+    return files;
+  }
+
+  private static void index(Repository repo, GitBlamer blamer, FileBlamer fileBlamer, GitMetrics metrics, BlameCache.Writer writer, String path) {
+    try {
+      GitBlamer.CommittedFile committed = blamer.lastCommit(path);
+      if (committed == null) {
+        return;
+      }
+      byte[] content;
+      try (ObjectReader reader = repo.newObjectReader()) {
+        content = reader.open(committed.blobId(), Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE);
+      }
+      if (RawText.isBinary(content)) {
+        LOG.debug("Skip blame of file {}, it is binary", path);
+        return;
+      }
+      FileBlame blame = fileBlamer.blame(path, committed, lineCount(content));
+      if (blame != null) {
+        writer.add(path, committed.blobId(), blame);
+      }
+    } catch (Exception e) {
+      metrics.increment(GitMetrics.BLAME_ERRORS);
+      LOG.warn("Unable to blame file " + path, e);
+    }
+  }
+
+  /**
+   * Counts lines like the scanner does for {@link org.sonar.api.batch.fs.InputFile#lines()}: a final line break is
+   * followed by an empty line.
+   */
+  static int lineCount(byte[] content) {
+    int lines = 1;
+    for (int i = 0; i < content.length; i++) {
+      if (content[i] == '\n' || (content[i] == '\r' && (i + 1 == content.length || content[i + 1] != '\n'))) {
+        lines++;
+      }
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Git Plugin Blame Indexer
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.scm.BlameLine;
+import org.sonar.api.utils.MessageException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.sonarsource.scm.git.Utils.javaUnzip;
+
+public class BlameIndexerTest {
+
+  private static final String DUMMY_JAVA = "src/main/java/org/dummy/Dummy.java";
+  private static final String ANOTHER_DUMMY_JAVA = "src/main/java/org/dummy/AnotherDummy.java";
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Rule
+  public GitSessionTester gitTester = new GitSessionTester();
+
+  private SessionRepository repo;
+
+  @Before
+  public void prepare() throws IOException {
+    File projectDir = temp.newFolder();
+    javaUnzip(new File("../sonar-scm-git-plugin/test-repos/dummy-git.zip"), projectDir);
+    repo = gitTester.session().open(new File(projectDir, "dummy-git").toPath());
+  }
+
+  @After
+  public void after() {
+    repo.close();
+  }
+
+  @Test
+  public void index_all_files_of_a_revision() throws Exception {
+    Path indexFile = temp.getRoot().toPath().resolve("blame-index");
+    assertThat(BlameIndexer.index(repo, "HEAD", indexFile, gitTester.configuration(), gitTester.metrics())).isEqualTo(5);
+
+    BlameCache index = BlameCache.load(indexFile, fingerprint(), false);
+    assertThat(index).isNotNull();
+    assertThat(index.size()).isEqualTo(5);
+    List<BlameLine> dummy = index.get(DUMMY_JAVA, blobId("HEAD", DUMMY_JAVA)).toBlameLines();
+    // with the empty line after the final line break, as counted by the scanner
+    assertThat(dummy).hasSize(30);
+    assertThat(dummy).extracting(BlameLine::revision).containsOnly("6b3aab35a3ea32c1636fee56f996e677653c48ea", "0d269c1acfb8e6d4d33f3c43041eb87e0df0f5e7");
+  }
+
+  @Test
+  public void index_an_older_revision() throws Exception {
+    Path indexFile = temp.getRoot().toPath().resolve("blame-index");
+    BlameIndexer.index(repo, "HEAD~2", indexFile, gitTester.configuration(), gitTester.metrics());
+
+    BlameCache index = BlameCache.load(indexFile, fingerprint(), false);
+    assertThat(index.get(DUMMY_JAVA, blobId("HEAD~2", DUMMY_JAVA)).lineCount()).isEqualTo(27);
+    assertThat(index.get(DUMMY_JAVA, blobId("HEAD", DUMMY_JAVA))).isNull();
+    assertThat(index.get(ANOTHER_DUMMY_JAVA, blobId("HEAD", ANOTHER_DUMMY_JAVA))).isNotNull();
+  }
+
+  @Test
+  public void count_horizon_depth_from_the_indexed_revision() throws Exception {
+    gitTester.settings().setProperty(GitConfiguration.BLAME_MAX_DEPTH_PROP_KEY, 1);
+    Path indexFile = temp.getRoot().toPath().resolve("blame-index");
+    BlameIndexer.index(repo, "HEAD~2", indexFile, gitTester.configuration(), gitTester.metrics());
+
+    // as computed by an analysis of HEAD~2
+    long[] fingerprint = new long[1];
+    ObjectId start = repo.resolve("HEAD~2");
+    JGitBlameCommand.withBlameHistory(repo, start, gitTester.configuration(), gitTester.metrics(),
+      () -> fingerprint[0] = JGitBlameCommand.blameFingerprint(gitTester.configuration(), new GitBlamer(repo, gitTester.metrics(), start,
+        gitTester.configuration().blameDiffAlgorithm(), gitTester.configuration().blameWhitespace())));
+    BlameCache index = BlameCache.load(indexFile, fingerprint[0], false);
+    assertThat(index).isNotNull();
+    assertThat(index.get(DUMMY_JAVA, blobId("HEAD~2", DUMMY_JAVA)).toBlameLines()).extracting(BlameLine::revision)
+      .containsOnly("ffb55a516440d069145dd9199e4ac67976b2338b");
+  }
+
+  @Test
+  public void fail_on_unknown_revision() {
+    assertThatThrownBy(() -> BlameIndexer.index(repo, "unknown", temp.getRoot().toPath().resolve("blame-index"),
+      gitTester.configuration(), gitTester.metrics()))
+        .isInstanceOf(MessageException.class)
+        .hasMessage("Unknown revision: unknown");
+  }
+
+  @Test
+  public void count_lines_like_the_scanner() {
+    assertThat(BlameIndexer.lineCount("".getBytes(UTF_8))).isEqualTo(1);
+    assertThat(BlameIndexer.lineCount("a".getBytes(UTF_8))).isEqualTo(1);
+    assertThat(BlameIndexer.lineCount("a\n".getBytes(UTF_8))).isEqualTo(2);
+    assertThat(BlameIndexer.lineCount("a\r\nb\rc\n\n".getBytes(UTF_8))).isEqualTo(5);
+    assertThat(BlameIndexer.lineCount("a\r".getBytes(UTF_8))).isEqualTo(2);
+  }
+
+  private long fingerprint() throws IOException {
+    GitConfiguration configuration = gitTester.configuration();
+    return JGitBlameCommand.blameFingerprint(configuration, new GitBlamer(repo, gitTester.metrics()));
+  }
+
+  private ObjectId blobId(String revision, String path) throws IOException {
+    try (RevWalk walk = new RevWalk(repo);
+      TreeWalk treeWalk = TreeWalk.forPath(repo, path, walk.parseCommit(repo.resolve(revision)).getTree())) {
+      return treeWalk.getObjectId(0);
+    }
+  }
+}
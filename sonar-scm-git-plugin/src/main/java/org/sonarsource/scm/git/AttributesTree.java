@@ -0,0 +1,161 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.attributes.Attribute;
+import org.eclipse.jgit.attributes.AttributesNode;
+import org.eclipse.jgit.attributes.AttributesRule;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Git attributes of the files of a work tree. The {@code .gitattributes} file of each directory is read once, the
+ * first time a file below it is looked up, and shared by all lookups.
+ * <p>
+ * As with Git, {@code $GIT_DIR/info/attributes} takes precedence over the {@code .gitattributes} files, from the
+ * directory of the file up to the root, which take precedence over {@code core.attributesFile}. The {@code binary}
+ * macro is expanded to {@code -diff}, the other macros are not.
+ */
+class AttributesTree {
+
+  private static final String ROOT = "";
+  private static final String BINARY_MACRO = "binary";
+  private static final String DIFF = "diff";
+
+  private final Path workTree;
+  private final AttributesNode info;
+  private final AttributesNode global;
+  private final Map<String, AttributesNode> directories = new ConcurrentHashMap<>();
+
+  AttributesTree(Repository repo) throws IOException {
+    this.workTree = repo.getWorkTree().toPath();
+    this.info = read(repo.getDirectory().toPath().resolve(Constants.INFO_ATTRIBUTES));
+    this.global = read(globalAttributesFile(repo));
+  }
+
+  @CheckForNull
+  private static Path globalAttributesFile(Repository repo) {
+    String attributesFile = repo.getConfig().get(CoreConfig.KEY).getAttributesFile();
+    if (attributesFile == null) {
+      return null;
+    }
+    FS fs = repo.getFS();
+    File file = attributesFile.startsWith("~/") ? fs.resolve(fs.userHome(), attributesFile.substring(2)) : fs.resolve(null, attributesFile);
+    return file.toPath();
+  }
+
+  /**
+   * @param path path of a file relative to the work tree root, with '/' separators
+   * @return the state of the attribute for the file, or null if no rule specifies it
+   */
+  @CheckForNull
+  Attribute get(String path, String key) throws IOException {
+    Attribute attribute = get(info, path, key);
+    if (attribute != null) {
+      return attribute;
+    }
+    for (int slash = path.lastIndexOf('/'); slash >= 0; slash = path.lastIndexOf('/', slash - 1)) {
+      attribute = get(directory(path.substring(0, slash)), path.substring(slash + 1), key);
+      if (attribute != null) {
+        return attribute;
+      }
+    }
+    attribute = get(directory(ROOT), path, key);
+    return attribute != null ? attribute : get(global, path, key);
+  }
+
+  /**
+   * @return whether the attribute is set, or has the value {@code true}
+   */
+  boolean isSet(String path, String key) throws IOException {
+    Attribute attribute = get(path, key);
+    return attribute != null && (attribute.getState() == Attribute.State.SET || "true".equals(attribute.getValue()));
+  }
+
+  /**
+   * @return whether the attribute is unset, as {@code -diff}
+   */
+  boolean isUnset(String path, String key) throws IOException {
+    Attribute attribute = get(path, key);
+    return attribute != null && attribute.getState() == Attribute.State.UNSET;
+  }
+
+  private AttributesNode directory(String relativePath) throws IOException {
+    AttributesNode node = directories.get(relativePath);
+    if (node == null) {
+      node = read(workTree.resolve(relativePath).resolve(Constants.DOT_GIT_ATTRIBUTES));
+      directories.putIfAbsent(relativePath, node);
+    }
+    return node;
+  }
+
+  /**
+   * @return a node without rules if the file doesn't exist
+   */
+  private static AttributesNode read(@Nullable Path file) throws IOException {
+    AttributesNode node = new AttributesNode();
+    if (file != null) {
+      try (InputStream in = Files.newInputStream(file)) {
+        node.parse(in);
+      } catch (NoSuchFileException e) {
+        // no rules
+      }
+    }
+    return node;
+  }
+
+  /**
+   * The last matching rule of a file wins, and the last attribute of a rule.
+   */
+  @CheckForNull
+  private static Attribute get(AttributesNode node, String relativePath, String key) {
+    List<AttributesRule> rules = node.getRules();
+    for (int i = rules.size() - 1; i >= 0; i--) {
+      AttributesRule rule = rules.get(i);
+      if (!rule.isMatch(relativePath, false)) {
+        continue;
+      }
+      List<Attribute> attributes = rule.getAttributes();
+      for (int j = attributes.size() - 1; j >= 0; j--) {
+        Attribute attribute = attributes.get(j);
+        if (attribute.getKey().equals(key)) {
+          return attribute;
+        }
+        if (DIFF.equals(key) && attribute.getKey().equals(BINARY_MACRO) && attribute.getState() == Attribute.State.SET) {
+          return new Attribute(DIFF, Attribute.State.UNSET);
+        }
+      }
+    }
+    return null;
+  }
+}
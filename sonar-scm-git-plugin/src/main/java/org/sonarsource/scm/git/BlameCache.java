@@ -0,0 +1,468 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Blame of the files of a previous analysis, persisted in the Git directory, or written ahead of analyses by the
+ * blame indexer. Each entry is the blame of a path with a given content. Whether it still applies to a file also
+ * depends on the history the file was blamed from, see {@link ReusableBlame}, and on the blame settings and the boundary
+ * of the history, which the fingerprint of the cache covers.
+ * <p>
+ * The cache has a fixed layout, read in place from a buffer without deserialization. The buffer is either a memory
+ * mapping of the file, which keeps the cache off the heap, or a copy of the file on the heap. Integers are big-endian:
+ * <pre>
+ * header:  magic, version, fingerprint (long), commit count, author count, file count, run count
+ * commits: id (20 bytes), author index, date (long)
+ * authors: offset in the string pool, length
+ * files:   path hash, path offset in the string pool, path length, blob id (20 bytes), first run, run count
+ * runs:    end line (exclusive), commit index
+ * pool:    UTF-8 strings
+ * </pre>
+ * Files are sorted by path hash.
+ * <p>
+ * The cache of the analyses is saved as successive generations of a file, see {@link Writer#saveGeneration}, since the
+ * current generation may still be mapped in memory while the next one is written.
+ * <p>
+ * Safe to use from several threads.
+ */
+class BlameCache {
+
+  private static final Logger LOG = Loggers.get(BlameCache.class);
+  private static final int MAGIC = 0x53514742;
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 32;
+  private static final int COMMIT_SIZE = Constants.OBJECT_ID_LENGTH + 12;
+  private static final int AUTHOR_SIZE = 8;
+  private static final int FILE_SIZE = Constants.OBJECT_ID_LENGTH + 20;
+  private static final int RUN_SIZE = 8;
+
+  private final ByteBuffer buffer;
+  private final int commitCount;
+  private final int authorCount;
+  private final int fileCount;
+  private final int authorsOffset;
+  private final int filesOffset;
+  private final int runsOffset;
+  private final int poolOffset;
+  private final MappedCommits commits = new MappedCommits();
+
+  private BlameCache(ByteBuffer buffer) {
+    this.buffer = buffer;
+    this.commitCount = buffer.getInt(16);
+    this.authorCount = buffer.getInt(20);
+    this.fileCount = buffer.getInt(24);
+    int runCount = buffer.getInt(28);
+    this.authorsOffset = HEADER_SIZE + commitCount * COMMIT_SIZE;
+    this.filesOffset = authorsOffset + authorCount * AUTHOR_SIZE;
+    this.runsOffset = filesOffset + fileCount * FILE_SIZE;
+    this.poolOffset = runsOffset + runCount * RUN_SIZE;
+  }
+
+  /**
+   * @param offHeap whether to map the file in memory rather than to copy it on the heap
+   * @return null if there is no cache, or if it was computed with another fingerprint
+   */
+  @CheckForNull
+  static BlameCache load(Path file, long fingerprint, boolean offHeap) throws IOException {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    ByteBuffer buffer;
+    if (offHeap) {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+    } else {
+      buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+    }
+    if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != fingerprint) {
+      return null;
+    }
+    BlameCache cache = new BlameCache(buffer);
+    return cache.poolOffset <= buffer.limit() ? cache : null;
+  }
+
+  /**
+   * Loads the latest generation of the file saved by {@link Writer#saveGeneration}.
+   *
+   * @return null if there is no cache, or if it was computed with another fingerprint
+   */
+  @CheckForNull
+  static BlameCache loadLatest(Path file, long fingerprint, boolean offHeap) throws IOException {
+    List<Path> generations = generations(file);
+    return generations.isEmpty() ? null : load(generations.get(generations.size() - 1), fingerprint, offHeap);
+  }
+
+  /**
+   * @return the generations of the file, from the oldest to the latest
+   */
+  private static List<Path> generations(Path file) throws IOException {
+    List<Path> generations = new ArrayList<>();
+    if (!Files.isDirectory(file.getParent())) {
+      return generations;
+    }
+    try (DirectoryStream<Path> siblings = Files.newDirectoryStream(file.getParent(), sibling -> generation(file, sibling) > 0)) {
+      siblings.forEach(generations::add);
+    }
+    generations.sort(Comparator.comparingLong(generation -> generation(file, generation)));
+    return generations;
+  }
+
+  /**
+   * @return the generation number of the sibling of the file, or 0 if it is not a generation of the file
+   */
+  private static long generation(Path file, Path sibling) {
+    String prefix = file.getFileName() + ".";
+    String name = sibling.getFileName().toString();
+    String suffix = name.startsWith(prefix) ? name.substring(prefix.length()) : "";
+    if (suffix.isEmpty() || !suffix.chars().allMatch(Character::isDigit)) {
+      return 0L;
+    }
+    try {
+      return Long.parseLong(suffix);
+    } catch (NumberFormatException e) {
+      return 0L;
+    }
+  }
+
+  /**
+   * @return a fingerprint of what the blame of a file depends on besides its content and its history: the blame settings,
+   * and the commits where the history ends
+   */
+  static long fingerprint(Collection<? extends AnyObjectId> boundary, String... settings) {
+    MessageDigest digest = Constants.newMessageDigest();
+    for (String setting : settings) {
+      digest.update(setting.getBytes(UTF_8));
+      digest.update((byte) 0);
+    }
+    List<ObjectId> sortedBoundary = new ArrayList<>();
+    boundary.forEach(id -> sortedBoundary.add(id.copy()));
+    Collections.sort(sortedBoundary);
+    byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+    for (ObjectId id : sortedBoundary) {
+      id.copyRawTo(raw, 0);
+      digest.update(raw);
+    }
+    return ByteBuffer.wrap(digest.digest()).getLong();
+  }
+
+  int size() {
+    return fileCount;
+  }
+
+  BlameCommits commits() {
+    return commits;
+  }
+
+  /**
+   * @return the blame of the file with this content, or null if it is not cached
+   */
+  @CheckForNull
+  FileBlame get(String path, AnyObjectId blobId) {
+    int hash = path.hashCode();
+    int low = 0;
+    int high = fileCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (buffer.getInt(fileOffset(middle)) < hash) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    for (int file = low; file < fileCount && buffer.getInt(fileOffset(file)) == hash; file++) {
+      int offset = fileOffset(file);
+      if (path.equals(string(buffer.getInt(offset + 4), buffer.getInt(offset + 8)))) {
+        return blobId.equals(id(offset + 12)) ? blame(offset) : null;
+      }
+    }
+    return null;
+  }
+
+  private FileBlame blame(int fileOffset) {
+    int firstRun = buffer.getInt(fileOffset + FILE_SIZE - 8);
+    int runCount = buffer.getInt(fileOffset + FILE_SIZE - 4);
+    ByteBuffer runs = buffer.duplicate();
+    runs.position(runsOffset + firstRun * RUN_SIZE);
+    runs.limit(runsOffset + (firstRun + runCount) * RUN_SIZE);
+    return new FileBlame(runs.slice().asIntBuffer(), commits);
+  }
+
+  private int fileOffset(int file) {
+    return filesOffset + file * FILE_SIZE;
+  }
+
+  private ObjectId id(int offset) {
+    byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+    ByteBuffer id = buffer.duplicate();
+    id.position(offset);
+    id.get(raw);
+    return ObjectId.fromRaw(raw);
+  }
+
+  private String string(int poolPosition, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer string = buffer.duplicate();
+    string.position(poolOffset + poolPosition);
+    string.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private class MappedCommits implements BlameCommits {
+    @Override
+    public int size() {
+      return commitCount;
+    }
+
+    @Override
+    public ObjectId id(int index) {
+      return BlameCache.this.id(HEADER_SIZE + index * COMMIT_SIZE);
+    }
+
+    @Override
+    public String author(int index) {
+      int author = authorsOffset + buffer.getInt(HEADER_SIZE + index * COMMIT_SIZE + Constants.OBJECT_ID_LENGTH) * AUTHOR_SIZE;
+      return string(buffer.getInt(author), buffer.getInt(author + 4));
+    }
+
+    @Override
+    public long date(int index) {
+      return buffer.getLong(HEADER_SIZE + index * COMMIT_SIZE + Constants.OBJECT_ID_LENGTH + 4);
+    }
+  }
+
+  /**
+   * Collects the blame of the files of an analysis, which may come from the current cache, to replace it.
+   * <p>
+   * Safe to use from several threads.
+   */
+  static class Writer {
+    private final List<Entry> entries = new ArrayList<>();
+
+    synchronized void add(String path, AnyObjectId blobId, FileBlame blame) {
+      entries.add(new Entry(path, blobId.copy(), blame));
+    }
+
+    /**
+     * Adds the files of the cache that were not added, so that the next cache keeps the blame of the files this
+     * analysis doesn't blame, such as the files of other branches. Their runs and commits are copied from the cache when
+     * saving.
+     *
+     * @return the number of files carried forward
+     */
+    synchronized int addMissing(BlameCache cache) {
+      Set<String> paths = new HashSet<>();
+      entries.forEach(entry -> paths.add(entry.path));
+      int added = 0;
+      for (int file = 0; file < cache.fileCount; file++) {
+        int offset = cache.fileOffset(file);
+        String path = cache.string(cache.buffer.getInt(offset + 4), cache.buffer.getInt(offset + 8));
+        if (paths.add(path)) {
+          entries.add(new Entry(path, cache.id(offset + 12), cache.blame(offset)));
+          added++;
+        }
+      }
+      return added;
+    }
+
+    synchronized int size() {
+      return entries.size();
+    }
+
+    /**
+     * Writes the cache to the file, replacing it.
+     */
+    synchronized void save(Path file, long fingerprint) throws IOException {
+      move(write(file, fingerprint), file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes the cache as the next generation of the file, without replacing the current one: the current generation
+     * may still be mapped in memory, and a mapped file can't be replaced or deleted on Windows. The older generations are
+     * deleted when possible, otherwise by a later save.
+     *
+     * @return the saved generation, for {@link #loadLatest}
+     */
+    synchronized Path saveGeneration(Path file, long fingerprint) throws IOException {
+      List<Path> previous = generations(file);
+      long next = previous.isEmpty() ? 1L : (generation(file, previous.get(previous.size() - 1)) + 1L);
+      Path saved = file.resolveSibling(file.getFileName() + "." + next);
+      move(write(file, fingerprint), saved);
+      for (Path generation : previous) {
+        try {
+          Files.deleteIfExists(generation);
+        } catch (IOException e) {
+          LOG.debug("Unable to delete {}, it is deleted by a later analysis: {}", generation, e.getMessage());
+        }
+      }
+      return saved;
+    }
+
+    /**
+     * @return the temporary file the cache is written to
+     */
+    private Path write(Path file, long fingerprint) throws IOException {
+      entries.sort(Comparator.comparingInt((Entry entry) -> entry.path.hashCode()).thenComparing(entry -> entry.path));
+      CommitTable commitTable = new CommitTable();
+      Map<String, Integer> authorIndexes = new HashMap<>();
+      StringPool pool = new StringPool();
+      List<byte[]> authors = new ArrayList<>();
+      List<int[]> runs = new ArrayList<>();
+      long runCount = 0;
+      for (Entry entry : entries) {
+        FileBlame blame = entry.blame;
+        int[] fileRuns = new int[2 * blame.runCount()];
+        for (int run = 0; run < blame.runCount(); run++) {
+          BlameCommits commits = blame.commits();
+          int commit = blame.runCommit(run);
+          fileRuns[2 * run] = blame.runEnd(run);
+          fileRuns[2 * run + 1] = commitTable.indexOf(commits.id(commit), commits.author(commit), commits.date(commit));
+        }
+        runs.add(fileRuns);
+        runCount += blame.runCount();
+      }
+      for (int commit = 0; commit < commitTable.size(); commit++) {
+        authorIndexes.computeIfAbsent(commitTable.author(commit), author -> {
+          authors.add(author.getBytes(UTF_8));
+          return authors.size() - 1;
+        });
+      }
+      long size = HEADER_SIZE + (long) commitTable.size() * COMMIT_SIZE + (long) authors.size() * AUTHOR_SIZE + (long) entries.size() * FILE_SIZE
+        + runCount * RUN_SIZE + authors.stream().mapToLong(author -> author.length).sum()
+        + entries.stream().mapToLong(entry -> entry.path.getBytes(UTF_8).length).sum();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Blame cache is too large: " + size + " bytes");
+      }
+
+      Files.createDirectories(file.getParent());
+      Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(fingerprint);
+        out.writeInt(commitTable.size());
+        out.writeInt(authors.size());
+        out.writeInt(entries.size());
+        out.writeInt((int) runCount);
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        for (int commit = 0; commit < commitTable.size(); commit++) {
+          commitTable.id(commit).copyRawTo(raw, 0);
+          out.write(raw);
+          out.writeInt(authorIndexes.get(commitTable.author(commit)));
+          out.writeLong(commitTable.date(commit));
+        }
+        for (byte[] author : authors) {
+          out.writeInt(pool.add(author));
+          out.writeInt(author.length);
+        }
+        int firstRun = 0;
+        for (Entry entry : entries) {
+          byte[] path = entry.path.getBytes(UTF_8);
+          out.writeInt(entry.path.hashCode());
+          out.writeInt(pool.add(path));
+          out.writeInt(path.length);
+          entry.blobId.copyRawTo(raw, 0);
+          out.write(raw);
+          out.writeInt(firstRun);
+          out.writeInt(entry.blame.runCount());
+          firstRun += entry.blame.runCount();
+        }
+        for (int[] fileRuns : runs) {
+          for (int value : fileRuns) {
+            out.writeInt(value);
+          }
+        }
+        for (byte[] string : pool.strings) {
+          out.write(string);
+        }
+      }
+      return tmp;
+    }
+
+    private static void move(Path source, Path target, CopyOption... options) throws IOException {
+      CopyOption[] atomicOptions = Arrays.copyOf(options, options.length + 1);
+      atomicOptions[options.length] = StandardCopyOption.ATOMIC_MOVE;
+      try {
+        Files.move(source, target, atomicOptions);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(source, target, options);
+      }
+    }
+
+  }
+
+  private static class StringPool {
+    private final List<byte[]> strings = new ArrayList<>();
+    private int size;
+
+    /**
+     * @return the position of the string in the pool
+     */
+    private int add(byte[] string) {
+      strings.add(string);
+      size += string.length;
+      return size - string.length;
+    }
+  }
+
+  private static class Entry {
+    private final String path;
+    private final ObjectId blobId;
+    private final FileBlame blame;
+
+    private Entry(String path, ObjectId blobId, FileBlame blame) {
+      this.path = path;
+      this.blobId = blobId;
+      this.blame = blame;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Bound of the history traversed by blame, as a maximum number of commits from the blamed commit, usually
+ * {@code HEAD}, and/or a minimum commit date.
+ * <p>
+ * The commits at the horizon are reported as shallow commits by the readers it wraps, so that JGit reads them as
+ * commits without parents and blame stops there as it does in a shallow clone. With a depth of N, the boundary is the
+ * same as the one of {@code git clone --depth N}. With a date, the boundary is made of the first commits older than
+ * the date, so that the lines older than the horizon are dated before it.
+ */
+class BlameHorizon {
+
+  private final Set<ObjectId> boundary;
+
+  private BlameHorizon(Set<ObjectId> boundary) {
+    this.boundary = boundary;
+  }
+
+  /**
+   * @param startId the commit blame starts from, or null if there is none
+   */
+  static BlameHorizon compute(Repository repo, @Nullable ObjectId startId, @Nullable Integer maxDepth, @Nullable Instant minCommitDate)
+    throws IOException {
+    Set<ObjectId> boundary = new HashSet<>();
+    if (startId == null || (maxDepth == null && minCommitDate == null)) {
+      return new BlameHorizon(boundary);
+    }
+    try (RevWalk walk = new RevWalk(repo)) {
+      RevFlag seen = walk.newFlag("seen");
+      RevCommit start = walk.parseCommit(startId);
+      start.add(seen);
+      List<RevCommit> level = new ArrayList<>();
+      level.add(start);
+      // breadth first, so that each commit is reached at its smallest depth
+      for (int depth = 1; !level.isEmpty(); depth++) {
+        List<RevCommit> next = new ArrayList<>();
+        for (RevCommit commit : level) {
+          walk.parseHeaders(commit);
+          if (isBeyond(commit, depth, maxDepth, minCommitDate)) {
+            if (commit.getParentCount() > 0) {
+              boundary.add(commit.copy());
+            }
+            continue;
+          }
+          for (RevCommit parent : commit.getParents()) {
+            if (!parent.has(seen)) {
+              parent.add(seen);
+              next.add(parent);
+            }
+          }
+        }
+        level = next;
+      }
+    }
+    return new BlameHorizon(boundary);
+  }
+
+  private static boolean isBeyond(RevCommit commit, int depth, @Nullable Integer maxDepth, @Nullable Instant minCommitDate) {
+    return (maxDepth != null && depth >= maxDepth)
+      || (minCommitDate != null && commit.getCommitTime() < minCommitDate.getEpochSecond());
+  }
+
+  /**
+   * @return the commits whose parents are hidden, shallow commits of the repository excluded
+   */
+  Set<ObjectId> boundary() {
+    return boundary;
+  }
+
+  ObjectReader wrap(ObjectReader reader) {
+    return boundary.isEmpty() ? reader : new HorizonReader(reader);
+  }
+
+  private class HorizonReader extends ObjectReader.Filter {
+    private final ObjectReader delegate;
+
+    private HorizonReader(ObjectReader delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected ObjectReader delegate() {
+      return delegate;
+    }
+
+    @Override
+    public ObjectReader newReader() {
+      return new HorizonReader(delegate.newReader());
+    }
+
+    @Override
+    public Set<ObjectId> getShallowCommits() throws IOException {
+      Set<ObjectId> shallowCommits = new HashSet<>(delegate.getShallowCommits());
+      shallowCommits.addAll(boundary);
+      return shallowCommits;
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Blames files in three stages connected by bounded queues: one thread reads ahead the tree entries and blobs of the
+ * upcoming files, workers compute blame, and the calling thread emits the results. Reading cold pack files
+ * then overlaps with diffing, and results reach the output at a steady rate, always from the same thread.
+ */
+class BlamePipeline<R> {
+
+  private static final Logger LOG = Loggers.get(BlamePipeline.class);
+
+  private final Item<R> end = new Item<>(null, "");
+  private final Repository repo;
+  private final int workers;
+  private final BlockingQueue<Item<R>> toBlame;
+  private final BlockingQueue<Item<R>> toEmit;
+
+  BlamePipeline(Repository repo, int workers) {
+    this.repo = repo;
+    this.workers = workers;
+    this.toBlame = new ArrayBlockingQueue<>(2 * workers);
+    this.toEmit = new ArrayBlockingQueue<>(2 * workers);
+  }
+
+  /**
+   * @param <R> the blame result of a file
+   */
+  interface Stages<R> {
+    /**
+     * @return the path of the file relative to the work tree root
+     */
+    String path(InputFile inputFile);
+
+    /**
+     * Called concurrently by the workers.
+     *
+     * @return {@code null} if the file can't be blamed
+     */
+    @CheckForNull
+    R blame(InputFile inputFile, String path);
+
+    /**
+     * Called by the thread running the pipeline, in the order results are computed. Failures to emit the result of a
+     * file are expected to be handled here, as they abort the pipeline otherwise.
+     */
+    void emit(InputFile inputFile, R result);
+  }
+
+  /**
+   * Blames the given files, returning once all results have been emitted.
+   *
+   * @throws InterruptedException if the calling thread is interrupted while waiting for results
+   */
+  void run(Iterable<InputFile> files, Stages<R> stages) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(workers + 1, new GitThreadFactory());
+    boolean completed = false;
+    try {
+      executor.execute(() -> prefetch(files, stages));
+      for (int i = 0; i < workers; i++) {
+        executor.execute(() -> blame(stages));
+      }
+      emit(stages);
+      completed = true;
+    } finally {
+      if (completed) {
+        executor.shutdown();
+      } else {
+        // the other stages may be blocked on full queues
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  private void prefetch(Iterable<InputFile> files, Stages<R> stages) {
+    try (ObjectReader reader = repo.newObjectReader()) {
+      RevTree head = headTree(reader);
+      for (InputFile inputFile : files) {
+        String path = stages.path(inputFile);
+        if (head != null) {
+          prefetch(reader, head, path);
+        }
+        toBlame.put(new Item<>(inputFile, path));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      for (int i = 0; i < workers; i++) {
+        putQuietly(toBlame, end);
+      }
+    }
+  }
+
+  @CheckForNull
+  private RevTree headTree(ObjectReader reader) {
+    try (RevWalk walk = new RevWalk(reader)) {
+      ObjectId head = repo.resolve("HEAD^{commit}");
+      return head != null ? walk.parseCommit(head).getTree() : null;
+    } catch (IOException e) {
+      LOG.debug("Unable to read HEAD, blame will not read ahead", e);
+      return null;
+    }
+  }
+
+  /**
+   * Reads the trees leading to the file and the header of its blob, so that the pack windows they live in are cached
+   * by the time a worker blames the file.
+   */
+  private static void prefetch(ObjectReader reader, RevTree head, String path) {
+    try (TreeWalk treeWalk = TreeWalk.forPath(reader, path, head)) {
+      if (treeWalk != null) {
+        reader.getObjectSize(treeWalk.getObjectId(0), ObjectReader.OBJ_ANY);
+      }
+    } catch (IOException e) {
+      LOG.debug("Unable to read ahead " + path, e);
+    }
+  }
+
+  private void blame(Stages<R> stages) {
+    try {
+      for (Item<R> item = toBlame.take(); item != end; item = toBlame.take()) {
+        R result = stages.blame(item.inputFile, item.path);
+        if (result != null) {
+          toEmit.put(item.withResult(result));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      putQuietly(toEmit, end);
+    }
+  }
+
+  private void emit(Stages<R> stages) throws InterruptedException {
+    int running = workers;
+    while (running > 0) {
+      Item<R> item = toEmit.take();
+      if (item == end) {
+        running--;
+      } else {
+        stages.emit(item.inputFile, item.result);
+      }
+    }
+  }
+
+  private static <R> void putQuietly(BlockingQueue<Item<R>> queue, Item<R> item) {
+    try {
+      queue.put(item);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static class Item<R> {
+    private final InputFile inputFile;
+    private final String path;
+    private R result;
+
+    private Item(@Nullable InputFile inputFile, String path) {
+      this.inputFile = inputFile;
+      this.path = path;
+    }
+
+    private Item<R> withResult(R result) {
+      this.result = result;
+      return this;
+    }
+  }
+}
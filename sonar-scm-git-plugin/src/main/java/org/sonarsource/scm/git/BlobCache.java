@@ -0,0 +1,136 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/**
+ * Decompressed contents of blobs, shared by the readers of all blame workers. Workers blaming files with common
+ * history inflate the same blobs and delta chains, which the per-reader delta base cache of JGit can't share.
+ * <p>
+ * Least recently used contents are evicted as soon as the total size would exceed the limit. Blobs larger than a
+ * fraction of the limit are never cached, so that a single one can't flush all the others.
+ */
+class BlobCache {
+
+  /**
+   * Rough memory used by each entry besides the content: object id, map entry and array header.
+   */
+  private static final int ENTRY_OVERHEAD = 96;
+  private static final int MAX_ENTRY_SHARE = 8;
+
+  private final long maxWeight;
+  private final long maxEntryWeight;
+  private final GitMetrics metrics;
+  private final LinkedHashMap<ObjectId, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long weight;
+
+  BlobCache(long maxWeight, GitMetrics metrics) {
+    this.maxWeight = maxWeight;
+    this.maxEntryWeight = maxWeight / MAX_ENTRY_SHARE;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Default limit, a small share of the heap next to the window cache and the blame results.
+   */
+  static long defaultMaxWeight() {
+    return Runtime.getRuntime().maxMemory() / 16;
+  }
+
+  ObjectReader wrap(ObjectReader reader) {
+    return new CachingReader(reader);
+  }
+
+  @CheckForNull
+  synchronized byte[] get(AnyObjectId id) {
+    return entries.get(id);
+  }
+
+  synchronized void put(AnyObjectId id, byte[] content) {
+    long entryWeight = weigh(content);
+    if (entryWeight > maxEntryWeight || entries.containsKey(id)) {
+      return;
+    }
+    entries.put(id.copy(), content);
+    weight += entryWeight;
+    Iterator<Map.Entry<ObjectId, byte[]>> eldest = entries.entrySet().iterator();
+    while (weight > maxWeight) {
+      weight -= weigh(eldest.next().getValue());
+      eldest.remove();
+      metrics.increment(GitMetrics.BLOB_CACHE_EVICTIONS);
+    }
+  }
+
+  synchronized long weight() {
+    return weight;
+  }
+
+  private static long weigh(byte[] content) {
+    return (long) content.length + ENTRY_OVERHEAD;
+  }
+
+  private class CachingReader extends ObjectReader.Filter {
+    private final ObjectReader delegate;
+
+    private CachingReader(ObjectReader delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected ObjectReader delegate() {
+      return delegate;
+    }
+
+    @Override
+    public ObjectReader newReader() {
+      return new CachingReader(delegate.newReader());
+    }
+
+    @Override
+    public ObjectLoader open(AnyObjectId objectId, int typeHint) throws MissingObjectException, IncorrectObjectTypeException, IOException {
+      if (typeHint != Constants.OBJ_BLOB) {
+        return delegate.open(objectId, typeHint);
+      }
+      byte[] cached = get(objectId);
+      if (cached != null) {
+        metrics.increment(GitMetrics.BLOB_CACHE_HITS);
+        return new ObjectLoader.SmallObject(Constants.OBJ_BLOB, cached);
+      }
+      metrics.increment(GitMetrics.BLOB_CACHE_MISSES);
+      ObjectLoader loader = delegate.open(objectId, typeHint);
+      if (!loader.isLarge() && loader.getSize() + ENTRY_OVERHEAD <= maxEntryWeight) {
+        put(objectId, loader.getCachedBytes());
+      }
+      return loader;
+    }
+  }
+}
@@ -27,12 +27,14 @@ import java.util.regex.Pattern;
 
 class ChangedLinesComputer {
   private final Tracker tracker = new Tracker();
+  private long bytesParsed;
 
   private final OutputStream receiver = new OutputStream() {
     StringBuilder sb = new StringBuilder();
 
     @Override
     public void write(int b) {
+      bytesParsed++;
       sb.append((char) b);
       if (b == '\n') {
         tracker.parseLine(sb.toString());
@@ -81,6 +83,13 @@ class ChangedLinesComputer {
     return tracker.changedLines();
   }
 
+  /**
+   * Number of bytes of diff output received so far.
+   */
+  long bytesParsed() {
+    return bytesParsed;
+  }
+
   private static class Tracker {
 
     private static final Pattern START_LINE_IN_TARGET = Pattern.compile(" \\+(\\d+)");
@@ -0,0 +1,166 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Hashes of the paths whose blob differs between each commit and each of its parents, and whether the commit deletes
+ * paths, computed once per commit with a single tree diff and shared by the blame of all files.
+ * <p>
+ * Blame passes the content of a file from a commit to its first parent having the same blob at the same path, without
+ * any diff. The memo follows these steps for all files at the cost of a lookup per commit, instead of a path-filtered
+ * tree walk per file and commit. A hash collision only makes the memo stop earlier than blame would, which still
+ * gives the same blame.
+ */
+class ChangedPathsMemo {
+
+  private static final int[] NONE = new int[0];
+
+  private final GitMetrics metrics;
+  private final Map<ObjectId, ParentDiff[]> parentDiffs = new ConcurrentHashMap<>();
+
+  ChangedPathsMemo(GitMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return the commit blame reaches when following the content of the path from the start commit, before it has to
+   * compare any content. This is the start commit itself if the path doesn't exist in it.
+   */
+  RevCommit lastChange(RevWalk walk, RevCommit start, String path) throws IOException {
+    ObjectReader reader = walk.getObjectReader();
+    walk.parseHeaders(start);
+    try (TreeWalk treeWalk = TreeWalk.forPath(reader, path, start.getTree())) {
+      if (treeWalk == null) {
+        return start;
+      }
+    }
+    int hash = path.hashCode();
+    RevCommit commit = start;
+    long skipped = 0;
+    boolean moved = true;
+    while (moved) {
+      moved = false;
+      ParentDiff[] diffs = parentDiffs(walk, commit);
+      for (int i = 0; i < commit.getParentCount(); i++) {
+        if (!diffs[i].mayHaveChanged(hash)) {
+          commit = commit.getParent(i);
+          walk.parseHeaders(commit);
+          skipped++;
+          moved = true;
+          break;
+        }
+      }
+    }
+    metrics.add(GitMetrics.BLAME_COMMITS_SKIPPED, skipped);
+    return commit;
+  }
+
+  /**
+   * Whether blame attributes all lines of the path to the commit, as returned by {@link #lastChange}: the commit has no
+   * parent, or the path is missing from all of them and the commit deletes no path that blame could follow as the
+   * source of a rename.
+   */
+  boolean isAddedAsAWhole(RevWalk walk, RevCommit commit, String path) throws IOException {
+    ParentDiff[] diffs = parentDiffs(walk, commit);
+    for (int i = 0; i < commit.getParentCount(); i++) {
+      if (diffs[i].deletesPaths) {
+        return false;
+      }
+      RevCommit parent = commit.getParent(i);
+      walk.parseHeaders(parent);
+      try (TreeWalk treeWalk = TreeWalk.forPath(walk.getObjectReader(), path, parent.getTree())) {
+        if (treeWalk != null) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private ParentDiff[] parentDiffs(RevWalk walk, RevCommit commit) throws IOException {
+    ParentDiff[] diffs = parentDiffs.get(commit);
+    if (diffs == null) {
+      diffs = computeParentDiffs(walk, commit);
+      parentDiffs.putIfAbsent(commit.copy(), diffs);
+      metrics.increment(GitMetrics.CHANGED_PATHS_COMPUTED);
+    }
+    return diffs;
+  }
+
+  private static ParentDiff[] computeParentDiffs(RevWalk walk, RevCommit commit) throws IOException {
+    ParentDiff[] diffs = new ParentDiff[commit.getParentCount()];
+    for (int i = 0; i < diffs.length; i++) {
+      RevCommit parent = commit.getParent(i);
+      walk.parseHeaders(parent);
+      diffs[i] = diff(walk.getObjectReader(), parent, commit);
+    }
+    return diffs;
+  }
+
+  private static ParentDiff diff(ObjectReader reader, RevCommit parent, RevCommit commit) throws IOException {
+    int[] hashes = NONE;
+    int count = 0;
+    boolean deletesPaths = false;
+    try (TreeWalk treeWalk = new TreeWalk(reader)) {
+      treeWalk.addTree(parent.getTree());
+      treeWalk.addTree(commit.getTree());
+      treeWalk.setFilter(TreeFilter.ANY_DIFF);
+      treeWalk.setRecursive(true);
+      while (treeWalk.next()) {
+        // blame compares blobs only, a mode change alone does not stop it
+        if (!treeWalk.idEqual(0, 1)) {
+          if (count == hashes.length) {
+            hashes = Arrays.copyOf(hashes, Math.max(8, count * 2));
+          }
+          hashes[count++] = treeWalk.getPathString().hashCode();
+          deletesPaths |= treeWalk.getRawMode(1) == 0;
+        }
+      }
+    }
+    int[] sorted = Arrays.copyOf(hashes, count);
+    Arrays.sort(sorted);
+    return new ParentDiff(sorted, deletesPaths);
+  }
+
+  private static class ParentDiff {
+    private final int[] changedPathHashes;
+    private final boolean deletesPaths;
+
+    private ParentDiff(int[] changedPathHashes, boolean deletesPaths) {
+      this.changedPathHashes = changedPathHashes;
+      this.deletesPaths = deletesPaths;
+    }
+
+    private boolean mayHaveChanged(int pathHash) {
+      return Arrays.binarySearch(changedPathHashes, pathHash) >= 0;
+    }
+  }
+}
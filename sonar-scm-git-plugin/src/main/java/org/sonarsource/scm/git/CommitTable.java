@@ -0,0 +1,93 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Commits that blame attributes lines to during an analysis, stored once each in columns and referred to by their index
+ * in {@link FileBlame}. Authors are stored once as well.
+ * <p>
+ * Safe to use from several threads.
+ */
+class CommitTable implements BlameCommits {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final Map<ObjectId, Integer> indexes = new HashMap<>();
+  private final Map<String, Integer> authorIndexes = new HashMap<>();
+  private final List<String> authors = new ArrayList<>();
+  private byte[] ids = new byte[INITIAL_CAPACITY * Constants.OBJECT_ID_LENGTH];
+  private int[] commitAuthors = new int[INITIAL_CAPACITY];
+  private long[] dates = new long[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * @param author the author reported for the lines of the commit
+   * @param date the date reported for the lines of the commit, in milliseconds
+   * @return the index of the commit, added to the table unless it is already there
+   */
+  synchronized int indexOf(AnyObjectId commit, String author, long date) {
+    Integer index = indexes.get(commit);
+    if (index != null) {
+      return index;
+    }
+    if (size == dates.length) {
+      ids = Arrays.copyOf(ids, 2 * ids.length);
+      commitAuthors = Arrays.copyOf(commitAuthors, 2 * size);
+      dates = Arrays.copyOf(dates, 2 * size);
+    }
+    commit.copyRawTo(ids, size * Constants.OBJECT_ID_LENGTH);
+    commitAuthors[size] = authorIndexes.computeIfAbsent(author, a -> {
+      authors.add(a);
+      return authors.size() - 1;
+    });
+    dates[size] = date;
+    indexes.put(commit.copy(), size);
+    return size++;
+  }
+
+  @Override
+  public synchronized int size() {
+    return size;
+  }
+
+  @Override
+  public synchronized ObjectId id(int index) {
+    return ObjectId.fromRaw(ids, index * Constants.OBJECT_ID_LENGTH);
+  }
+
+  @Override
+  public synchronized String author(int index) {
+    return authors.get(commitAuthors[index]);
+  }
+
+  @Override
+  public synchronized long date(int index) {
+    return dates[index];
+  }
+}
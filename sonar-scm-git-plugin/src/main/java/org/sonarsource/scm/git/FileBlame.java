@@ -0,0 +1,139 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.sonar.api.batch.scm.BlameLine;
+
+/**
+ * Blame of a file as runs of consecutive lines attributed to the same commit of a {@link BlameCommits}. Lines of a file
+ * mostly come in long runs, so this takes a few integers per run instead of a {@link BlameLine} per line, which is only
+ * built when the blame is reported.
+ * <p>
+ * The runs are read in place from their buffer, which can be a slice of a memory mapped {@link BlameCache}.
+ */
+class FileBlame {
+
+  private final IntBuffer runs;
+  private final BlameCommits commits;
+
+  /**
+   * @param runs the end line, exclusive, and the commit index of each run
+   */
+  FileBlame(IntBuffer runs, BlameCommits commits) {
+    this.runs = runs;
+    this.commits = commits;
+  }
+
+  BlameCommits commits() {
+    return commits;
+  }
+
+  int lineCount() {
+    return runCount() == 0 ? 0 : runEnd(runCount() - 1);
+  }
+
+  int runCount() {
+    return runs.limit() / 2;
+  }
+
+  /**
+   * @return the end line of the run, exclusive
+   */
+  int runEnd(int run) {
+    return runs.get(2 * run);
+  }
+
+  int runCommit(int run) {
+    return runs.get(2 * run + 1);
+  }
+
+  List<BlameLine> toBlameLines() {
+    List<BlameLine> lines = new ArrayList<>(lineCount());
+    int start = 0;
+    for (int run = 0; run < runCount(); run++) {
+      int commit = runCommit(run);
+      String revision = commits.id(commit).getName();
+      String author = commits.author(commit);
+      Date date = new Date(commits.date(commit));
+      int end = runEnd(run);
+      for (int line = start; line < end; line++) {
+        lines.add(new BlameLine().date(date).revision(revision).author(author));
+      }
+      start = end;
+    }
+    return lines;
+  }
+
+  static class Builder {
+    private final BlameCommits commits;
+    private int[] runs = new int[16];
+    private int runCount;
+    private int lineCount;
+
+    Builder(BlameCommits commits) {
+      this.commits = commits;
+    }
+
+    Builder add(int commit) {
+      return add(commit, 1);
+    }
+
+    /**
+     * Attributes the next lines to the commit.
+     */
+    Builder add(int commit, int lines) {
+      if (lines == 0) {
+        return this;
+      }
+      lineCount += lines;
+      if (runCount > 0 && runs[2 * runCount - 1] == commit) {
+        runs[2 * runCount - 2] = lineCount;
+        return this;
+      }
+      if (2 * runCount == runs.length) {
+        runs = Arrays.copyOf(runs, 2 * runs.length);
+      }
+      runs[2 * runCount] = lineCount;
+      runs[2 * runCount + 1] = commit;
+      runCount++;
+      return this;
+    }
+
+    int lineCount() {
+      return lineCount;
+    }
+
+    /**
+     * Attributes one more line to the commit of the last line, if any.
+     */
+    Builder repeatLastLine() {
+      return runCount == 0 ? this : add(runs[2 * runCount - 1]);
+    }
+
+    FileBlame build() {
+      return new FileBlame(IntBuffer.wrap(Arrays.copyOf(runs, 2 * runCount)), commits);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Blames files with a {@link GitBlamer} and keeps the result as runs of lines attributed to the commits of a table
+ * shared by all files. Used by analyses as well as by the blame indexer, so that both attribute lines the same way.
+ * <p>
+ * Safe to use from several threads.
+ */
+class FileBlamer {
+
+  private static final Logger LOG = Loggers.get(FileBlamer.class);
+
+  private final GitBlamer blamer;
+  private final GitMetrics metrics;
+  @Nullable
+  private final String boundaryAuthor;
+  private final CommitTable commits = new CommitTable();
+
+  FileBlamer(GitBlamer blamer, GitMetrics metrics, @Nullable String boundaryAuthor) {
+    this.blamer = blamer;
+    this.metrics = metrics;
+    this.boundaryAuthor = boundaryAuthor;
+  }
+
+  /**
+   * @param committed the file with its last commit, or null if the file differs from the one of the history
+   * @param lines the number of lines of the file as counted by the scanner, including the empty line after a final line break
+   * @return null if the file can't be blamed
+   */
+  @CheckForNull
+  FileBlame blame(String path, @Nullable GitBlamer.CommittedFile committed, int lines) throws IOException {
+    LOG.debug("Blame file {}", path);
+    if (committed != null && blamer.isAddedAsAWhole(path, committed)) {
+      metrics.increment(GitMetrics.BLAME_SINGLE_COMMIT_FILES);
+      return attributeAll(committed.commit(), lines);
+    }
+    GitEvent event = GitEvents.beginBlameFile();
+    BlameResult blameResult = blamer.blame(path);
+    if (blameResult == null) {
+      LOG.debug("Unable to blame file {}. It is probably a symlink.", path);
+      return null;
+    }
+    GitEvents.commitBlameFile(event, path, blameResult.getResultContents().size(), attributedCommits(blameResult));
+    FileBlame.Builder builder = new FileBlame.Builder(commits);
+    int lineCount = blameResult.getResultContents().size();
+    int runStart = 0;
+    for (int i = 0; i < lineCount; i++) {
+      if (blameResult.getSourceAuthor(i) == null || blameResult.getSourceCommit(i) == null) {
+        LOG.debug("Unable to blame file {}. No blame info at line {}. Is file committed? [Author: {} Source commit: {}]", path, i + 1,
+          blameResult.getSourceAuthor(i), blameResult.getSourceCommit(i));
+        return null;
+      }
+      if (i + 1 == lineCount || blameResult.getSourceCommit(i + 1) != blameResult.getSourceCommit(i)) {
+        attribute(builder, blameResult.getSourceCommit(i), i + 1 - runStart);
+        runStart = i + 1;
+      }
+    }
+    return withLastEmptyLine(builder, lines);
+  }
+
+  /**
+   * Attributes all the lines of the file to the commit, without blaming it.
+   */
+  FileBlame attributeAll(RevCommit commit, int lines) {
+    FileBlame.Builder builder = new FileBlame.Builder(commits);
+    attribute(builder, commit, lines);
+    return builder.build();
+  }
+
+  private static FileBlame withLastEmptyLine(FileBlame.Builder builder, int lines) {
+    if (builder.lineCount() == lines - 1) {
+      // SONARPLUGINS-3097 Git do not report blame on last empty line
+      builder.repeatLastLine();
+    }
+    return builder.build();
+  }
+
+  /**
+   * Attributes the next lines of the file to the commit.
+   */
+  private void attribute(FileBlame.Builder builder, RevCommit commit, int count) {
+    String author = commit.getAuthorIdent().getEmailAddress();
+    if (blamer.isBoundary(commit)) {
+      metrics.add(GitMetrics.BLAME_BOUNDARY_LINES, count);
+      if (boundaryAuthor != null) {
+        author = boundaryAuthor;
+      }
+    }
+    builder.add(commits.indexOf(commit, author, commit.getCommitterIdent().getWhen().getTime()), count);
+  }
+
+  private static int attributedCommits(BlameResult blameResult) {
+    Set<RevCommit> commits = new HashSet<>();
+    for (int i = 0; i < blameResult.getResultContents().size(); i++) {
+      RevCommit commit = blameResult.getSourceCommit(i);
+      if (commit != null) {
+        commits.add(commit);
+      }
+    }
+    return commits.size();
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/**
+ * Restricts the history to the first parent of each merge commit, like {@code git blame --first-parent}: the readers it
+ * wraps drop the other parents from the commits they load. Blame then follows the mainline only, and attributes the
+ * lines coming from merged branches to the merge commits.
+ */
+class FirstParentHistory {
+
+  private static final int TREE_LINE_LENGTH = "tree ".length() + Constants.OBJECT_ID_STRING_LENGTH + 1;
+  private static final int PARENT_LINE_LENGTH = "parent ".length() + Constants.OBJECT_ID_STRING_LENGTH + 1;
+
+  private FirstParentHistory() {
+    // only static methods
+  }
+
+  static ObjectReader wrap(ObjectReader reader) {
+    return new FirstParentReader(reader);
+  }
+
+  /**
+   * @return the raw commit without the parent lines after the first one
+   */
+  static byte[] firstParentOnly(byte[] raw) {
+    if (raw.length <= TREE_LINE_LENGTH || raw[TREE_LINE_LENGTH] != 'p') {
+      // root commit
+      return raw;
+    }
+    int otherParents = TREE_LINE_LENGTH + PARENT_LINE_LENGTH;
+    int end = otherParents;
+    while (end < raw.length && raw[end] == 'p') {
+      end += PARENT_LINE_LENGTH;
+    }
+    if (end == otherParents) {
+      return raw;
+    }
+    byte[] rewritten = new byte[raw.length - (end - otherParents)];
+    System.arraycopy(raw, 0, rewritten, 0, otherParents);
+    System.arraycopy(raw, end, rewritten, otherParents, raw.length - end);
+    return rewritten;
+  }
+
+  private static class FirstParentReader extends ObjectReader.Filter {
+    private final ObjectReader delegate;
+
+    private FirstParentReader(ObjectReader delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected ObjectReader delegate() {
+      return delegate;
+    }
+
+    @Override
+    public ObjectReader newReader() {
+      return new FirstParentReader(delegate.newReader());
+    }
+
+    @Override
+    public ObjectLoader open(AnyObjectId objectId) throws MissingObjectException, IOException {
+      // commits parsed without a type hint, as the starting commit of blame, come from here
+      return open(objectId, OBJ_ANY);
+    }
+
+    @Override
+    public ObjectLoader open(AnyObjectId objectId, int typeHint) throws MissingObjectException, IncorrectObjectTypeException, IOException {
+      ObjectLoader loader = delegate.open(objectId, typeHint);
+      if (loader.getType() != Constants.OBJ_COMMIT) {
+        return loader;
+      }
+      return new ObjectLoader.SmallObject(Constants.OBJ_COMMIT, firstParentOnly(loader.getCachedBytes()));
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.blame.BlameGenerator;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.io.AutoLFInputStream;
+
+/**
+ * Blames the files of a work tree like {@link org.eclipse.jgit.api.BlameCommand} does from {@code HEAD}, with the index
+ * and the work tree content on top of it. The history of each file starts at the last commit that changed it, found
+ * with the {@link ChangedPathsMemo} shared by all files, rather than at {@code HEAD}. Files of another commit can be
+ * blamed as well, without the index and the work tree.
+ * <p>
+ * In a shallow clone, the history ends at the shallow commits, which JGit reads as commits without parents. The same
+ * goes for the commits at the {@link BlameHorizon}, when it is installed on the readers of the repository. The lines
+ * older than this boundary are attributed to the boundary commits.
+ * <p>
+ * Safe to use from several threads.
+ */
+class GitBlamer {
+
+  private final Repository repo;
+  private final ChangedPathsMemo changedPaths;
+  @Nullable
+  private final ObjectId head;
+  @Nullable
+  private final DirCache index;
+  private final Set<ObjectId> boundary;
+  private final DiffAlgorithm diffAlgorithm;
+  private final String whitespace;
+
+  GitBlamer(Repository repo, GitMetrics metrics) throws IOException {
+    this(repo, metrics, DiffAlgorithm.SupportedAlgorithm.HISTOGRAM, GitConfiguration.WHITESPACE_IGNORE_ALL);
+  }
+
+  /**
+   * @param whitespace one of {@link GitConfiguration#WHITESPACE_IGNORE_ALL}, {@link GitConfiguration#WHITESPACE_IGNORE_CHANGE}
+   * and {@link GitConfiguration#WHITESPACE_EXACT}
+   */
+  GitBlamer(Repository repo, GitMetrics metrics, DiffAlgorithm.SupportedAlgorithm diffAlgorithm, String whitespace) throws IOException {
+    this(repo, metrics, repo.resolve(Constants.HEAD), !repo.isBare(), diffAlgorithm, whitespace);
+  }
+
+  /**
+   * Blames the files of the given commit, regardless of the index and the work tree.
+   */
+  GitBlamer(Repository repo, GitMetrics metrics, ObjectId commit, DiffAlgorithm.SupportedAlgorithm diffAlgorithm, String whitespace)
+    throws IOException {
+    this(repo, metrics, commit, false, diffAlgorithm, whitespace);
+  }
+
+  private GitBlamer(Repository repo, GitMetrics metrics, @Nullable ObjectId head, boolean withWorkTree, DiffAlgorithm.SupportedAlgorithm diffAlgorithm,
+    String whitespace) throws IOException {
+    this.repo = repo;
+    this.diffAlgorithm = DiffAlgorithm.getAlgorithm(diffAlgorithm);
+    this.whitespace = whitespace;
+    this.changedPaths = new ChangedPathsMemo(metrics);
+    this.head = head;
+    this.index = withWorkTree ? repo.readDirCache() : null;
+    try (ObjectReader reader = repo.newObjectReader()) {
+      this.boundary = new HashSet<>(reader.getShallowCommits());
+    }
+  }
+
+  /**
+   * @return whether the commit is a boundary of the available history, to which older lines are attributed as well
+   */
+  boolean isBoundary(RevCommit commit) {
+    return boundary.contains(commit);
+  }
+
+  Set<ObjectId> boundary() {
+    return Collections.unmodifiableSet(boundary);
+  }
+
+  /**
+   * @return null if the path is not a regular file in the history, the index or the work tree, for example a symlink
+   */
+  @CheckForNull
+  BlameResult blame(String path) throws IOException {
+    try (BlameGenerator generator = new BlameGenerator(repo, path)) {
+      generator.setDiffAlgorithm(diffAlgorithm);
+      generator.setTextComparator(comparator(whitespace));
+      if (head != null) {
+        try (RevWalk walk = new RevWalk(repo)) {
+          generator.push(null, changedPaths.lastChange(walk, walk.parseCommit(head), path));
+        }
+      }
+      if (index != null) {
+        int entry = index.findEntry(path);
+        if (entry >= 0) {
+          generator.push(null, index.getEntry(entry).getObjectId());
+        }
+        File inTree = new File(repo.getWorkTree(), path);
+        if (repo.getFS().isFile(inTree)) {
+          generator.push(null, workTreeText(inTree));
+        }
+      }
+      return generator.computeBlameResult();
+    }
+  }
+
+  /**
+   * @return a new comparator of lines, which must not be shared between threads
+   */
+  static RawTextComparator comparator(String whitespace) {
+    switch (whitespace) {
+      case GitConfiguration.WHITESPACE_EXACT:
+        return RawTextComparator.DEFAULT;
+      case GitConfiguration.WHITESPACE_IGNORE_CHANGE:
+        // Equivalent to -b command line option
+        return RawTextComparator.WS_IGNORE_CHANGE;
+      default:
+        // Equivalent to -w command line option
+        return new WhitespaceIgnoringComparator();
+    }
+  }
+
+  /**
+   * Fast path for the files whose whole content was added by a single commit and never changed since. Blame attributes
+   * all their lines to the {@link CommittedFile#commit() last commit} of such files, without any diff.
+   */
+  boolean isAddedAsAWhole(String path, CommittedFile file) throws IOException {
+    try (RevWalk walk = new RevWalk(repo)) {
+      return changedPaths.isAddedAsAWhole(walk, walk.parseCommit(file.commit()), path);
+    }
+  }
+
+  /**
+   * Cheap alternative to blame, for files not worth a line by line blame. The blame of the file only depends on this
+   * commit, since blame starts from it.
+   *
+   * @return the file with the last commit that changed it, or null if the file is not a regular file of {@code HEAD}
+   * or if the file in the work tree differs from it
+   */
+  @CheckForNull
+  CommittedFile lastCommit(String path) throws IOException {
+    if (head == null) {
+      return null;
+    }
+    try (RevWalk walk = new RevWalk(repo)) {
+      RevCommit start = walk.parseCommit(head);
+      ObjectId blobId = committedBlob(walk, start, path);
+      if (blobId == null) {
+        return null;
+      }
+      return new CommittedFile(changedPaths.lastChange(walk, start, path), blobId);
+    }
+  }
+
+  /**
+   * Cheaper than {@link #lastCommit(String)}, as it does not look for the last commit that changed the file.
+   *
+   * @return the content of the file in {@code HEAD}, or null if the file is not a regular file of {@code HEAD} or if
+   * the file in the work tree differs from it
+   */
+  @CheckForNull
+  ObjectId blobId(String path) throws IOException {
+    if (head == null) {
+      return null;
+    }
+    try (RevWalk walk = new RevWalk(repo)) {
+      return committedBlob(walk, walk.parseCommit(head), path);
+    }
+  }
+
+  @CheckForNull
+  private ObjectId committedBlob(RevWalk walk, RevCommit start, String path) throws IOException {
+    ObjectId blobId;
+    try (TreeWalk treeWalk = TreeWalk.forPath(walk.getObjectReader(), path, start.getTree())) {
+      if (treeWalk == null || (treeWalk.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) {
+        return null;
+      }
+      blobId = treeWalk.getObjectId(0);
+    }
+    if (index == null) {
+      return blobId;
+    }
+    File inTree = new File(repo.getWorkTree(), path);
+    if (!repo.getFS().isFile(inTree)) {
+      return null;
+    }
+    ObjectId workTreeId = new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, workTreeText(inTree).getRawContent());
+    int entry = index.findEntry(path);
+    if (entry >= 0 && !index.getEntry(entry).getObjectId().equals(workTreeId)) {
+      return null;
+    }
+    return workTreeId.equals(blobId) ? blobId : null;
+  }
+
+  private RawText workTreeText(File file) throws IOException {
+    CoreConfig.AutoCRLF autoCRLF = repo.getConfig().get(WorkingTreeOptions.KEY).getAutoCRLF();
+    if (autoCRLF != CoreConfig.AutoCRLF.TRUE) {
+      return new RawText(file);
+    }
+    // CRLF to LF can only shorten the content, so the file size is an upper bound
+    byte[] buffer = new byte[(int) file.length()];
+    try (InputStream in = new AutoLFInputStream(new FileInputStream(file), true)) {
+      int read = IO.readFully(in, buffer, 0);
+      return new RawText(read == buffer.length ? buffer : Arrays.copyOf(buffer, read));
+    }
+  }
+
+  /**
+   * File of the work tree whose content is the one of {@code HEAD}.
+   */
+  static class CommittedFile {
+    private final RevCommit commit;
+    private final ObjectId blobId;
+
+    private CommittedFile(RevCommit commit, ObjectId blobId) {
+      this.commit = commit;
+      this.blobId = blobId;
+    }
+
+    RevCommit commit() {
+      return commit;
+    }
+
+    ObjectId blobId() {
+      return blobId;
+    }
+  }
+}
@@ -0,0 +1,385 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.sonar.api.CoreProperties;
+import org.sonar.api.PropertyType;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.config.PropertyDefinition;
+import org.sonar.api.resources.Qualifiers;
+import org.sonar.api.scanner.ScannerSide;
+import org.sonar.api.utils.MessageException;
+
+@ScannerSide
+public class GitConfiguration {
+
+  private static final String CATEGORY_GIT = "Git";
+
+  public static final String NATIVE_IGNORE_PROP_KEY = "sonar.git.nativeIgnore";
+  public static final String EXECUTABLE_PROP_KEY = "sonar.git.executable";
+  public static final String PACKED_GIT_LIMIT_PROP_KEY = "sonar.git.packedGitLimitMb";
+  public static final String PACKED_GIT_WINDOW_SIZE_PROP_KEY = "sonar.git.packedGitWindowSizeKb";
+  public static final String DELTA_BASE_CACHE_LIMIT_PROP_KEY = "sonar.git.deltaBaseCacheLimitMb";
+  public static final String PACKED_GIT_MMAP_PROP_KEY = "sonar.git.packedGitMmap";
+  public static final String BLAME_SHALLOW_CLONES_PROP_KEY = "sonar.git.blameShallowClones";
+  public static final String SHALLOW_BOUNDARY_AUTHOR_PROP_KEY = "sonar.git.shallowBoundaryAuthor";
+  public static final String BLAME_MAX_DEPTH_PROP_KEY = "sonar.git.blameMaxDepth";
+  public static final String BLAME_MAX_AGE_PROP_KEY = "sonar.git.blameMaxAgeMonths";
+  public static final String BLAME_FIRST_PARENT_PROP_KEY = "sonar.git.blameFirstParent";
+  public static final String BLAME_MAX_FILE_SIZE_PROP_KEY = "sonar.git.blameMaxFileSizeKb";
+  public static final String BLAME_MAX_LINES_PROP_KEY = "sonar.git.blameMaxLines";
+  public static final String BLAME_OUTLIERS_PROP_KEY = "sonar.git.blameOutliers";
+  public static final String OUTLIERS_BLAME = "blame";
+  public static final String OUTLIERS_LAST_COMMIT = "lastCommit";
+  public static final String OUTLIERS_SKIP = "skip";
+  public static final String BLAME_DIFF_ALGORITHM_PROP_KEY = "sonar.git.blameDiffAlgorithm";
+  public static final String DIFF_ALGORITHM_HISTOGRAM = "histogram";
+  public static final String DIFF_ALGORITHM_MYERS = "myers";
+  public static final String BLAME_WHITESPACE_PROP_KEY = "sonar.git.blameWhitespace";
+  public static final String WHITESPACE_IGNORE_ALL = "ignoreAll";
+  public static final String WHITESPACE_IGNORE_CHANGE = "ignoreChange";
+  public static final String WHITESPACE_EXACT = "exact";
+  public static final String BLAME_CACHE_PROP_KEY = "sonar.git.blameCache";
+  public static final String BLAME_CACHE_OFF_HEAP_PROP_KEY = "sonar.git.blameCacheOffHeap";
+  public static final String BLAME_INDEX_PROP_KEY = "sonar.git.blameIndex";
+
+  private final Configuration config;
+
+  public GitConfiguration(Configuration config) {
+    this.config = config;
+  }
+
+  public static List<PropertyDefinition> getProperties() {
+    return Arrays.asList(
+      PropertyDefinition.builder(NATIVE_IGNORE_PROP_KEY)
+        .name("Use native Git to find ignored files")
+        .description("List the files that are not ignored with the installed Git executable instead of JGit. "
+          + "Native Git can use the untracked cache and the file system monitor, which is much faster on big work trees. "
+          + "JGit is used when no Git executable can be found.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue(String.valueOf(false))
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(0)
+        .build(),
+      PropertyDefinition.builder(EXECUTABLE_PROP_KEY)
+        .name("Git executable")
+        .description("Path to the Git executable, used when native Git is enabled. "
+          + "It can only be set on the scanner side, so that project settings can't make scanners run another program.")
+        .type(PropertyType.STRING)
+        .defaultValue("git")
+        .hidden()
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(1)
+        .build(),
+      PropertyDefinition.builder(PACKED_GIT_LIMIT_PROP_KEY)
+        .name("Pack data cache size")
+        .description("Maximum size in MB of the pack file data cached by JGit. "
+          + "By default, it is large enough to hold all packs of the repository, up to a quarter of the scanner heap.")
+        .type(PropertyType.INTEGER)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(2)
+        .build(),
+      PropertyDefinition.builder(PACKED_GIT_WINDOW_SIZE_PROP_KEY)
+        .name("Pack data window size")
+        .description("Size in KB of the blocks in which JGit reads pack files, a power of 2. "
+          + "By default, it grows with the size of the packs of the repository.")
+        .type(PropertyType.INTEGER)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(3)
+        .build(),
+      PropertyDefinition.builder(DELTA_BASE_CACHE_LIMIT_PROP_KEY)
+        .name("Delta base cache size")
+        .description("Maximum size in MB of the delta bases cached by each JGit reader. "
+          + "By default, it grows with the size of the packs of the repository.")
+        .type(PropertyType.INTEGER)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(4)
+        .build(),
+      PropertyDefinition.builder(PACKED_GIT_MMAP_PROP_KEY)
+        .name("Memory map pack files")
+        .description("Read pack files through memory mapping instead of copying their data to the heap.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue(String.valueOf(false))
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(5)
+        .build(),
+      PropertyDefinition.builder(BLAME_SHALLOW_CLONES_PROP_KEY)
+        .name("Blame shallow clones")
+        .description("Blame the history available in shallow clones instead of providing no blame information. "
+          + "Lines older than the shallow boundary are attributed to the boundary commits.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue(String.valueOf(false))
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(6)
+        .build(),
+      PropertyDefinition.builder(SHALLOW_BOUNDARY_AUTHOR_PROP_KEY)
+        .name("Shallow boundary author")
+        .description("Author reported for the lines attributed to the boundary commits of a shallow clone or of the blame horizon, "
+          + "for example 'unknown'. By default, the author of the boundary commit is reported.")
+        .type(PropertyType.STRING)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(7)
+        .build(),
+      PropertyDefinition.builder(BLAME_MAX_DEPTH_PROP_KEY)
+        .name("Blame horizon depth")
+        .description("Maximum number of commits from HEAD traversed by blame, as with 'git clone --depth'. "
+          + "Lines older than the horizon are attributed to the boundary commits. By default, the whole history is traversed. "
+          + "As the horizon moves with each new commit, the blame cache and the blame index are not reused across commits with it, "
+          + "prefer " + BLAME_MAX_AGE_PROP_KEY + " with them.")
+        .type(PropertyType.INTEGER)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(8)
+        .build(),
+      PropertyDefinition.builder(BLAME_MAX_AGE_PROP_KEY)
+        .name("Blame horizon age")
+        .description("Age in months of the oldest commits traversed by blame. "
+          + "Lines older than the horizon are attributed to the first commits older than it. By default, the whole history is traversed.")
+        .type(PropertyType.INTEGER)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(9)
+        .build(),
+      PropertyDefinition.builder(BLAME_FIRST_PARENT_PROP_KEY)
+        .name("Blame first parents only")
+        .description("Follow only the first parent of merge commits, as with 'git blame --first-parent'. "
+          + "Lines coming from merged branches are attributed to the merge commits, which is much cheaper on histories with many merges.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue(String.valueOf(false))
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(10)
+        .build(),
+      PropertyDefinition.builder(BLAME_MAX_FILE_SIZE_PROP_KEY)
+        .name("Blame maximum file size")
+        .description("Size in KB above which a file is not blamed line by line, see " + BLAME_OUTLIERS_PROP_KEY + ". "
+          + "By default, there is no limit.")
+        .type(PropertyType.INTEGER)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(11)
+        .build(),
+      PropertyDefinition.builder(BLAME_MAX_LINES_PROP_KEY)
+        .name("Blame maximum line count")
+        .description("Number of lines above which a file is not blamed line by line, see " + BLAME_OUTLIERS_PROP_KEY + ". "
+          + "By default, there is no limit.")
+        .type(PropertyType.INTEGER)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(12)
+        .build(),
+      PropertyDefinition.builder(BLAME_OUTLIERS_PROP_KEY)
+        .name("Blame of outlier files")
+        .description("How to blame binary, large and generated files: '" + OUTLIERS_BLAME + "' blames them line by line like any other file, '"
+          + OUTLIERS_LAST_COMMIT + "' attributes all their lines to the last commit that changed them, '" + OUTLIERS_SKIP + "' provides no "
+          + "blame information for them. Files are outliers when larger than " + BLAME_MAX_FILE_SIZE_PROP_KEY + ", longer than "
+          + BLAME_MAX_LINES_PROP_KEY + ", binary, or marked as 'linguist-generated' or '-diff' in .gitattributes.")
+        .type(PropertyType.SINGLE_SELECT_LIST)
+        .options(OUTLIERS_BLAME, OUTLIERS_LAST_COMMIT, OUTLIERS_SKIP)
+        .defaultValue(OUTLIERS_BLAME)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(13)
+        .build(),
+      PropertyDefinition.builder(BLAME_DIFF_ALGORITHM_PROP_KEY)
+        .name("Blame diff algorithm")
+        .description("Algorithm used by blame to find the lines a commit changed, as with 'git blame --diff-algorithm'.")
+        .type(PropertyType.SINGLE_SELECT_LIST)
+        .options(DIFF_ALGORITHM_HISTOGRAM, DIFF_ALGORITHM_MYERS)
+        .defaultValue(DIFF_ALGORITHM_HISTOGRAM)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(14)
+        .build(),
+      PropertyDefinition.builder(BLAME_WHITESPACE_PROP_KEY)
+        .name("Blame whitespace changes")
+        .description("How blame compares lines: '" + WHITESPACE_IGNORE_ALL + "' ignores all whitespace, as with 'git blame -w', '"
+          + WHITESPACE_IGNORE_CHANGE + "' ignores changes in the amount of whitespace, as with 'git blame -b', and '" + WHITESPACE_EXACT
+          + "' compares lines as they are, which is faster on repositories with an enforced formatting.")
+        .type(PropertyType.SINGLE_SELECT_LIST)
+        .options(WHITESPACE_IGNORE_ALL, WHITESPACE_IGNORE_CHANGE, WHITESPACE_EXACT)
+        .defaultValue(WHITESPACE_IGNORE_ALL)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(15)
+        .build(),
+      PropertyDefinition.builder(BLAME_CACHE_PROP_KEY)
+        .name("Blame cache")
+        .description("Keep the blame of the analyzed files in the Git directory, and reuse it in the next analysis "
+          + "for the files whose content did not change, including on other branches of the same history.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue(String.valueOf(false))
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(16)
+        .build(),
+      PropertyDefinition.builder(BLAME_CACHE_OFF_HEAP_PROP_KEY)
+        .name("Blame cache off heap")
+        .description("Read the blame cache through memory mapping instead of loading it on the heap, "
+          + "to reduce garbage collection pauses on very large repositories.")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue(String.valueOf(false))
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(17)
+        .build(),
+      PropertyDefinition.builder(BLAME_INDEX_PROP_KEY)
+        .name("Blame index")
+        .description("Path to a blame index written by org.sonarsource.scm.git.BlameIndexer, relative to the project base directory. "
+          + "Files with the same content as in the indexed revision are not blamed again, on any branch based on it.")
+        .type(PropertyType.STRING)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_GIT)
+        .index(18)
+        .build());
+  }
+
+  public boolean nativeIgnore() {
+    return config.getBoolean(NATIVE_IGNORE_PROP_KEY).orElse(false);
+  }
+
+  public String executable() {
+    return config.get(EXECUTABLE_PROP_KEY).orElse("git");
+  }
+
+  public boolean blameShallowClones() {
+    return config.getBoolean(BLAME_SHALLOW_CLONES_PROP_KEY).orElse(false);
+  }
+
+  @CheckForNull
+  public String shallowBoundaryAuthor() {
+    return config.get(SHALLOW_BOUNDARY_AUTHOR_PROP_KEY).orElse(null);
+  }
+
+  @CheckForNull
+  public Integer blameMaxDepth() {
+    return positiveInt(BLAME_MAX_DEPTH_PROP_KEY);
+  }
+
+  @CheckForNull
+  public Integer blameMaxAgeMonths() {
+    return positiveInt(BLAME_MAX_AGE_PROP_KEY);
+  }
+
+  public boolean blameFirstParent() {
+    return config.getBoolean(BLAME_FIRST_PARENT_PROP_KEY).orElse(false);
+  }
+
+  @CheckForNull
+  public Integer blameMaxFileSizeKb() {
+    return positiveInt(BLAME_MAX_FILE_SIZE_PROP_KEY);
+  }
+
+  @CheckForNull
+  public Integer blameMaxLines() {
+    return positiveInt(BLAME_MAX_LINES_PROP_KEY);
+  }
+
+  /**
+   * @return false if outliers are blamed line by line like any other file, which is the default
+   */
+  public boolean detectOutliers() {
+    return !OUTLIERS_BLAME.equals(blameOutliers());
+  }
+
+  public boolean skipOutliers() {
+    return OUTLIERS_SKIP.equals(blameOutliers());
+  }
+
+  private String blameOutliers() {
+    return option(BLAME_OUTLIERS_PROP_KEY, OUTLIERS_BLAME, OUTLIERS_LAST_COMMIT, OUTLIERS_SKIP);
+  }
+
+  public DiffAlgorithm.SupportedAlgorithm blameDiffAlgorithm() {
+    String value = option(BLAME_DIFF_ALGORITHM_PROP_KEY, DIFF_ALGORITHM_HISTOGRAM, DIFF_ALGORITHM_MYERS);
+    return DIFF_ALGORITHM_MYERS.equals(value) ? DiffAlgorithm.SupportedAlgorithm.MYERS : DiffAlgorithm.SupportedAlgorithm.HISTOGRAM;
+  }
+
+  /**
+   * @return one of {@link #WHITESPACE_IGNORE_ALL}, {@link #WHITESPACE_IGNORE_CHANGE} and {@link #WHITESPACE_EXACT}
+   */
+  public String blameWhitespace() {
+    return option(BLAME_WHITESPACE_PROP_KEY, WHITESPACE_IGNORE_ALL, WHITESPACE_IGNORE_CHANGE, WHITESPACE_EXACT);
+  }
+
+  public boolean blameCache() {
+    return config.getBoolean(BLAME_CACHE_PROP_KEY).orElse(false);
+  }
+
+  public boolean blameCacheOffHeap() {
+    return config.getBoolean(BLAME_CACHE_OFF_HEAP_PROP_KEY).orElse(false);
+  }
+
+  @CheckForNull
+  public String blameIndex() {
+    return config.get(BLAME_INDEX_PROP_KEY).orElse(null);
+  }
+
+  private String option(String key, String defaultValue, String... otherOptions) {
+    String value = config.get(key).orElse(defaultValue);
+    if (!value.equals(defaultValue) && !Arrays.asList(otherOptions).contains(value)) {
+      String options = Stream.concat(Stream.of(defaultValue), Arrays.stream(otherOptions)).collect(Collectors.joining("', '", "'", "'"));
+      throw MessageException.of("Property " + key + " must be one of " + options + ": " + value);
+    }
+    return value;
+  }
+
+  @CheckForNull
+  private Integer positiveInt(String key) {
+    Optional<Integer> value = config.getInt(key);
+    if (value.isPresent() && value.get() <= 0) {
+      throw MessageException.of("Property " + key + " must be positive: " + value.get());
+    }
+    return value.orElse(null);
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+
+/**
+ * Work trees and Git directories already discovered, along with the work tree of each directory that was resolved, so
+ * that resolving any other path of a known work tree only needs in-memory lookups of its parents and a look for a
+ * {@code .git} entry in the directories not seen yet. Nested repositories, whether submodules or not, are discovered as
+ * work trees of their own.
+ */
+class GitDirCache {
+
+  private final Map<Path, WorkTree> workTrees = new ConcurrentHashMap<>();
+  private final Map<Path, Optional<WorkTree>> directories = new ConcurrentHashMap<>();
+
+  /**
+   * @return the work tree containing the given path, or {@code null} if it is not inside a Git work tree
+   */
+  @CheckForNull
+  WorkTree find(Path path) {
+    Path absolutePath = path.toAbsolutePath().normalize();
+    List<Path> unresolved = new ArrayList<>();
+    Optional<WorkTree> workTree = resolve(absolutePath, unresolved);
+    for (Path dir : unresolved) {
+      directories.put(dir, workTree);
+    }
+    return workTree.orElse(null);
+  }
+
+  /**
+   * Looks for the closest parent that is either resolved already or the root of a work tree, which may be nested in a
+   * known one, collecting the directories in between.
+   */
+  private Optional<WorkTree> resolve(Path path, List<Path> unresolved) {
+    for (Path dir = path; dir != null; dir = dir.getParent()) {
+      Optional<WorkTree> known = directories.get(dir);
+      if (known != null) {
+        return known;
+      }
+      unresolved.add(dir);
+      if (Files.exists(dir.resolve(Constants.DOT_GIT), LinkOption.NOFOLLOW_LINKS)) {
+        break;
+      }
+    }
+    return Optional.ofNullable(discover(path));
+  }
+
+  @CheckForNull
+  private WorkTree discover(Path path) {
+    RepositoryBuilder builder = new RepositoryBuilder().findGitDir(path.toFile());
+    if (builder.getGitDir() == null) {
+      return null;
+    }
+    try {
+      builder.setup();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to open Git repository", e);
+    }
+    if (builder.getWorkTree() == null) {
+      // bare repository
+      return null;
+    }
+    Path root = builder.getWorkTree().toPath().toAbsolutePath().normalize();
+    return workTrees.computeIfAbsent(root, r -> new WorkTree(builder.getGitDir(), r));
+  }
+
+  static class WorkTree {
+    private final File gitDir;
+    private final Path root;
+
+    private WorkTree(File gitDir, Path root) {
+      this.gitDir = gitDir;
+      this.root = root;
+    }
+
+    File gitDir() {
+      return gitDir;
+    }
+
+    Path root() {
+      return root;
+    }
+  }
+}
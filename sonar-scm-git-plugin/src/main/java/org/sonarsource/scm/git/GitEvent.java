@@ -0,0 +1,182 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Java Flight Recorder event, created through {@code jdk.jfr.EventFactory} by reflection so that the plugin compiles
+ * and runs on Java 8, where {@code jdk.jfr} is missing. Events are simply not created when there is no flight recorder.
+ */
+final class GitEvent {
+
+  private static final Logger LOG = Loggers.get(GitEvent.class);
+
+  @Nullable
+  private static final Jfr JFR = Jfr.load();
+
+  private final Object event;
+
+  private GitEvent(Object event) {
+    this.event = event;
+  }
+
+  /**
+   * Sets the fields, in the order of their declaration in the type, and records the event if it is enabled.
+   */
+  void commit(Object... values) {
+    try {
+      if ((Boolean) JFR.shouldCommit.invoke(event)) {
+        for (int i = 0; i < values.length; i++) {
+          JFR.set.invoke(event, i, values[i]);
+        }
+        JFR.commit.invoke(event);
+      }
+    } catch (ReflectiveOperationException e) {
+      LOG.debug("Unable to record event", e);
+    }
+  }
+
+  static Field field(Class<?> type, String name, String label) {
+    return new Field(type, name, label, null);
+  }
+
+  static Field field(Class<?> type, String name, String label, String description) {
+    return new Field(type, name, label, description);
+  }
+
+  static final class Field {
+    private final Class<?> type;
+    private final String name;
+    private final String label;
+    private final String description;
+
+    private Field(Class<?> type, String name, String label, @Nullable String description) {
+      this.type = type;
+      this.name = name;
+      this.label = label;
+      this.description = description;
+    }
+  }
+
+  static final class Type {
+    @Nullable
+    private final Object factory;
+
+    private Type(@Nullable Object factory) {
+      this.factory = factory;
+    }
+
+    static Type define(String name, String label, String category, Field... fields) {
+      if (JFR == null) {
+        return new Type(null);
+      }
+      try {
+        List<Object> annotations = Arrays.asList(
+          JFR.annotation("jdk.jfr.Name", name),
+          JFR.annotation("jdk.jfr.Label", label),
+          JFR.annotation("jdk.jfr.Category", new String[] {category}));
+        List<Object> descriptors = new ArrayList<>();
+        for (Field field : fields) {
+          List<Object> fieldAnnotations = new ArrayList<>();
+          fieldAnnotations.add(JFR.annotation("jdk.jfr.Label", field.label));
+          if (field.description != null) {
+            fieldAnnotations.add(JFR.annotation("jdk.jfr.Description", field.description));
+          }
+          descriptors.add(JFR.valueDescriptor.newInstance(field.type, field.name, fieldAnnotations));
+        }
+        return new Type(JFR.create.invoke(null, annotations, descriptors));
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        LOG.debug("Unable to define event " + name, e);
+        return new Type(null);
+      }
+    }
+
+    /**
+     * @return the started event, or {@code null} when events are not available
+     */
+    @CheckForNull
+    GitEvent begin() {
+      if (factory == null) {
+        return null;
+      }
+      try {
+        Object event = JFR.newEvent.invoke(factory);
+        JFR.begin.invoke(event);
+        return new GitEvent(event);
+      } catch (ReflectiveOperationException e) {
+        LOG.debug("Unable to create event", e);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Members of the {@code jdk.jfr} API used to define and record events.
+   */
+  private static final class Jfr {
+    private final Constructor<?> annotationElement;
+    private final Constructor<?> valueDescriptor;
+    private final Method create;
+    private final Method newEvent;
+    private final Method begin;
+    private final Method shouldCommit;
+    private final Method set;
+    private final Method commit;
+
+    private Jfr() throws ReflectiveOperationException {
+      Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+      Class<?> eventClass = Class.forName("jdk.jfr.Event");
+      annotationElement = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+      valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+      create = eventFactory.getMethod("create", List.class, List.class);
+      newEvent = eventFactory.getMethod("newEvent");
+      begin = eventClass.getMethod("begin");
+      shouldCommit = eventClass.getMethod("shouldCommit");
+      set = eventClass.getMethod("set", int.class, Object.class);
+      commit = eventClass.getMethod("commit");
+    }
+
+    @CheckForNull
+    private static Jfr load() {
+      try {
+        if (!(Boolean) Class.forName("jdk.jfr.FlightRecorder").getMethod("isAvailable").invoke(null)) {
+          return null;
+        }
+        return new Jfr();
+      } catch (ReflectiveOperationException | LinkageError e) {
+        // Java 8 runtime
+        return null;
+      }
+    }
+
+    private Object annotation(String type, Object value) throws ReflectiveOperationException {
+      return annotationElement.newInstance(Class.forName(type), value);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import static org.sonarsource.scm.git.GitEvent.field;
+
+/**
+ * Java Flight Recorder events of the plugin. Events are only created when the JVM has a flight recorder, so that the
+ * plugin still runs on Java 8 runtimes without {@code jdk.jfr}.
+ */
+final class GitEvents {
+
+  static final String CATEGORY = "SonarQube SCM Git";
+
+  private static final GitEvent.Type BLAME_FILE = GitEvent.Type.define("org.sonarsource.scm.git.BlameFile", "Git Blame File", CATEGORY,
+    field(String.class, "path", "Path"),
+    field(int.class, "lines", "Lines"),
+    field(int.class, "commits", "Commits", "Distinct commits the lines of the file are attributed to"));
+
+  private static final GitEvent.Type MERGE_BASE = GitEvent.Type.define("org.sonarsource.scm.git.MergeBase", "Git Merge Base", CATEGORY,
+    field(String.class, "target", "Target Ref"),
+    field(String.class, "mergeBase", "Merge Base"));
+
+  private static final GitEvent.Type CHANGED_LINES = GitEvent.Type.define("org.sonarsource.scm.git.ChangedLines", "Git Changed Lines", CATEGORY,
+    field(String.class, "path", "Path"),
+    field(int.class, "changedLines", "Changed Lines"));
+
+  private static final GitEvent.Type IGNORE_INDEX = GitEvent.Type.define("org.sonarsource.scm.git.IgnoreIndex", "Git Ignored Files Indexing", CATEGORY,
+    field(String.class, "baseDir", "Base Directory"),
+    field(int.class, "visited", "Visited Entries", "Files and directories of the work tree listed by the walk"),
+    field(int.class, "ignored", "Ignored Entries"),
+    field(int.class, "included", "Included Files"),
+    field(int.class, "directoriesIndexed", "Directories Indexed",
+      "Directories that were listed again instead of being reused from the previous index"));
+
+  private GitEvents() {
+    // only static methods
+  }
+
+  @CheckForNull
+  static GitEvent beginBlameFile() {
+    return BLAME_FILE.begin();
+  }
+
+  static void commitBlameFile(@Nullable GitEvent event, String path, int lines, int commits) {
+    if (event != null) {
+      event.commit(path, lines, commits);
+    }
+  }
+
+  @CheckForNull
+  static GitEvent beginMergeBase() {
+    return MERGE_BASE.begin();
+  }
+
+  static void commitMergeBase(@Nullable GitEvent event, String target, @Nullable String mergeBase) {
+    if (event != null) {
+      event.commit(target, mergeBase);
+    }
+  }
+
+  @CheckForNull
+  static GitEvent beginChangedLines() {
+    return CHANGED_LINES.begin();
+  }
+
+  static void commitChangedLines(@Nullable GitEvent event, String path, int changedLines) {
+    if (event != null) {
+      event.commit(path, changedLines);
+    }
+  }
+
+  @CheckForNull
+  static GitEvent beginIgnoreIndex() {
+    return IGNORE_INDEX.begin();
+  }
+
+  static void commitIgnoreIndex(@Nullable GitEvent event, String baseDir, int visited, int ignored, int included, int directoriesIndexed) {
+    if (event != null) {
+      event.commit(baseDir, visited, ignored, included, directoriesIndexed);
+    }
+  }
+}
@@ -21,6 +21,8 @@ package org.sonarsource.scm.git;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Set;
+import org.eclipse.jgit.lib.Repository;
 import org.sonar.api.batch.scm.IgnoreCommand;
 import org.sonar.api.scanner.ScannerSide;
 
@@ -29,12 +31,37 @@ import static java.util.Objects.requireNonNull;
 @ScannerSide
 public class GitIgnoreCommand implements IgnoreCommand {
 
+  private final GitConfiguration configuration;
+  private final GitRepositorySession repositorySession;
+  private final GitMetrics metrics;
   private IncludedFilesRepository includedFilesRepository;
 
+  public GitIgnoreCommand(GitConfiguration configuration, GitRepositorySession repositorySession, GitMetrics metrics) {
+    this.configuration = configuration;
+    this.repositorySession = repositorySession;
+    this.metrics = metrics;
+  }
+
   @Override
   public void init(Path baseDir) {
+    GitMetrics.Timer timer = metrics.startTimer(GitMetrics.IGNORE_INDEX_TIME);
     try {
-      this.includedFilesRepository = new IncludedFilesRepository(baseDir);
+      this.includedFilesRepository = index(baseDir);
+    } finally {
+      timer.stop();
+    }
+    metrics.add(GitMetrics.IGNORE_INDEX_FILES, includedFilesRepository.size());
+  }
+
+  private IncludedFilesRepository index(Path baseDir) {
+    if (configuration.nativeIgnore()) {
+      Set<Path> includedFiles = new NativeGitLsFiles(configuration.executable()).includedFiles(baseDir);
+      if (includedFiles != null) {
+        return new IncludedFilesRepository(includedFiles);
+      }
+    }
+    try (Repository repo = repositorySession.open(baseDir)) {
+      return new IncludedFilesRepository(repo, baseDir, metrics);
     } catch (IOException e) {
       throw new IllegalStateException("I/O error while indexing ignored files.", e);
     }
@@ -0,0 +1,214 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.Startable;
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.batch.ScannerSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.api.utils.text.JsonWriter;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Counters and timers of the SCM steps of the analysis. They are written as JSON to the scanner work directory when
+ * the analysis ends, so that the cost of the SCM steps can be followed over time.
+ */
+@ScannerSide
+@InstantiationStrategy("PER_BATCH")
+public class GitMetrics implements Startable {
+
+  static final String REPORT_FILE = "scm-git-metrics.json";
+
+  static final String BLAME_FILES = "blame.files";
+  static final String BLAME_LINES = "blame.lines";
+  static final String BLAME_ERRORS = "blame.errors";
+  static final String BLAME_TIME = "blame";
+  static final String BLAME_BOUNDARY_LINES = "blame.boundaryLines";
+  static final String BLAME_HORIZON_COMMITS = "blame.horizonCommits";
+  static final String BLAME_OUTLIERS_SKIPPED = "blame.outliersSkipped";
+  static final String BLAME_OUTLIERS_LAST_COMMIT = "blame.outliersLastCommit";
+  static final String BLAME_SINGLE_COMMIT_FILES = "blame.singleCommitFiles";
+  static final String BLAME_COMMITS_SKIPPED = "blame.commitsSkipped";
+  static final String CHANGED_PATHS_COMPUTED = "blame.changedPathsComputed";
+  static final String MERGE_BASE_WALKS = "mergeBase.walks";
+  static final String MERGE_BASE_TIME = "mergeBase";
+  static final String DIFF_FILES = "diff.files";
+  static final String DIFF_BYTES_PARSED = "diff.bytesParsed";
+  static final String CHANGED_FILES_TIME = "branchChangedFiles";
+  static final String CHANGED_LINES_TIME = "branchChangedLines";
+  static final String IGNORE_INDEX_FILES = "ignoreIndex.files";
+  static final String IGNORE_INDEX_DIRECTORIES_REINDEXED = "ignoreIndex.directoriesReindexed";
+  static final String IGNORE_INDEX_TIME = "ignoreIndex";
+  static final String REPOSITORY_OPENS = "repository.opens";
+  static final String REPOSITORY_CACHE_HITS = "repository.cacheHits";
+  static final String WARM_UP_PACK_INDEXES = "warmUp.packIndexes";
+  static final String WARM_UP_COMMITS = "warmUp.commits";
+  static final String BLOB_CACHE_HITS = "blobCache.hits";
+  static final String BLOB_CACHE_MISSES = "blobCache.misses";
+  static final String BLOB_CACHE_EVICTIONS = "blobCache.evictions";
+  static final String BLAME_CACHE_HITS = "blameCache.hits";
+  static final String BLAME_CACHE_MISSES = "blameCache.misses";
+
+  private static final Logger LOG = Loggers.get(GitMetrics.class);
+  private static final String PROJECT_BASEDIR_PROP_KEY = "sonar.projectBaseDir";
+  private static final String WORKING_DIRECTORY_PROP_KEY = "sonar.working.directory";
+  private static final String DEFAULT_WORKING_DIRECTORY = ".scannerwork";
+
+  private final Configuration config;
+  private final ConcurrentMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+  private final ConcurrentMap<String, TimerStats> timers = new ConcurrentSkipListMap<>();
+  private volatile File workDir;
+
+  public GitMetrics(Configuration config) {
+    this.config = config;
+  }
+
+  void increment(String counter) {
+    add(counter, 1L);
+  }
+
+  void add(String counter, long value) {
+    counters.computeIfAbsent(counter, k -> new LongAdder()).add(value);
+  }
+
+  long count(String counter) {
+    LongAdder adder = counters.get(counter);
+    return adder != null ? adder.sum() : 0L;
+  }
+
+  long timerCount(String timer) {
+    TimerStats stats = timers.get(timer);
+    return stats != null ? stats.count.sum() : 0L;
+  }
+
+  /**
+   * Starts measuring one occurrence of the given step, until {@link Timer#stop()} is called.
+   */
+  Timer startTimer(String timer) {
+    return new Timer(timers.computeIfAbsent(timer, k -> new TimerStats()));
+  }
+
+  /**
+   * Sets the directory the report is written to. Otherwise it is resolved from the scanner properties.
+   */
+  void reportTo(@Nullable File workDir) {
+    if (workDir != null) {
+      this.workDir = workDir;
+    }
+  }
+
+  @Override
+  public void start() {
+    // nothing to do
+  }
+
+  @Override
+  public void stop() {
+    if (counters.isEmpty() && timers.isEmpty()) {
+      return;
+    }
+    Path reportDir = reportDir();
+    if (reportDir == null) {
+      LOG.debug("Unable to find the scanner work directory, SCM metrics are not written");
+      return;
+    }
+    Path report = reportDir.resolve(REPORT_FILE);
+    try {
+      Files.createDirectories(reportDir);
+      try (Writer writer = Files.newBufferedWriter(report, UTF_8)) {
+        writeJson(writer);
+      }
+      LOG.debug("SCM metrics written to {}", report);
+    } catch (IOException e) {
+      LOG.debug("Unable to write SCM metrics to " + report, e);
+    }
+  }
+
+  @CheckForNull
+  private Path reportDir() {
+    if (workDir != null) {
+      return workDir.toPath();
+    }
+    String projectBaseDir = config.get(PROJECT_BASEDIR_PROP_KEY).orElse(null);
+    String workingDirectory = config.get(WORKING_DIRECTORY_PROP_KEY).orElse(null);
+    if (workingDirectory != null && Paths.get(workingDirectory).isAbsolute()) {
+      return Paths.get(workingDirectory);
+    }
+    if (projectBaseDir == null) {
+      return null;
+    }
+    return Paths.get(projectBaseDir).resolve(workingDirectory != null ? workingDirectory : DEFAULT_WORKING_DIRECTORY);
+  }
+
+  void writeJson(Writer writer) {
+    JsonWriter json = JsonWriter.of(writer);
+    json.beginObject();
+    json.name("counters").beginObject();
+    for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+      json.prop(counter.getKey(), counter.getValue().sum());
+    }
+    json.endObject();
+    json.name("timers").beginObject();
+    for (Map.Entry<String, TimerStats> timer : timers.entrySet()) {
+      json.name(timer.getKey()).beginObject()
+        .prop("count", timer.getValue().count.sum())
+        .prop("totalMs", TimeUnit.NANOSECONDS.toMillis(timer.getValue().totalNanos.sum()))
+        .endObject();
+    }
+    json.endObject();
+    json.endObject();
+    json.close();
+  }
+
+  private static class TimerStats {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+  }
+
+  static class Timer {
+    private final TimerStats stats;
+    private final long start = System.nanoTime();
+
+    private Timer(TimerStats stats) {
+      this.stats = stats;
+    }
+
+    void stop() {
+      stats.totalNanos.add(System.nanoTime() - start);
+      stats.count.increment();
+    }
+  }
+}
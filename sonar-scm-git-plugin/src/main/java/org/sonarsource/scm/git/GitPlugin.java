@@ -27,7 +27,11 @@ public final class GitPlugin implements Plugin {
   public void define(Context context) {
     context.addExtensions(
       JGitBlameCommand.class,
+      GitConfiguration.class,
+      GitRepositorySession.class,
+      GitMetrics.class,
       AnalysisWarningsSupport.getAnalysisWarningsWrapper(context.getRuntime()));
+    context.addExtensions(GitConfiguration.getProperties());
     if (context.getRuntime().getApiVersion().isGreaterThanOrEqual(Version.create(7, 7))) {
       context.addExtensions(GitScmProvider.class,
         GitIgnoreCommand.class);
@@ -0,0 +1,156 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.sonar.api.Startable;
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.batch.ScannerSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.MessageException;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Opens each Git repository once per analysis, so that blame, ignored files and changed files share its configuration,
+ * refs and pack caches. Repositories are closed when the analysis ends. Work trees are discovered once as well.
+ * <p>
+ * The object database of a repository is warmed up in the background as soon as it is opened, usually while ignored
+ * files are indexed, so that blame starts with hot pack indexes and commits.
+ */
+@ScannerSide
+@InstantiationStrategy("PER_BATCH")
+public class GitRepositorySession implements Startable {
+
+  private static final Logger LOG = Loggers.get(GitRepositorySession.class);
+  private static final long WARM_UP_STOP_TIMEOUT_SECONDS = 10L;
+
+  private final WindowCacheTuning windowCacheTuning;
+  private final GitMetrics metrics;
+  private final AtomicBoolean windowCacheInstalled = new AtomicBoolean();
+  private final List<RepositoryWarmUp> warmUps = new CopyOnWriteArrayList<>();
+  private ExecutorService warmUpExecutor;
+  private final GitDirCache gitDirs = new GitDirCache();
+  private final Map<File, SessionRepository> repositories = new ConcurrentHashMap<>();
+
+  public GitRepositorySession(Configuration config, GitMetrics metrics) {
+    this.windowCacheTuning = new WindowCacheTuning(config);
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the repository of the given directory, opening it on first use. Callers close the returned repository
+   * as usual, it is only released at the end of the analysis.
+   */
+  public SessionRepository open(Path basedir) {
+    GitDirCache.WorkTree workTree = workTree(basedir);
+    SessionRepository repo = repositories.get(workTree.gitDir());
+    if (repo != null) {
+      metrics.increment(GitMetrics.REPOSITORY_CACHE_HITS);
+    } else {
+      repo = repositories.computeIfAbsent(workTree.gitDir(), gitDir -> {
+        metrics.increment(GitMetrics.REPOSITORY_OPENS);
+        if (windowCacheInstalled.compareAndSet(false, true)) {
+          // the window cache is shared by all repositories, and is tuned for the first one
+          windowCacheTuning.install(gitDir);
+        }
+        SessionRepository opened = JGitUtils.buildRepository(new RepositoryBuilder()
+          .setGitDir(gitDir)
+          .setWorkTree(workTree.root().toFile())
+          .setMustExist(true));
+        warmUp(opened);
+        return opened;
+      });
+    }
+    repo.incrementOpen();
+    return repo;
+  }
+
+  /**
+   * @return the root of the work tree containing the given path, or {@code null} if it is not inside a Git work tree
+   */
+  @CheckForNull
+  public Path findWorkTreeRoot(Path path) {
+    GitDirCache.WorkTree workTree = gitDirs.find(path);
+    return workTree != null ? workTree.root() : null;
+  }
+
+  private GitDirCache.WorkTree workTree(Path path) {
+    GitDirCache.WorkTree workTree = gitDirs.find(path);
+    if (workTree == null) {
+      throw MessageException.of("Not inside a Git work tree: " + path);
+    }
+    return workTree;
+  }
+
+  @Override
+  public void start() {
+    // repositories are opened lazily
+  }
+
+  private synchronized void warmUp(Repository repo) {
+    if (warmUpExecutor == null) {
+      warmUpExecutor = Executors.newSingleThreadExecutor(new GitThreadFactory());
+    }
+    RepositoryWarmUp warmUp = new RepositoryWarmUp(repo, metrics, RepositoryWarmUp.defaultMemoryBudget());
+    warmUps.add(warmUp);
+    warmUpExecutor.execute(warmUp);
+  }
+
+  /**
+   * Cancels the warm-ups and waits for them to end. They are not interrupted, as interrupting reads of pack files
+   * would close them for every other reader.
+   */
+  private synchronized void stopWarmUps() {
+    warmUps.forEach(RepositoryWarmUp::cancel);
+    warmUps.clear();
+    if (warmUpExecutor == null) {
+      return;
+    }
+    warmUpExecutor.shutdown();
+    try {
+      if (!warmUpExecutor.awaitTermination(WARM_UP_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.debug("Repository warm-up did not stop in time");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    warmUpExecutor = null;
+  }
+
+  @Override
+  public void stop() {
+    stopWarmUps();
+    repositories.values().forEach(Repository::close);
+    repositories.clear();
+  }
+}
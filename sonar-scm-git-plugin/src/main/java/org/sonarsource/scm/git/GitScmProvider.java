@@ -25,8 +25,9 @@ public class GitScmProvider extends GitScmProviderBefore77 {
 
   private final GitIgnoreCommand gitIgnoreCommand;
 
-  public GitScmProvider(JGitBlameCommand jgitBlameCommand, AnalysisWarningsWrapper analysisWarnings, GitIgnoreCommand gitIgnoreCommand) {
-    super(jgitBlameCommand, analysisWarnings);
+  public GitScmProvider(JGitBlameCommand jgitBlameCommand, AnalysisWarningsWrapper analysisWarnings, GitRepositorySession repositorySession,
+    GitMetrics metrics, GitIgnoreCommand gitIgnoreCommand) {
+    super(jgitBlameCommand, analysisWarnings, repositorySession, metrics);
     this.gitIgnoreCommand = gitIgnoreCommand;
   }
 
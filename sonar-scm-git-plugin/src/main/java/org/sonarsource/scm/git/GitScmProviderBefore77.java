@@ -29,6 +29,7 @@ import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.annotation.CheckForNull;
+import org.eclipse.jgit.api.DiffCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.diff.DiffEntry;
@@ -54,10 +55,15 @@ public class GitScmProviderBefore77 extends ScmProvider {
 
   private final JGitBlameCommand jgitBlameCommand;
   private final AnalysisWarningsWrapper analysisWarnings;
+  private final GitRepositorySession repositorySession;
+  private final GitMetrics metrics;
 
-  public GitScmProviderBefore77(JGitBlameCommand jgitBlameCommand, AnalysisWarningsWrapper analysisWarnings) {
+  public GitScmProviderBefore77(JGitBlameCommand jgitBlameCommand, AnalysisWarningsWrapper analysisWarnings, GitRepositorySession repositorySession,
+    GitMetrics metrics) {
     this.jgitBlameCommand = jgitBlameCommand;
     this.analysisWarnings = analysisWarnings;
+    this.repositorySession = repositorySession;
+    this.metrics = metrics;
   }
 
   @Override
@@ -67,8 +73,7 @@ public class GitScmProviderBefore77 extends ScmProvider {
 
   @Override
   public boolean supports(File baseDir) {
-    RepositoryBuilder builder = new RepositoryBuilder().findGitDir(baseDir);
-    return builder.getGitDir() != null;
+    return repositorySession.findWorkTreeRoot(baseDir.toPath()) != null;
   }
 
   @Override
@@ -79,17 +84,31 @@ public class GitScmProviderBefore77 extends ScmProvider {
   @CheckForNull
   @Override
   public Set<Path> branchChangedFiles(String targetBranchName, Path rootBaseDir) {
+    GitMetrics.Timer timer = metrics.startTimer(GitMetrics.CHANGED_FILES_TIME);
+    try {
+      return changedFiles(targetBranchName, rootBaseDir);
+    } finally {
+      timer.stop();
+    }
+  }
+
+  @CheckForNull
+  private Set<Path> changedFiles(String targetBranchName, Path rootBaseDir) {
     try (Repository repo = buildRepo(rootBaseDir)) {
       Ref targetRef = resolveTargetRef(targetBranchName, repo);
       if (targetRef == null) {
         return null;
       }
 
+      SparseCheckout sparseCheckout = SparseCheckout.load(repo);
       try (Git git = newGit(repo)) {
-        return git.diff().setShowNameAndStatusOnly(true)
+        DiffCommand diffCommand = git.diff().setShowNameAndStatusOnly(true)
           .setOldTree(prepareTreeParser(repo, targetRef))
-          .setNewTree(prepareNewTree(repo))
-          .call().stream()
+          .setNewTree(prepareNewTree(repo));
+        if (sparseCheckout != null) {
+          diffCommand.setPathFilter(sparseCheckout.treeFilter());
+        }
+        return diffCommand.call().stream()
           .filter(diffEntry -> diffEntry.getChangeType() == DiffEntry.ChangeType.ADD || diffEntry.getChangeType() == DiffEntry.ChangeType.MODIFY)
           .map(diffEntry -> repo.getWorkTree().toPath().resolve(diffEntry.getNewPath()))
           .collect(Collectors.toSet());
@@ -103,6 +122,16 @@ public class GitScmProviderBefore77 extends ScmProvider {
   @CheckForNull
   @Override
   public Map<Path, Set<Integer>> branchChangedLines(String targetBranchName, Path projectBaseDir, Set<Path> changedFiles) {
+    GitMetrics.Timer timer = metrics.startTimer(GitMetrics.CHANGED_LINES_TIME);
+    try {
+      return changedLines(targetBranchName, projectBaseDir, changedFiles);
+    } finally {
+      timer.stop();
+    }
+  }
+
+  @CheckForNull
+  private Map<Path, Set<Integer>> changedLines(String targetBranchName, Path projectBaseDir, Set<Path> changedFiles) {
     try (Repository repo = buildRepo(projectBaseDir)) {
       Ref targetRef = resolveTargetRef(targetBranchName, repo);
       if (targetRef == null) {
@@ -116,6 +145,7 @@ public class GitScmProviderBefore77 extends ScmProvider {
           ChangedLinesComputer computer = new ChangedLinesComputer();
           Path repoRootDir = repo.getDirectory().toPath().getParent();
 
+          GitEvent event = GitEvents.beginChangedLines();
           try {
             List<DiffEntry> diffEntries = git.diff()
               .setOutputStream(computer.receiver())
@@ -128,6 +158,9 @@ public class GitScmProviderBefore77 extends ScmProvider {
               .filter(diffEntry -> diffEntry.getChangeType() == DiffEntry.ChangeType.ADD
                 || diffEntry.getChangeType() == DiffEntry.ChangeType.MODIFY)
               .forEach(diffEntry -> changedLines.put(path, computer.changedLines()));
+            GitEvents.commitChangedLines(event, path.toString(), computer.changedLines().size());
+            metrics.increment(GitMetrics.DIFF_FILES);
+            metrics.add(GitMetrics.DIFF_BYTES_PARSED, computer.bytesParsed());
           } catch (Exception e) {
             LOG.warn("Failed to get changed lines from git for file " + path, e);
           }
@@ -162,15 +195,17 @@ public class GitScmProviderBefore77 extends ScmProvider {
 
   @Override
   public Path relativePathFromScmRoot(Path path) {
-    RepositoryBuilder builder = getVerifiedRepositoryBuilder(path);
-    return builder.getGitDir().toPath().getParent().relativize(path);
+    Path workTreeRoot = repositorySession.findWorkTreeRoot(path);
+    if (workTreeRoot == null) {
+      throw MessageException.of("Not inside a Git work tree: " + path);
+    }
+    return workTreeRoot.relativize(path.toAbsolutePath().normalize());
   }
 
   @Override
   public String revisionId(Path path) {
-    RepositoryBuilder builder = getVerifiedRepositoryBuilder(path);
-    try {
-      return getHead(builder.build()).getObjectId().getName();
+    try (Repository repo = buildRepo(path)) {
+      return getHead(repo).getObjectId().getName();
     } catch (IOException e) {
       throw new IllegalStateException("I/O error while getting revision ID for path: " + path, e);
     }
@@ -190,11 +225,7 @@ public class GitScmProviderBefore77 extends ScmProvider {
 
   private AbstractTreeIterator prepareTreeParser(Repository repo, Ref targetRef) throws IOException {
     try (RevWalk walk = newRevWalk(repo)) {
-      walk.markStart(walk.parseCommit(targetRef.getObjectId()));
-      walk.markStart(walk.parseCommit(getHead(repo).getObjectId()));
-      walk.setRevFilter(RevFilter.MERGE_BASE);
-      RevCommit base = walk.parseCommit(walk.next());
-      LOG.debug("Merge base sha1: {}", base.getName());
+      RevCommit base = mergeBase(repo, walk, targetRef);
       CanonicalTreeParser treeParser = new CanonicalTreeParser();
       try (ObjectReader objectReader = repo.newObjectReader()) {
         treeParser.reset(objectReader, base.getTree());
@@ -206,6 +237,25 @@ public class GitScmProviderBefore77 extends ScmProvider {
     }
   }
 
+  private RevCommit mergeBase(Repository repo, RevWalk walk, Ref targetRef) throws IOException {
+    GitEvent event = GitEvents.beginMergeBase();
+    GitMetrics.Timer timer = metrics.startTimer(GitMetrics.MERGE_BASE_TIME);
+    metrics.increment(GitMetrics.MERGE_BASE_WALKS);
+    String mergeBase = null;
+    try {
+      walk.markStart(walk.parseCommit(targetRef.getObjectId()));
+      walk.markStart(walk.parseCommit(getHead(repo).getObjectId()));
+      walk.setRevFilter(RevFilter.MERGE_BASE);
+      RevCommit base = walk.parseCommit(walk.next());
+      LOG.debug("Merge base sha1: {}", base.getName());
+      mergeBase = base.getName();
+      return base;
+    } finally {
+      timer.stop();
+      GitEvents.commitMergeBase(event, targetRef.getName(), mergeBase);
+    }
+  }
+
   Git newGit(Repository repo) {
     return new Git(repo);
   }
@@ -215,7 +265,7 @@ public class GitScmProviderBefore77 extends ScmProvider {
   }
 
   Repository buildRepo(Path basedir) throws IOException {
-    return getVerifiedRepositoryBuilder(basedir).build();
+    return repositorySession.open(basedir);
   }
 
   static RepositoryBuilder getVerifiedRepositoryBuilder(Path basedir) {
@@ -22,8 +22,9 @@ package org.sonarsource.scm.git;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
 import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
 
-public class GitThreadFactory implements ForkJoinWorkerThreadFactory {
+public class GitThreadFactory implements ForkJoinWorkerThreadFactory, ThreadFactory {
   private static final String NAME_PREFIX = "git-scm-";
   private int i = 0;
 
@@ -33,4 +34,11 @@ public class GitThreadFactory implements ForkJoinWorkerThreadFactory {
     thread.setName(NAME_PREFIX + i++);
     return thread;
   }
+
+  @Override
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, NAME_PREFIX + i++);
+    thread.setDaemon(true);
+    return thread;
+  }
 }
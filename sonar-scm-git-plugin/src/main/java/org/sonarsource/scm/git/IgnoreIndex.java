@@ -0,0 +1,313 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.Constants;
+
+/**
+ * Included files of a work tree, grouped by directory, together with the modification times they were computed from.
+ * It is persisted in the Git directory so that the next analysis only has to re-walk the directories that changed.
+ */
+class IgnoreIndex {
+
+  static final String ROOT = "";
+
+  private static final int MAGIC = 0x53514749;
+  private static final int VERSION = 1;
+  private static final long ABSENT = -1L;
+
+  /**
+   * Stamp of a directory or ignore file whose state is not known, so that it never matches the actual one.
+   */
+  static final long UNKNOWN = -2L;
+
+  /**
+   * Modification times this close to the indexing time are not trusted, to cope with file systems having a coarse
+   * timestamp resolution: a directory changed right after being listed could otherwise keep the same modification time.
+   */
+  private static final long RACY_MARGIN_MS = 2_000L;
+
+  private final String baseDir;
+  private final long indexedAt;
+  private final Map<String, Long> globalStamps;
+  private final SortedMap<String, Directory> directories = new TreeMap<>();
+
+  IgnoreIndex(String baseDir, long indexedAt, Map<String, Long> globalStamps) {
+    this.baseDir = baseDir;
+    this.indexedAt = indexedAt;
+    this.globalStamps = new TreeMap<>(globalStamps);
+  }
+
+  String baseDir() {
+    return baseDir;
+  }
+
+  /**
+   * Whether the directory records of this index can be used to build an index with the given base directory and global stamps.
+   */
+  boolean isReusableFor(IgnoreIndex other) {
+    if (!baseDir.equals(other.baseDir) || !globalStamps.equals(other.globalStamps)) {
+      return false;
+    }
+    return globalStamps.values().stream().allMatch(this::isTrusted);
+  }
+
+  @CheckForNull
+  Directory directory(String path) {
+    return directories.get(path);
+  }
+
+  Directory newDirectory(String path, long mtime, long ignoreFileMtime) {
+    Directory directory = new Directory(mtime, ignoreFileMtime);
+    directories.put(path, directory);
+    return directory;
+  }
+
+  void copyDirectory(IgnoreIndex previous, String path) {
+    directories.put(path, previous.directories.get(path));
+  }
+
+  void copySubtree(IgnoreIndex previous, String path) {
+    if (path.isEmpty()) {
+      directories.putAll(previous.directories);
+      return;
+    }
+    copyDirectory(previous, path);
+    directories.putAll(previous.directories.subMap(path + "/", path + "0"));
+  }
+
+  int directoryCount() {
+    return directories.size();
+  }
+
+  void forEachFile(Consumer<String> consumer) {
+    directories.forEach((path, directory) -> directory.files.forEach(name -> consumer.accept(child(path, name))));
+  }
+
+  /**
+   * Compares the recorded modification times with the current ones.
+   */
+  Changes detectChanges(Path workTreeRoot) {
+    Changes changes = new Changes();
+    directories.forEach((path, directory) -> {
+      Path dir = resolve(workTreeRoot, path);
+      boolean listingChanged = !isTrusted(directory.mtime) || directory.mtime != mtime(dir);
+      boolean rulesChanged = !isTrusted(directory.ignoreFileMtime) || directory.ignoreFileMtime != mtime(dir.resolve(Constants.DOT_GIT_IGNORE));
+      if (listingChanged || rulesChanged) {
+        changes.add(path, rulesChanged);
+      }
+    });
+    return changes;
+  }
+
+  private boolean isTrusted(long stamp) {
+    return stamp < indexedAt - RACY_MARGIN_MS;
+  }
+
+  static long mtime(Path path) {
+    try {
+      return Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS).toMillis();
+    } catch (IOException e) {
+      return ABSENT;
+    }
+  }
+
+  static Path resolve(Path workTreeRoot, String path) {
+    return path.isEmpty() ? workTreeRoot : workTreeRoot.resolve(path);
+  }
+
+  static String child(String path, String name) {
+    return path.isEmpty() ? name : (path + "/" + name);
+  }
+
+  @CheckForNull
+  static String parent(String path) {
+    if (path.isEmpty()) {
+      return null;
+    }
+    int slash = path.lastIndexOf('/');
+    return slash < 0 ? ROOT : path.substring(0, slash);
+  }
+
+  @CheckForNull
+  static IgnoreIndex load(Path file) throws IOException {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      }
+      String baseDir = in.readUTF();
+      long indexedAt = in.readLong();
+      Map<String, Long> globalStamps = new TreeMap<>();
+      int stampCount = in.readInt();
+      for (int i = 0; i < stampCount; i++) {
+        globalStamps.put(in.readUTF(), in.readLong());
+      }
+      IgnoreIndex index = new IgnoreIndex(baseDir, indexedAt, globalStamps);
+      int directoryCount = in.readInt();
+      for (int i = 0; i < directoryCount; i++) {
+        Directory directory = index.newDirectory(in.readUTF(), in.readLong(), in.readLong());
+        readNames(in, directory.files);
+        readNames(in, directory.subdirectories);
+      }
+      return index;
+    }
+  }
+
+  void save(Path file) throws IOException {
+    Files.createDirectories(file.getParent());
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(baseDir);
+      out.writeLong(indexedAt);
+      out.writeInt(globalStamps.size());
+      for (Map.Entry<String, Long> stamp : globalStamps.entrySet()) {
+        out.writeUTF(stamp.getKey());
+        out.writeLong(stamp.getValue());
+      }
+      out.writeInt(directories.size());
+      for (Map.Entry<String, Directory> entry : directories.entrySet()) {
+        Directory directory = entry.getValue();
+        out.writeUTF(entry.getKey());
+        out.writeLong(directory.mtime);
+        out.writeLong(directory.ignoreFileMtime);
+        writeNames(out, directory.files);
+        writeNames(out, directory.subdirectories);
+      }
+    }
+    try {
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static void readNames(DataInputStream in, List<String> names) throws IOException {
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      names.add(in.readUTF());
+    }
+  }
+
+  private static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+    out.writeInt(names.size());
+    for (String name : names) {
+      out.writeUTF(name);
+    }
+  }
+
+  static class Directory {
+    private final long mtime;
+    private final long ignoreFileMtime;
+    private final List<String> files = new ArrayList<>();
+    private final List<String> subdirectories = new ArrayList<>();
+
+    private Directory(long mtime, long ignoreFileMtime) {
+      this.mtime = mtime;
+      this.ignoreFileMtime = ignoreFileMtime;
+    }
+
+    void addFile(String name) {
+      files.add(name);
+    }
+
+    void addSubdirectory(String name) {
+      subdirectories.add(name);
+    }
+
+    List<String> subdirectories() {
+      return subdirectories;
+    }
+
+    boolean hasSubdirectory(String name) {
+      return subdirectories.contains(name);
+    }
+  }
+
+  /**
+   * Outcome of {@link #detectChanges(Path)}.
+   */
+  static class Changes {
+    private final Set<String> changed = new HashSet<>();
+    private final Set<String> rulesChanged = new HashSet<>();
+    private final Set<String> dirtySubtrees = new HashSet<>();
+
+    private void add(String path, boolean rules) {
+      changed.add(path);
+      if (rules) {
+        rulesChanged.add(path);
+      }
+      String p = path;
+      while (p != null && dirtySubtrees.add(p)) {
+        p = parent(p);
+      }
+    }
+
+    boolean isEmpty() {
+      return changed.isEmpty();
+    }
+
+    /**
+     * Whether the record of the given directory can be used as is. This is not the case when the directory content
+     * changed, or when the ignore rules of the directory or of any of its parents changed.
+     */
+    boolean isTrusted(String path) {
+      if (changed.contains(path)) {
+        return false;
+      }
+      for (String p = path; p != null; p = parent(p)) {
+        if (rulesChanged.contains(p)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Whether the records of the given directory and of all its sub-directories can be used as is.
+     */
+    boolean isSubtreeTrusted(String path) {
+      return !dirtySubtrees.contains(path) && isTrusted(path);
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.ignore.IgnoreNode;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Ignore rules of the work tree, evaluated with the precedence of Git: an entry is ignored when one of its parent
+ * directories is, otherwise the {@code .gitignore} of the nearest directory that has a matching rule decides, then
+ * {@code info/exclude}, then {@code core.excludesFile}.
+ */
+class IgnoreRules {
+  private final Repository repo;
+  private final Path workTreeRoot;
+  private final Map<String, IgnoreNode> nodes = new HashMap<>();
+  private final Map<String, Boolean> ignoredDirectories = new HashMap<>();
+  private List<IgnoreNode> repositoryNodes;
+
+  IgnoreRules(Repository repo) {
+    this.repo = repo;
+    this.workTreeRoot = repo.getWorkTree().toPath();
+  }
+
+  /**
+   * @param path the path of the entry, relative to the root of the work tree
+   */
+  boolean isIgnored(String path, boolean isDirectory) throws IOException {
+    String parent = IgnoreIndex.parent(path);
+    if (!parent.isEmpty() && isDirectoryIgnored(parent)) {
+      return true;
+    }
+    for (String dir = parent; dir != null; dir = IgnoreIndex.parent(dir)) {
+      // like JGit, paths relative to a sub-directory start with a slash
+      String relative = dir.isEmpty() ? path : path.substring(dir.length());
+      Boolean ignored = node(dir).checkIgnored(relative, isDirectory);
+      if (ignored != null) {
+        return ignored;
+      }
+    }
+    for (IgnoreNode node : repositoryNodes()) {
+      Boolean ignored = node.checkIgnored(path, isDirectory);
+      if (ignored != null) {
+        return ignored;
+      }
+    }
+    return false;
+  }
+
+  private boolean isDirectoryIgnored(String path) throws IOException {
+    Boolean ignored = ignoredDirectories.get(path);
+    if (ignored == null) {
+      ignored = isIgnored(path, true);
+      ignoredDirectories.put(path, ignored);
+    }
+    return ignored;
+  }
+
+  private IgnoreNode node(String dir) throws IOException {
+    IgnoreNode node = nodes.get(dir);
+    if (node == null) {
+      node = parse(IgnoreIndex.resolve(workTreeRoot, dir).resolve(Constants.DOT_GIT_IGNORE));
+      nodes.put(dir, node);
+    }
+    return node;
+  }
+
+  /**
+   * @return the rules of {@code info/exclude} and {@code core.excludesFile}, in this order of precedence
+   */
+  private List<IgnoreNode> repositoryNodes() throws IOException {
+    if (repositoryNodes == null) {
+      repositoryNodes = Arrays.asList(parse(new File(repo.getDirectory(), Constants.INFO_EXCLUDE).toPath()), parse(excludesFile(repo)));
+    }
+    return repositoryNodes;
+  }
+
+  private IgnoreNode parse(Path file) throws IOException {
+    IgnoreNode node = new IgnoreNode();
+    if (Files.isRegularFile(file)) {
+      try (InputStream in = Files.newInputStream(file)) {
+        node.parse(in);
+      }
+    }
+    return node;
+  }
+
+  static Path excludesFile(Repository repo) {
+    String excludesFile = repo.getConfig().get(CoreConfig.KEY).getExcludesFile();
+    if (excludesFile == null) {
+      return new File(repo.getDirectory(), "does-not-exist").toPath();
+    }
+    FS fs = repo.getFS();
+    return (excludesFile.startsWith("~/") ? fs.resolve(fs.userHome(), excludesFile.substring(2)) : fs.resolve(null, excludesFile)).toPath();
+  }
+}
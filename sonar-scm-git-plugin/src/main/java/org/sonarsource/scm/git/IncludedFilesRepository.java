@@ -19,25 +19,44 @@
  */
 package org.sonarsource.scm.git;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.treewalk.FileTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.treewalk.WorkingTreeIterator;
 import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.util.FS;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 
 public class IncludedFilesRepository {
 
   private static final Logger LOG = Loggers.get(IncludedFilesRepository.class);
+  static final String INDEX_DIR = "sonar-scm-git";
+
   private final Set<Path> includedFiles = new HashSet<>();
+  private int visitedEntries;
+  private int ignoredEntries;
 
-  public IncludedFilesRepository(Path baseDir) throws IOException {
-    indexFiles(baseDir);
+  public IncludedFilesRepository(Repository repo, Path baseDir, GitMetrics metrics) throws IOException {
+    GitEvent event = GitEvents.beginIgnoreIndex();
+    int walked = indexFiles(repo, baseDir);
+    LOG.debug("{} non excluded files in this Git repository", includedFiles.size());
+    metrics.add(GitMetrics.IGNORE_INDEX_DIRECTORIES_REINDEXED, walked);
+    GitEvents.commitIgnoreIndex(event, baseDir.toString(), visitedEntries, ignoredEntries, includedFiles.size(), walked);
+  }
+
+  IncludedFilesRepository(Set<Path> includedFiles) {
+    this.includedFiles.addAll(includedFiles);
     LOG.debug("{} non excluded files in this Git repository", includedFiles.size());
   }
 
@@ -45,28 +64,180 @@ public class IncludedFilesRepository {
     return includedFiles.contains(absolutePath);
   }
 
-  private void indexFiles(Path baseDir) throws IOException {
-    try (Repository repo = JGitUtils.buildRepository(baseDir)) {
-      Path workTreeRoot = repo.getWorkTree().toPath();
-      FileTreeIterator workingTreeIt = new FileTreeIterator(repo);
-      try (TreeWalk treeWalk = new TreeWalk(repo)) {
-        treeWalk.setRecursive(true);
-        if (!baseDir.equals(workTreeRoot)) {
-          Path relativeBaseDir = workTreeRoot.relativize(baseDir);
-          treeWalk.setFilter(PathFilterGroup.createFromStrings(relativeBaseDir.toString().replace('\\', '/')));
-        }
-        treeWalk.addTree(workingTreeIt);
-        while (treeWalk.next()) {
+  int size() {
+    return includedFiles.size();
+  }
+
+  /**
+   * @return the number of directories whose entries were matched against the ignore rules
+   */
+  private int indexFiles(Repository repo, Path baseDir) throws IOException {
+    Path workTreeRoot = repo.getWorkTree().toPath();
+    String relativeBaseDir = baseDir.equals(workTreeRoot) ? IgnoreIndex.ROOT : workTreeRoot.relativize(baseDir).toString().replace('\\', '/');
+    Path indexFile = repo.getDirectory().toPath().resolve(INDEX_DIR)
+      .resolve(relativeBaseDir.isEmpty() ? "ignore-index" : ("ignore-index-" + Integer.toHexString(relativeBaseDir.hashCode())));
+
+    SparseCheckout sparseCheckout = SparseCheckout.load(repo);
+    Map<String, Long> globalStamps = globalStamps(repo, relativeBaseDir, sparseCheckout != null);
+    IgnoreIndex index = new IgnoreIndex(relativeBaseDir, System.currentTimeMillis(), globalStamps);
+    IgnoreIndex previous = loadPreviousIndex(indexFile, index);
+    boolean persisted = previous != null;
+    if (!persisted) {
+      previous = UntrackedCache.read(repo, relativeBaseDir, globalStamps, sparseCheckout);
+    }
+    IgnoreIndex.Changes changes = previous != null ? previous.detectChanges(workTreeRoot) : null;
+    if (persisted && changes.isEmpty()) {
+      LOG.debug("Ignored files are unchanged since the previous analysis");
+      previous.forEachFile(path -> includedFiles.add(workTreeRoot.resolve(path)));
+      return 0;
+    }
+
+    int walked = walk(repo, index, previous, changes, sparseCheckout);
+    LOG.debug("{} of {} directories re-indexed", walked, index.directoryCount());
+    try {
+      index.save(indexFile);
+    } catch (IOException e) {
+      LOG.debug("Unable to save ignored files index to " + indexFile, e);
+    }
+    index.forEachFile(path -> includedFiles.add(workTreeRoot.resolve(path)));
+    return walked;
+  }
+
+  @CheckForNull
+  private static IgnoreIndex loadPreviousIndex(Path indexFile, IgnoreIndex index) {
+    try {
+      IgnoreIndex previous = IgnoreIndex.load(indexFile);
+      return previous != null && previous.isReusableFor(index) ? previous : null;
+    } catch (IOException e) {
+      LOG.debug("Unable to load ignored files index from " + indexFile, e);
+      return null;
+    }
+  }
+
+  /**
+   * Ignore rules that apply to the whole base directory: the repository-wide exclude files, and the
+   * {@code .gitignore} files of the directories between the work tree root and the base directory. The patterns of a
+   * sparse checkout apply as well.
+   */
+  private static Map<String, Long> globalStamps(Repository repo, String relativeBaseDir, boolean sparseCheckout) {
+    Map<String, Long> stamps = new TreeMap<>();
+    File infoExclude = new File(repo.getDirectory(), Constants.INFO_EXCLUDE);
+    stamps.put(infoExclude.getAbsolutePath(), IgnoreIndex.mtime(infoExclude.toPath()));
+    String excludesFile = repo.getConfig().get(CoreConfig.KEY).getExcludesFile();
+    if (excludesFile != null) {
+      FS fs = repo.getFS();
+      File file = excludesFile.startsWith("~/") ? fs.resolve(fs.userHome(), excludesFile.substring(2)) : fs.resolve(null, excludesFile);
+      stamps.put(file.getAbsolutePath(), IgnoreIndex.mtime(file.toPath()));
+    }
+    Path workTreeRoot = repo.getWorkTree().toPath();
+    for (String dir = IgnoreIndex.parent(relativeBaseDir); dir != null; dir = IgnoreIndex.parent(dir)) {
+      Path gitIgnore = IgnoreIndex.resolve(workTreeRoot, dir).resolve(Constants.DOT_GIT_IGNORE);
+      stamps.put(gitIgnore.toString(), IgnoreIndex.mtime(gitIgnore));
+    }
+    if (sparseCheckout) {
+      Path patternsFile = SparseCheckout.patternsFile(repo);
+      stamps.put(patternsFile.toString(), IgnoreIndex.mtime(patternsFile));
+    }
+    return stamps;
+  }
 
-          WorkingTreeIterator workingTreeIterator = treeWalk
-            .getTree(0, WorkingTreeIterator.class);
+  /**
+   * Walks the work tree below the base directory, entering only the directories whose previous record can't be reused
+   * or that contain such a directory. Ignored directories are not entered at all, since Git never includes files below them.
+   *
+   * @return the number of directories whose entries were matched against the ignore rules
+   */
+  private int walk(Repository repo, IgnoreIndex index, @Nullable IgnoreIndex previous, @Nullable IgnoreIndex.Changes changes,
+    @Nullable SparseCheckout sparseCheckout) throws IOException {
+    Path workTreeRoot = repo.getWorkTree().toPath();
+    String baseDir = index.baseDir();
+    Map<String, Boolean> evaluatedDirectories = new TreeMap<>();
+    Walker walker = new Walker(workTreeRoot, index, previous, changes, evaluatedDirectories);
+    IgnoreRules rules = new IgnoreRules(repo);
 
-          if (!workingTreeIterator.isEntryIgnored()) {
-            includedFiles.add(workTreeRoot.resolve(treeWalk.getPathString()));
+    try (TreeWalk treeWalk = new TreeWalk(repo)) {
+      if (baseDir.isEmpty()) {
+        walker.open(IgnoreIndex.ROOT);
+      } else {
+        treeWalk.setFilter(PathFilterGroup.createFromStrings(baseDir));
+      }
+      treeWalk.addTree(new FileTreeIterator(repo));
+      while (treeWalk.next()) {
+        String path = treeWalk.getPathString();
+        String parent = IgnoreIndex.parent(path);
+        Boolean evaluated = evaluatedDirectories.get(parent);
+        if (evaluated == null) {
+          // on the way to the base directory
+          if (treeWalk.isSubtree() && (baseDir.startsWith(path + "/") || (path.equals(baseDir) && walker.open(path)))) {
+            treeWalk.enterSubtree();
+          }
+          continue;
+        }
+        visitedEntries++;
+        String name = treeWalk.getNameString();
+        if (sparseCheckout != null && !(treeWalk.isSubtree() ? sparseCheckout.mayInclude(path) : sparseCheckout.includes(path))) {
+          // outside of the sparse checkout
+          continue;
+        }
+        if (evaluated) {
+          if (rules.isIgnored(path, treeWalk.isSubtree())) {
+            ignoredEntries++;
+            continue;
+          }
+          if (!treeWalk.isSubtree()) {
+            index.directory(parent).addFile(name);
+            continue;
           }
+          index.directory(parent).addSubdirectory(name);
+        } else if (!treeWalk.isSubtree() || !index.directory(parent).hasSubdirectory(name)) {
+          // files of a trusted directory are copied from the previous index, and directories that are not recorded are ignored
+          continue;
+        }
+        if (walker.open(path)) {
+          treeWalk.enterSubtree();
         }
       }
     }
+    return (int) evaluatedDirectories.values().stream().filter(Boolean::booleanValue).count();
   }
 
+  private static class Walker {
+    private final Path workTreeRoot;
+    private final IgnoreIndex index;
+    private final IgnoreIndex previous;
+    private final IgnoreIndex.Changes changes;
+    private final Map<String, Boolean> evaluatedDirectories;
+
+    private Walker(Path workTreeRoot, IgnoreIndex index, @Nullable IgnoreIndex previous, @Nullable IgnoreIndex.Changes changes,
+      Map<String, Boolean> evaluatedDirectories) {
+      this.workTreeRoot = workTreeRoot;
+      this.index = index;
+      this.previous = previous;
+      this.changes = changes;
+      this.evaluatedDirectories = evaluatedDirectories;
+    }
+
+    /**
+     * Records a directory of the base directory, either by reusing its previous record or by creating an empty one to be
+     * filled by the walk.
+     *
+     * @return whether the walk needs to enter the directory
+     */
+    private boolean open(String path) {
+      boolean known = previous != null && previous.directory(path) != null;
+      if (known && changes.isSubtreeTrusted(path)) {
+        index.copySubtree(previous, path);
+        return false;
+      }
+      if (known && changes.isTrusted(path)) {
+        index.copyDirectory(previous, path);
+        evaluatedDirectories.put(path, false);
+      } else {
+        Path dir = IgnoreIndex.resolve(workTreeRoot, path);
+        index.newDirectory(path, IgnoreIndex.mtime(dir), IgnoreIndex.mtime(dir.resolve(Constants.DOT_GIT_IGNORE)));
+        evaluatedDirectories.put(path, true);
+      }
+      return true;
+    }
+  }
 }
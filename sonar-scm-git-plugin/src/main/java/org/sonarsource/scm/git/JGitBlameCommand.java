@@ -20,20 +20,24 @@
 package org.sonarsource.scm.git;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.blame.BlameResult;
-import org.eclipse.jgit.diff.RawTextComparator;
+import java.util.function.UnaryOperator;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.scm.BlameCommand;
-import org.sonar.api.batch.scm.BlameLine;
 import org.sonar.api.scan.filesystem.PathResolver;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
@@ -44,70 +48,322 @@ public class JGitBlameCommand extends BlameCommand {
 
   private final PathResolver pathResolver;
   private final AnalysisWarningsWrapper analysisWarnings;
+  private final GitConfiguration configuration;
+  private final GitRepositorySession repositorySession;
+  private final GitMetrics metrics;
 
-  public JGitBlameCommand(PathResolver pathResolver, AnalysisWarningsWrapper analysisWarnings) {
+  public JGitBlameCommand(PathResolver pathResolver, AnalysisWarningsWrapper analysisWarnings, GitConfiguration configuration,
+    GitRepositorySession repositorySession, GitMetrics metrics) {
     this.pathResolver = pathResolver;
     this.analysisWarnings = analysisWarnings;
+    this.configuration = configuration;
+    this.repositorySession = repositorySession;
+    this.metrics = metrics;
   }
 
   @Override
   public void blame(BlameInput input, BlameOutput output) {
     File basedir = input.fileSystem().baseDir();
-    try (Repository repo = JGitUtils.buildRepository(basedir.toPath()); Git git = Git.wrap(repo)) {
+    metrics.reportTo(input.fileSystem().workDir());
+    GitMetrics.Timer timer = metrics.startTimer(GitMetrics.BLAME_TIME);
+    try (SessionRepository repo = repositorySession.open(basedir.toPath())) {
       File gitBaseDir = repo.getWorkTree();
-      if (Files.isRegularFile(gitBaseDir.toPath().resolve(".git/shallow"))) {
+      boolean shallow = Files.isRegularFile(gitBaseDir.toPath().resolve(".git/shallow"));
+      if (shallow && configuration.blameShallowClones()) {
+        LOG.info("Shallow clone detected, lines older than the shallow boundary will be attributed to the boundary commits.");
+      } else if (shallow) {
         LOG.warn("Shallow clone detected, no blame information will be provided. "
-          + "You can convert to non-shallow with 'git fetch --unshallow'.");
+          + "You can convert to non-shallow with 'git fetch --unshallow', or blame the available history with "
+          + GitConfiguration.BLAME_SHALLOW_CLONES_PROP_KEY + ".");
         analysisWarnings.addUnique("Shallow clone detected during the analysis. "
           + "Some files will miss SCM information. This will affect features like auto-assignment of issues. "
           + "Please configure your build to disable shallow clone.");
         return;
       }
-      Stream<InputFile> stream = StreamSupport.stream(input.filesToBlame().spliterator(), true);
-      ForkJoinPool forkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), new GitThreadFactory(), null, false);
-      forkJoinPool.submit(() -> stream.forEach(inputFile -> blame(output, git, gitBaseDir, inputFile)));
+      BlobCache blobCache = new BlobCache(BlobCache.defaultMaxWeight(), metrics);
+      UnaryOperator<ObjectReader> sharedBlobs = blobCache::wrap;
+      repo.addReaderDecorator(sharedBlobs);
       try {
-        forkJoinPool.shutdown();
-        forkJoinPool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        blame(repo, input, output);
+      } catch (IOException e) {
+        LOG.warn("Unable to prepare Git blame", e);
       } catch (InterruptedException e) {
         LOG.info("Git blame interrupted");
+        Thread.currentThread().interrupt();
+      } finally {
+        repo.removeReaderDecorator(sharedBlobs);
+        logBlobCacheStats();
       }
+    } finally {
+      timer.stop();
     }
   }
 
-  private void blame(BlameOutput output, Git git, File gitBaseDir, InputFile inputFile) {
-    String filename = pathResolver.relativePath(gitBaseDir, inputFile.file());
-    LOG.debug("Blame file {}", filename);
-    BlameResult blameResult;
+  private void blame(SessionRepository repo, BlameInput input, BlameOutput output) throws IOException, InterruptedException {
+    withBlameHistory(repo, repo.resolve(Constants.HEAD), configuration, metrics, () -> {
+      OutlierFiles outliers = configuration.detectOutliers()
+        ? new OutlierFiles(repo.getWorkTree(), new AttributesTree(repo), configuration.blameMaxFileSizeKb(), configuration.blameMaxLines())
+        : null;
+      GitBlamer blamer = new GitBlamer(repo, metrics, configuration.blameDiffAlgorithm(), configuration.blameWhitespace());
+      FileBlamer fileBlamer = new FileBlamer(blamer, metrics, configuration.shallowBoundaryAuthor());
+      BlamePipeline<FileBlame> pipeline = new BlamePipeline<>(repo, Runtime.getRuntime().availableProcessors());
+      String blameIndex = configuration.blameIndex();
+      if (!configuration.blameCache() && blameIndex == null) {
+        pipeline.run(input.filesToBlame(), new Stages(output, blamer, fileBlamer, outliers, repo.getWorkTree(), Collections.emptyList(), null));
+        return;
+      }
+      long fingerprint = blameFingerprint(configuration, blamer);
+      List<ReusableBlame> caches = new ArrayList<>();
+      if (blameIndex != null) {
+        addReusableBlame(repo, loadBlameIndex(input.fileSystem().baseDir().toPath().resolve(blameIndex), fingerprint), caches);
+      }
+      if (!configuration.blameCache()) {
+        pipeline.run(input.filesToBlame(), new Stages(output, blamer, fileBlamer, outliers, repo.getWorkTree(), caches, null));
+        return;
+      }
+      Path cacheFile = blameCacheFile(repo, input.fileSystem().baseDir());
+      BlameCache cache = loadBlameCache(cacheFile, fingerprint);
+      addReusableBlame(repo, cache, caches);
+      BlameCache.Writer cacheWriter = new BlameCache.Writer();
+      pipeline.run(input.filesToBlame(), new Stages(output, blamer, fileBlamer, outliers, repo.getWorkTree(), caches, cacheWriter));
+      if (cache != null) {
+        LOG.debug("Blame of {} files not analyzed carried forward from the previous cache", cacheWriter.addMissing(cache));
+      }
+      saveBlameCache(cacheWriter, cacheFile, fingerprint);
+    });
+  }
+
+  /**
+   * Blame step run by {@link #withBlameHistory}.
+   */
+  interface BlameTask {
+    void run() throws IOException, InterruptedException;
+  }
+
+  /**
+   * Runs the task with the readers of the repository following the first parents only and stopping at the blame
+   * horizon, as configured. The blame indexer blames through it as well, so that both read the same history.
+   *
+   * @param start the commit blame starts from, which the depth of the horizon counts from, or null if there is none
+   */
+  static void withBlameHistory(SessionRepository repo, @Nullable ObjectId start, GitConfiguration configuration, GitMetrics metrics,
+    BlameTask task) throws IOException, InterruptedException {
+    UnaryOperator<ObjectReader> firstParents = configuration.blameFirstParent() ? FirstParentHistory::wrap : UnaryOperator.identity();
+    repo.addReaderDecorator(firstParents);
     try {
-      blameResult = git.blame()
-        // Equivalent to -w command line option
-        .setTextComparator(RawTextComparator.WS_IGNORE_ALL)
-        .setFilePath(filename).call();
-    } catch (Exception e) {
-      throw new IllegalStateException("Unable to blame file " + inputFile.relativePath(), e);
-    }
-    List<BlameLine> lines = new ArrayList<>();
-    if (blameResult == null) {
-      LOG.debug("Unable to blame file {}. It is probably a symlink.", inputFile.relativePath());
-      return;
+      BlameHorizon horizon = horizon(repo, start, configuration, metrics);
+      UnaryOperator<ObjectReader> hiddenHistory = horizon::wrap;
+      repo.addReaderDecorator(hiddenHistory);
+      try {
+        task.run();
+      } finally {
+        repo.removeReaderDecorator(hiddenHistory);
+      }
+    } finally {
+      repo.removeReaderDecorator(firstParents);
     }
-    for (int i = 0; i < blameResult.getResultContents().size(); i++) {
-      if (blameResult.getSourceAuthor(i) == null || blameResult.getSourceCommit(i) == null) {
-        LOG.debug("Unable to blame file {}. No blame info at line {}. Is file committed? [Author: {} Source commit: {}]", inputFile.relativePath(), i + 1,
-          blameResult.getSourceAuthor(i), blameResult.getSourceCommit(i));
-        return;
+  }
+
+  private static BlameHorizon horizon(Repository repo, @Nullable ObjectId start, GitConfiguration configuration, GitMetrics metrics)
+    throws IOException {
+    Integer maxAgeMonths = configuration.blameMaxAgeMonths();
+    Instant minCommitDate = maxAgeMonths == null ? null : ZonedDateTime.now(ZoneOffset.UTC).minusMonths(maxAgeMonths).toInstant();
+    BlameHorizon horizon = BlameHorizon.compute(repo, start, configuration.blameMaxDepth(), minCommitDate);
+    if (!horizon.boundary().isEmpty()) {
+      LOG.info("Blame horizon reached at {} commits, older lines will be attributed to them", horizon.boundary().size());
+      metrics.add(GitMetrics.BLAME_HORIZON_COMMITS, horizon.boundary().size());
+    }
+    return horizon;
+  }
+
+  /**
+   * Identifies the settings and the history a blame cache or index was computed with. The boundary of the blamer
+   * includes the commits at the blame horizon, since they are read as shallow commits. A depth horizon moves with each
+   * new commit, so a cache or index computed with it is not reused once the history has moved on. An age horizon only
+   * moves when it passes the date of a commit.
+   */
+  static long blameFingerprint(GitConfiguration configuration, GitBlamer blamer) {
+    return BlameCache.fingerprint(blamer.boundary(), configuration.blameWhitespace(), configuration.blameDiffAlgorithm().name(),
+      String.valueOf(configuration.blameFirstParent()), String.valueOf(configuration.shallowBoundaryAuthor()));
+  }
+
+  private static Path blameCacheFile(Repository repo, File baseDir) {
+    Path workTreeRoot = repo.getWorkTree().toPath();
+    String relativeBaseDir = workTreeRoot.relativize(baseDir.toPath()).toString().replace('\\', '/');
+    return repo.getDirectory().toPath().resolve(IncludedFilesRepository.INDEX_DIR)
+      .resolve(relativeBaseDir.isEmpty() ? "blame-cache" : ("blame-cache-" + Integer.toHexString(relativeBaseDir.hashCode())));
+  }
+
+  @CheckForNull
+  private BlameCache loadBlameIndex(Path indexFile, long fingerprint) {
+    try {
+      BlameCache index = BlameCache.load(indexFile, fingerprint, configuration.blameCacheOffHeap());
+      if (index == null) {
+        LOG.warn("Blame index {} is missing or was computed with other settings or another history, files will be blamed", indexFile);
+        return null;
       }
-      lines.add(new BlameLine()
-        .date(blameResult.getSourceCommitter(i).getWhen())
-        .revision(blameResult.getSourceCommit(i).getName())
-        .author(blameResult.getSourceAuthor(i).getEmailAddress()));
+      LOG.info("Blame index of {} files loaded from {}", index.size(), indexFile);
+      return index;
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Unable to load blame index from " + indexFile + ", files will be blamed", e);
+      return null;
+    }
+  }
+
+  @CheckForNull
+  private BlameCache loadBlameCache(Path cacheFile, long fingerprint) {
+    try {
+      BlameCache cache = BlameCache.loadLatest(cacheFile, fingerprint, configuration.blameCacheOffHeap());
+      if (cache != null) {
+        LOG.debug("Blame cache of {} files loaded from {}", cache.size(), cacheFile);
+      }
+      return cache;
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Unable to load blame cache from " + cacheFile, e);
+      return null;
+    }
+  }
+
+  private static void addReusableBlame(Repository repo, @Nullable BlameCache cache, List<ReusableBlame> caches) {
+    if (cache == null) {
+      return;
+    }
+    try {
+      ReusableBlame reusable = ReusableBlame.of(repo, cache);
+      LOG.debug("{} of {} cached commits are ancestors of HEAD", reusable.ancestorCount(), cache.commits().size());
+      caches.add(reusable);
+    } catch (IOException e) {
+      LOG.debug("Unable to find the cached commits in the history of HEAD", e);
     }
-    if (lines.size() == inputFile.lines() - 1) {
-      // SONARPLUGINS-3097 Git do not report blame on last empty line
-      lines.add(lines.get(lines.size() - 1));
+  }
+
+  private void saveBlameCache(BlameCache.Writer cacheWriter, Path cacheFile, long fingerprint) {
+    try {
+      Path saved = cacheWriter.saveGeneration(cacheFile, fingerprint);
+      LOG.debug("Blame of {} files saved to {}, {} of them were reused", cacheWriter.size(), saved, metrics.count(GitMetrics.BLAME_CACHE_HITS));
+    } catch (IOException e) {
+      LOG.warn("Unable to save blame cache to " + cacheFile + ", files will be blamed again by the next analysis", e);
     }
-    output.blameResult(inputFile, lines);
   }
 
+  private void logBlobCacheStats() {
+    long hits = metrics.count(GitMetrics.BLOB_CACHE_HITS);
+    long lookups = hits + metrics.count(GitMetrics.BLOB_CACHE_MISSES);
+    if (lookups > 0) {
+      LOG.debug("Shared blob cache: {} hits of {} lookups ({}%), {} evictions", hits, lookups, hits * 100 / lookups,
+        metrics.count(GitMetrics.BLOB_CACHE_EVICTIONS));
+    }
+  }
+
+  private class Stages implements BlamePipeline.Stages<FileBlame> {
+    private final BlameOutput output;
+    private final GitBlamer blamer;
+    private final FileBlamer fileBlamer;
+    @Nullable
+    private final OutlierFiles outliers;
+    private final File gitBaseDir;
+    private final boolean skipOutliers;
+    private final List<ReusableBlame> caches;
+    @Nullable
+    private final BlameCache.Writer cacheWriter;
+
+    /**
+     * @param outliers the files not to blame line by line, or null if all files are blamed line by line
+     * @param caches the caches to look blame up in before blaming files, in order
+     * @param cacheWriter where to keep the blame of files for the next analysis, if the blame cache is enabled
+     */
+    private Stages(BlameOutput output, GitBlamer blamer, FileBlamer fileBlamer, @Nullable OutlierFiles outliers, File gitBaseDir,
+      List<ReusableBlame> caches, @Nullable BlameCache.Writer cacheWriter) {
+      this.output = output;
+      this.blamer = blamer;
+      this.fileBlamer = fileBlamer;
+      this.outliers = outliers;
+      this.gitBaseDir = gitBaseDir;
+      this.caches = caches;
+      this.cacheWriter = cacheWriter;
+      this.skipOutliers = configuration.skipOutliers();
+    }
+
+    @Override
+    public String path(InputFile inputFile) {
+      return pathResolver.relativePath(gitBaseDir, inputFile.file());
+    }
+
+    @CheckForNull
+    @Override
+    public FileBlame blame(InputFile inputFile, String filename) {
+      try {
+        String outlier = outliers != null ? outliers.reason(inputFile, filename) : null;
+        return outlier != null ? blameOutlier(inputFile, filename, outlier) : blameLines(inputFile, filename);
+      } catch (Exception e) {
+        metrics.increment(GitMetrics.BLAME_ERRORS);
+        LOG.warn("Unable to blame file " + inputFile.relativePath(), e);
+        return null;
+      }
+    }
+
+    @CheckForNull
+    private FileBlame blameLines(InputFile inputFile, String filename) throws IOException {
+      if (caches.isEmpty() && cacheWriter == null) {
+        return fileBlamer.blame(filename, blamer.lastCommit(filename), inputFile.lines());
+      }
+      ObjectId blobId = blamer.blobId(filename);
+      if (blobId == null) {
+        return fileBlamer.blame(filename, null, inputFile.lines());
+      }
+      FileBlame blame = cached(filename, blobId);
+      metrics.increment(blame != null ? GitMetrics.BLAME_CACHE_HITS : GitMetrics.BLAME_CACHE_MISSES);
+      if (blame == null) {
+        blame = fileBlamer.blame(filename, blamer.lastCommit(filename), inputFile.lines());
+      }
+      if (blame != null && cacheWriter != null) {
+        cacheWriter.add(filename, blobId, blame);
+      }
+      return blame;
+    }
+
+    @CheckForNull
+    private FileBlame cached(String filename, ObjectId blobId) {
+      for (ReusableBlame cache : caches) {
+        FileBlame blame = cache.get(filename, blobId);
+        if (blame != null) {
+          return blame;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Binary, large and generated files are either skipped, or attributed as a whole to the last commit that changed them.
+     */
+    @CheckForNull
+    private FileBlame blameOutlier(InputFile inputFile, String filename, String reason) throws IOException {
+      if (skipOutliers) {
+        LOG.debug("Skip blame of file {}, it is {}", filename, reason);
+        metrics.increment(GitMetrics.BLAME_OUTLIERS_SKIPPED);
+        return null;
+      }
+      LOG.debug("Blame file {} from its last commit only, it is {}", filename, reason);
+      GitBlamer.CommittedFile lastCommit = blamer.lastCommit(filename);
+      if (lastCommit == null) {
+        LOG.debug("Unable to blame file {}. Is file committed?", inputFile.relativePath());
+        return null;
+      }
+      metrics.increment(GitMetrics.BLAME_OUTLIERS_LAST_COMMIT);
+      return fileBlamer.attributeAll(lastCommit.commit(), inputFile.lines());
+    }
+
+    @Override
+    public void emit(InputFile inputFile, FileBlame blame) {
+      try {
+        output.blameResult(inputFile, blame.toBlameLines());
+      } catch (RuntimeException e) {
+        metrics.increment(GitMetrics.BLAME_ERRORS);
+        LOG.warn("Unable to report blame of file " + inputFile.relativePath(), e);
+        return;
+      }
+      metrics.increment(GitMetrics.BLAME_FILES);
+      metrics.add(GitMetrics.BLAME_LINES, blame.lineCount());
+    }
+  }
 }
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
 
 public class JGitUtils {
 
@@ -30,8 +31,12 @@ public class JGitUtils {
   }
 
   public static Repository buildRepository(Path basedir) {
+    return buildRepository(GitScmProvider.getVerifiedRepositoryBuilder(basedir));
+  }
+
+  static SessionRepository buildRepository(RepositoryBuilder builder) {
     try {
-      Repository repo = GitScmProvider.getVerifiedRepositoryBuilder(basedir).build();
+      SessionRepository repo = new SessionRepository(builder.setup());
       try (ObjectReader objReader = repo.getObjectDatabase().newReader()) {
         // SONARSCGIT-2 Force initialization of shallow commits to avoid later concurrent modification issue
         objReader.getShallowCommits();
@@ -0,0 +1,132 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import javax.annotation.CheckForNull;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Lists the files that are not ignored with {@code git ls-files}, so that native Git can use its untracked cache and
+ * file system monitor.
+ */
+class NativeGitLsFiles {
+
+  private static final Logger LOG = Loggers.get(NativeGitLsFiles.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int STATUS_TAG_LENGTH = 2;
+  private static final String SKIP_WORKTREE_TAG = "S ";
+
+  private final String executable;
+
+  NativeGitLsFiles(String executable) {
+    this.executable = executable;
+  }
+
+  /**
+   * @return the absolute paths of the files below the base directory that are tracked or not ignored, or {@code null}
+   * when native Git could not be used
+   */
+  @CheckForNull
+  Set<Path> includedFiles(Path baseDir) {
+    ProcessBuilder processBuilder = new ProcessBuilder(executable, "ls-files", "-z", "-t", "--cached", "--others", "--exclude-standard")
+      .directory(baseDir.toFile())
+      .redirectError(ProcessBuilder.Redirect.appendTo(new File(System2.INSTANCE.isOsWindows() ? "NUL" : "/dev/null")));
+    Process process;
+    try {
+      process = processBuilder.start();
+    } catch (IOException e) {
+      LOG.debug("Git executable '{}' is not available: {}", executable, e.getMessage());
+      return null;
+    }
+
+    Set<Path> includedFiles = new HashSet<>();
+    try {
+      process.getOutputStream().close();
+      try (InputStream stdout = process.getInputStream()) {
+        readEntries(stdout, entry -> {
+          // entries are prefixed with their status, and the ones skipped by a sparse checkout are not in the work tree
+          if (!entry.startsWith(SKIP_WORKTREE_TAG)) {
+            includedFiles.add(baseDir.resolve(entry.substring(STATUS_TAG_LENGTH)));
+          }
+        });
+      }
+      int exitCode = process.waitFor();
+      if (exitCode != 0) {
+        LOG.debug("'git ls-files' failed with exit code {}", exitCode);
+        return null;
+      }
+    } catch (IOException e) {
+      LOG.debug("Unable to read the output of 'git ls-files'", e);
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } finally {
+      process.destroy();
+    }
+    return includedFiles;
+  }
+
+  /**
+   * Splits a stream of NUL-terminated entries, decoding each entry once straight from the read buffer.
+   */
+  static void readEntries(InputStream in, Consumer<String> consumer) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int start = 0;
+    int end = 0;
+    int read;
+    while ((read = in.read(buffer, end, buffer.length - end)) != -1) {
+      int scanFrom = end;
+      end += read;
+      for (int i = scanFrom; i < end; i++) {
+        if (buffer[i] == 0) {
+          consumer.accept(new String(buffer, start, i - start, StandardCharsets.UTF_8));
+          start = i + 1;
+        }
+      }
+      if (start == end) {
+        start = 0;
+        end = 0;
+      } else if (end == buffer.length) {
+        // keep the partial entry at the beginning of the buffer, and make room for the rest of it
+        int pending = end - start;
+        byte[] target = start == 0 ? Arrays.copyOf(buffer, buffer.length * 2) : buffer;
+        System.arraycopy(buffer, start, target, 0, pending);
+        buffer = target;
+        start = 0;
+        end = pending;
+      }
+    }
+    if (start < end) {
+      consumer.accept(new String(buffer, start, end - start, StandardCharsets.UTF_8));
+    }
+  }
+}
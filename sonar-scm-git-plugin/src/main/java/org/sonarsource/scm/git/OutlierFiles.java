@@ -0,0 +1,81 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.diff.RawText;
+import org.sonar.api.batch.fs.InputFile;
+
+/**
+ * Files whose blame would cost much more than it is worth: binary files, files above a size or line count, and files
+ * that {@code .gitattributes} marks as generated or not diffable. The checks are ordered from the cheapest to the most
+ * expensive, and none of them reads more than the first bytes of a file.
+ */
+class OutlierFiles {
+
+  private static final String GENERATED = "linguist-generated";
+  private static final String DIFF = "diff";
+
+  private final File workTree;
+  private final AttributesTree attributes;
+  @Nullable
+  private final Long maxFileSize;
+  @Nullable
+  private final Integer maxLines;
+
+  OutlierFiles(File workTree, AttributesTree attributes, @Nullable Integer maxFileSizeKb, @Nullable Integer maxLines) {
+    this.workTree = workTree;
+    this.attributes = attributes;
+    this.maxFileSize = maxFileSizeKb != null ? (maxFileSizeKb * 1024L) : null;
+    this.maxLines = maxLines;
+  }
+
+  /**
+   * @param path path of the file relative to the work tree root
+   * @return why the file is an outlier, or null if it is not
+   */
+  @CheckForNull
+  String reason(InputFile inputFile, String path) throws IOException {
+    if (attributes.isSet(path, GENERATED)) {
+      return "marked as " + GENERATED;
+    }
+    if (attributes.isUnset(path, DIFF)) {
+      return "marked as -" + DIFF;
+    }
+    if (maxLines != null && inputFile.lines() > maxLines) {
+      return "longer than " + maxLines + " lines";
+    }
+    File file = new File(workTree, path);
+    if (!file.isFile()) {
+      return null;
+    }
+    if (maxFileSize != null && file.length() > maxFileSize) {
+      return "larger than " + maxFileSize / 1024 + " KB";
+    }
+    try (InputStream in = Files.newInputStream(file.toPath())) {
+      return RawText.isBinary(in) ? "binary" : null;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackFile;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Reads ahead the parts of the object database that blame needs first: the indexes of all packs, and the commits
+ * reachable from HEAD, whose pack windows are then cached. It runs in the background while the analysis does other
+ * work, stops once its memory budget is spent, and can be cancelled at any time.
+ */
+class RepositoryWarmUp implements Runnable {
+
+  private static final Logger LOG = Loggers.get(RepositoryWarmUp.class);
+
+  /**
+   * Rough memory retained by the walk for each parsed commit, in addition to the commit data that is read.
+   */
+  private static final long COMMIT_OVERHEAD = 96L;
+
+  private final Repository repo;
+  private final GitMetrics metrics;
+  private final long memoryBudget;
+  private volatile boolean cancelled;
+  private long spent;
+
+  RepositoryWarmUp(Repository repo, GitMetrics metrics, long memoryBudget) {
+    this.repo = repo;
+    this.metrics = metrics;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Default budget, a small share of the heap so that the warm-up never competes with the analysis for memory.
+   */
+  static long defaultMemoryBudget() {
+    return Runtime.getRuntime().maxMemory() / 16;
+  }
+
+  void cancel() {
+    cancelled = true;
+  }
+
+  @Override
+  public void run() {
+    repo.incrementOpen();
+    try {
+      loadPackIndexes();
+      parseCommits();
+      LOG.debug("Warm-up of {} done, {} bytes read ahead", repo.getDirectory(), spent);
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Warm-up of " + repo.getDirectory() + " failed", e);
+    } finally {
+      repo.close();
+    }
+  }
+
+  private boolean isOver() {
+    return cancelled || spent >= memoryBudget;
+  }
+
+  private void loadPackIndexes() throws IOException {
+    ObjectDatabase objectDatabase = repo.getObjectDatabase();
+    if (!(objectDatabase instanceof ObjectDirectory)) {
+      return;
+    }
+    for (PackFile pack : ((ObjectDirectory) objectDatabase).getPacks()) {
+      if (isOver()) {
+        return;
+      }
+      pack.getIndex();
+      spent += indexFile(pack).length();
+      metrics.increment(GitMetrics.WARM_UP_PACK_INDEXES);
+    }
+  }
+
+  private static File indexFile(PackFile pack) {
+    String name = pack.getPackFile().getName();
+    return new File(pack.getPackFile().getParentFile(), name.substring(0, name.length() - ".pack".length()) + ".idx");
+  }
+
+  private void parseCommits() throws IOException {
+    ObjectId head = repo.resolve("HEAD^{commit}");
+    if (head == null) {
+      return;
+    }
+    try (RevWalk walk = new RevWalk(repo)) {
+      walk.markStart(walk.parseCommit(head));
+      for (RevCommit commit = walk.next(); commit != null && !isOver(); commit = walk.next()) {
+        spent += commit.getRawBuffer().length + COMMIT_OVERHEAD;
+        commit.disposeBody();
+        metrics.increment(GitMetrics.WARM_UP_COMMITS);
+      }
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Blame cached by a previous analysis or written by the blame indexer, possibly on another branch, as it applies
+ * to the files of {@code HEAD}. The cached blame of a file is reused when the file has the same content, and when all
+ * the commits its lines are attributed to are ancestors of {@code HEAD}: the blame of the main branch then applies to the
+ * files a feature branch did not change, whatever their last commit is.
+ * <p>
+ * Ancestors are found with a single walk from {@code HEAD}, which ends once all the commits of the cache are found, or
+ * once it goes past the oldest of them by a day. An ancestor committed with a clock more than a day behind may then
+ * be missed, which only means blaming the files attributed to it again.
+ * <p>
+ * Safe to use from several threads.
+ */
+class ReusableBlame {
+
+  private static final long CLOCK_SKEW_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  private final BlameCache cache;
+  private final BitSet ancestors;
+
+  private ReusableBlame(BlameCache cache, BitSet ancestors) {
+    this.cache = cache;
+    this.ancestors = ancestors;
+  }
+
+  static ReusableBlame of(Repository repo, BlameCache cache) throws IOException {
+    BlameCommits commits = cache.commits();
+    BitSet ancestors = new BitSet(commits.size());
+    ObjectId head = repo.resolve(Constants.HEAD);
+    if (head == null || commits.size() == 0) {
+      return new ReusableBlame(cache, ancestors);
+    }
+    Map<ObjectId, Integer> candidates = new HashMap<>();
+    long oldest = Long.MAX_VALUE;
+    for (int commit = 0; commit < commits.size(); commit++) {
+      candidates.put(commits.id(commit), commit);
+      oldest = Math.min(oldest, commits.date(commit));
+    }
+    try (RevWalk walk = new RevWalk(repo)) {
+      walk.setRetainBody(false);
+      walk.sort(RevSort.COMMIT_TIME_DESC);
+      walk.markStart(walk.parseCommit(head));
+      int remaining = candidates.size();
+      for (RevCommit commit : walk) {
+        Integer candidate = candidates.get(commit);
+        if (candidate != null) {
+          ancestors.set(candidate);
+          remaining--;
+        }
+        if (remaining == 0 || TimeUnit.SECONDS.toMillis(commit.getCommitTime()) < oldest - CLOCK_SKEW_MILLIS) {
+          break;
+        }
+      }
+    }
+    return new ReusableBlame(cache, ancestors);
+  }
+
+  /**
+   * @return the number of commits of the cache that are ancestors of {@code HEAD}
+   */
+  int ancestorCount() {
+    return ancestors.cardinality();
+  }
+
+  /**
+   * @param blobId the content of the file in {@code HEAD}
+   * @return the cached blame of the file, or null if it is not cached or does not apply to {@code HEAD}
+   */
+  @CheckForNull
+  FileBlame get(String path, AnyObjectId blobId) {
+    FileBlame blame = cache.get(path, blobId);
+    if (blame == null) {
+      return null;
+    }
+    for (int run = 0; run < blame.runCount(); run++) {
+      if (!ancestors.get(blame.runCommit(run))) {
+        return null;
+      }
+    }
+    return blame;
+  }
+}
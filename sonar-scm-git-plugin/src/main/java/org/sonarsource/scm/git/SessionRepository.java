@@ -0,0 +1,63 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.UnaryOperator;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.BaseRepositoryBuilder;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/**
+ * Repository of the analysis, whose object readers can be decorated for the duration of a step, for example to share
+ * a cache between the readers of concurrent blame workers. Readers created by JGit commands, walks and blame
+ * generators all come from {@link #newObjectReader()}.
+ */
+public class SessionRepository extends FileRepository {
+
+  private final List<UnaryOperator<ObjectReader>> readerDecorators = new CopyOnWriteArrayList<>();
+
+  SessionRepository(BaseRepositoryBuilder<?, ?> options) throws IOException {
+    super(options);
+  }
+
+  /**
+   * Decorates the readers created from now on, until the decorator is removed. Decorators apply in the order they
+   * were added, each wrapping the reader returned by the previous one.
+   */
+  void addReaderDecorator(UnaryOperator<ObjectReader> decorator) {
+    readerDecorators.add(decorator);
+  }
+
+  void removeReaderDecorator(UnaryOperator<ObjectReader> decorator) {
+    readerDecorators.remove(decorator);
+  }
+
+  @Override
+  public ObjectReader newObjectReader() {
+    ObjectReader reader = super.newObjectReader();
+    for (UnaryOperator<ObjectReader> decorator : readerDecorators) {
+      reader = decorator.apply(reader);
+    }
+    return reader;
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.ignore.FastIgnoreRule;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Paths of the work tree selected by a sparse checkout ({@code core.sparseCheckout} and the patterns of
+ * {@code info/sparse-checkout}). Cone mode patterns are matched on directories only, and allow to skip the directories
+ * that are outside of the cone. Other patterns are matched like ignore rules, the last matching one deciding whether a
+ * path is checked out.
+ */
+class SparseCheckout {
+
+  static final String PATTERNS_FILE = "info/sparse-checkout";
+  private static final String WORKTREE_CONFIG_FILE = "config.worktree";
+
+  private final Set<String> recursiveDirectories = new HashSet<>();
+  private final Set<String> parentDirectories = new HashSet<>();
+  private final List<FastIgnoreRule> rules = new ArrayList<>();
+  private boolean cone;
+
+  private SparseCheckout() {
+    // use load
+  }
+
+  /**
+   * @return {@code null} when the work tree is not a sparse checkout
+   */
+  @CheckForNull
+  static SparseCheckout load(Repository repo) throws IOException {
+    Config config = config(repo);
+    if (!config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, "sparseCheckout", false)) {
+      return null;
+    }
+    Path patternsFile = patternsFile(repo);
+    List<String> lines = Files.isRegularFile(patternsFile) ? Files.readAllLines(patternsFile, StandardCharsets.UTF_8) : new ArrayList<>();
+    boolean cone = config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, "sparseCheckoutCone", false);
+    return parse(lines, cone);
+  }
+
+  /**
+   * {@code git sparse-checkout} writes its settings to {@code config.worktree} when {@code extensions.worktreeConfig} is
+   * enabled, which it does since Git 2.25. JGit doesn't read this file, whose values override the ones of the repository.
+   */
+  private static Config config(Repository repo) throws IOException {
+    Config config = repo.getConfig();
+    if (!config.getBoolean("extensions", null, "worktreeConfig", false)) {
+      return config;
+    }
+    FileBasedConfig worktreeConfig = new FileBasedConfig(config, new File(repo.getDirectory(), WORKTREE_CONFIG_FILE), repo.getFS());
+    try {
+      worktreeConfig.load();
+    } catch (ConfigInvalidException e) {
+      throw new IOException("Unable to read " + worktreeConfig.getFile(), e);
+    }
+    return worktreeConfig;
+  }
+
+  static Path patternsFile(Repository repo) {
+    return repo.getDirectory().toPath().resolve(PATTERNS_FILE);
+  }
+
+  static SparseCheckout parse(List<String> lines, boolean cone) {
+    SparseCheckout sparseCheckout = new SparseCheckout();
+    sparseCheckout.cone = cone && sparseCheckout.parseCone(lines);
+    if (!sparseCheckout.cone) {
+      for (String line : lines) {
+        FastIgnoreRule rule = new FastIgnoreRule(line);
+        if (!rule.isEmpty()) {
+          sparseCheckout.rules.add(rule);
+        }
+      }
+    }
+    return sparseCheckout;
+  }
+
+  /**
+   * Reads the patterns written by {@code git sparse-checkout set} in cone mode: {@code /dir/} includes a directory
+   * recursively, and the negated pattern of its sub-directories restricts it to the files directly inside of it.
+   *
+   * @return whether all patterns follow cone mode, Git using the other patterns otherwise
+   */
+  private boolean parseCone(List<String> lines) {
+    for (String line : lines) {
+      String pattern = line.trim();
+      if (pattern.isEmpty() || pattern.startsWith("#") || "/*".equals(pattern) || "!/*/".equals(pattern)) {
+        continue;
+      }
+      if (pattern.startsWith("!/") && pattern.endsWith("/*/")) {
+        String dir = unescape(pattern.substring(2, pattern.length() - 3));
+        if (!recursiveDirectories.remove(dir)) {
+          return false;
+        }
+        parentDirectories.add(dir);
+      } else if (pattern.startsWith("/") && pattern.endsWith("/") && pattern.length() > 2 && !pattern.contains("*")) {
+        recursiveDirectories.add(unescape(pattern.substring(1, pattern.length() - 1)));
+      } else {
+        return false;
+      }
+    }
+    // files directly inside the parents of a selected directory are checked out as well
+    for (String dir : new ArrayList<>(recursiveDirectories)) {
+      for (String parent = IgnoreIndex.parent(dir); parent != null; parent = IgnoreIndex.parent(parent)) {
+        parentDirectories.add(parent);
+      }
+    }
+    for (String dir : new ArrayList<>(parentDirectories)) {
+      for (String parent = IgnoreIndex.parent(dir); parent != null; parent = IgnoreIndex.parent(parent)) {
+        parentDirectories.add(parent);
+      }
+    }
+    parentDirectories.add(IgnoreIndex.ROOT);
+    return true;
+  }
+
+  private static String unescape(String pattern) {
+    return pattern.replaceAll("\\\\(.)", "$1");
+  }
+
+  /**
+   * @param path path of a file, relative to the work tree root
+   */
+  boolean includes(String path) {
+    if (cone) {
+      String parent = IgnoreIndex.parent(path);
+      return parentDirectories.contains(parent) || isBelowRecursiveDirectory(parent);
+    }
+    // the closest of the file and its directories having a matching rule decides
+    FastIgnoreRule rule = lastMatchingRule(path, false);
+    for (String dir = IgnoreIndex.parent(path); rule == null && dir != null && !dir.isEmpty(); dir = IgnoreIndex.parent(dir)) {
+      rule = lastMatchingRule(dir, true);
+    }
+    return rule != null && rule.getResult();
+  }
+
+  @CheckForNull
+  private FastIgnoreRule lastMatchingRule(String path, boolean directory) {
+    for (int i = rules.size() - 1; i >= 0; i--) {
+      FastIgnoreRule rule = rules.get(i);
+      if (rule.isMatch(path, directory)) {
+        return rule;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Whether files below the given directory may be checked out. Only cone mode allows to skip directories.
+   *
+   * @param path path of a directory, relative to the work tree root
+   */
+  boolean mayInclude(String path) {
+    return !cone || parentDirectories.contains(path) || isBelowRecursiveDirectory(path);
+  }
+
+  private boolean isBelowRecursiveDirectory(String path) {
+    for (String dir = path; dir != null && !dir.isEmpty(); dir = IgnoreIndex.parent(dir)) {
+      if (recursiveDirectories.contains(dir)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Filter of the paths of a tree walk that are checked out.
+   */
+  TreeFilter treeFilter() {
+    return new TreeFilter() {
+      @Override
+      public boolean include(TreeWalk walker) {
+        String path = walker.getPathString();
+        return walker.isSubtree() ? mayInclude(path) : includes(path);
+      }
+
+      @Override
+      public boolean shouldBeRecursive() {
+        return false;
+      }
+
+      @Override
+      public TreeFilter clone() {
+        return this;
+      }
+
+      @Override
+      public String toString() {
+        return "SPARSE_CHECKOUT";
+      }
+    };
+  }
+}
@@ -0,0 +1,437 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Reads the untracked cache ({@code UNTR} extension) that Git maintains in its index when {@code core.untrackedCache}
+ * is enabled. For every directory whose stat data and ignore rules are unchanged, it knows the untracked files that are
+ * not ignored, so that these directories don't need to be listed and matched against the ignore rules again.
+ * See Documentation/technical/index-format.txt in the Git sources.
+ */
+class UntrackedCache {
+
+  private static final Logger LOG = Loggers.get(UntrackedCache.class);
+
+  private static final int INDEX_SIGNATURE = 0x44495243;
+  private static final int UNTR_SIGNATURE = 0x554e5452;
+  private static final int LINK_SIGNATURE = 0x6c696e6b;
+  private static final int STAT_DATA_SIZE = 36;
+  private static final int MTIME_OFFSET = 8;
+  private static final int EXTENDED_FLAG = 0x4000;
+  private static final int SKIP_WORKTREE_FLAG = 0x4000;
+  private static final int DIR_SHOW_OTHER_DIRECTORIES = 1 << 1;
+  private static final int DIR_HIDE_EMPTY_DIRECTORIES = 1 << 2;
+
+  private final Path workTreeRoot;
+  private final Instant indexTime;
+  private final Map<String, Set<String>> trackedFiles = new HashMap<>();
+  private final Map<String, Set<String>> trackedDirectories = new HashMap<>();
+  private final List<Block> blocks = new ArrayList<>();
+
+  private UntrackedCache(Path workTreeRoot, Instant indexTime) {
+    this.workTreeRoot = workTreeRoot;
+    this.indexTime = indexTime;
+  }
+
+  /**
+   * Builds an ignore index out of the untracked cache, to be used as the previous index of the walk below the base directory.
+   * Directories of the cache that are not valid anymore are recorded with an unknown state, so that they are walked again.
+   * Tracked files are matched against the ignore rules like in a walk of the work tree, and the ones that are not checked
+   * out by a sparse checkout are excluded.
+   *
+   * @return {@code null} when the index has no usable untracked cache
+   */
+  @CheckForNull
+  static IgnoreIndex read(Repository repo, String baseDir, Map<String, Long> globalStamps, @Nullable SparseCheckout sparseCheckout) {
+    Path indexFile = repo.getIndexFile().toPath();
+    try {
+      UntrackedCache cache = parse(repo, indexFile);
+      return cache == null ? null : cache.toIgnoreIndex(repo, baseDir, globalStamps, sparseCheckout);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Unable to read the untracked cache of " + indexFile, e);
+      return null;
+    }
+  }
+
+  @CheckForNull
+  private static UntrackedCache parse(Repository repo, Path indexFile) throws IOException {
+    UntrackedCache cache = new UntrackedCache(repo.getWorkTree().toPath(), Files.getLastModifiedTime(indexFile).toInstant());
+    try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != INDEX_SIGNATURE) {
+        return null;
+      }
+      int version = buffer.getInt();
+      int entryCount = buffer.getInt();
+      cache.readEntries(buffer, version, entryCount);
+      int extensionsEnd = buffer.limit() - Constants.OBJECT_ID_LENGTH;
+      while (buffer.position() < extensionsEnd) {
+        int signature = buffer.getInt();
+        int size = buffer.getInt();
+        int end = buffer.position() + size;
+        if (signature == LINK_SIGNATURE) {
+          // entries of a split index are stored in the shared index
+          return null;
+        }
+        if (signature == UNTR_SIGNATURE) {
+          ByteBuffer extension = buffer.slice();
+          extension.limit(size);
+          return cache.readExtension(repo, extension) ? cache : null;
+        }
+        buffer.position(end);
+      }
+    }
+    return null;
+  }
+
+  private void readEntries(ByteBuffer buffer, int version, int entryCount) {
+    byte[] previousName = new byte[0];
+    int previousLength = 0;
+    for (int i = 0; i < entryCount; i++) {
+      int entryStart = buffer.position();
+      buffer.position(entryStart + 40 + Constants.OBJECT_ID_LENGTH);
+      int flags = buffer.getShort() & 0xffff;
+      boolean skipWorktree = false;
+      if (version >= 3 && (flags & EXTENDED_FLAG) != 0) {
+        skipWorktree = (buffer.getShort() & SKIP_WORKTREE_FLAG) != 0;
+      }
+      byte[] name;
+      int nameLength;
+      if (version >= 4) {
+        int removed = (int) readVarint(buffer);
+        int prefixLength = previousLength - removed;
+        int suffixLength = lengthUntilNul(buffer);
+        name = new byte[prefixLength + suffixLength];
+        System.arraycopy(previousName, 0, name, 0, prefixLength);
+        buffer.get(name, prefixLength, suffixLength);
+        buffer.get();
+        nameLength = name.length;
+      } else {
+        nameLength = lengthUntilNul(buffer);
+        name = new byte[nameLength];
+        buffer.get(name);
+        int nameStart = buffer.position() - nameLength;
+        // entries are padded with 1 to 8 NUL bytes to a multiple of 8 bytes
+        buffer.position(entryStart + ((nameStart - entryStart + nameLength + 8) & ~7));
+      }
+      if (!skipWorktree) {
+        addTrackedFile(new String(name, 0, nameLength, StandardCharsets.UTF_8));
+      }
+      previousName = name;
+      previousLength = nameLength;
+    }
+  }
+
+  private void addTrackedFile(String path) {
+    String parent = IgnoreIndex.parent(path);
+    trackedFiles.computeIfAbsent(parent, k -> new LinkedHashSet<>()).add(path.substring(parent.isEmpty() ? 0 : (parent.length() + 1)));
+    for (String dir = parent; !dir.isEmpty(); dir = IgnoreIndex.parent(dir)) {
+      String dirParent = IgnoreIndex.parent(dir);
+      if (!trackedDirectories.computeIfAbsent(dirParent, k -> new LinkedHashSet<>()).add(dir.substring(dirParent.isEmpty() ? 0 : (dirParent.length() + 1)))) {
+        break;
+      }
+    }
+  }
+
+  private boolean readExtension(Repository repo, ByteBuffer buffer) throws IOException {
+    String ident = readString(buffer, (int) readVarint(buffer));
+    if (!ident.startsWith("Location " + workTreeRoot + ",")) {
+      LOG.debug("Untracked cache was written for another location: {}", ident);
+      return false;
+    }
+    buffer.position(buffer.position() + 2 * STAT_DATA_SIZE);
+    int dirFlags = buffer.getInt();
+    ObjectId infoExcludeId = readObjectId(buffer);
+    ObjectId excludesFileId = readObjectId(buffer);
+    String excludePerDir = readString(buffer, lengthUntilNul(buffer) + 1);
+    if ((dirFlags & ~(DIR_SHOW_OTHER_DIRECTORIES | DIR_HIDE_EMPTY_DIRECTORIES)) != 0
+      || !Constants.DOT_GIT_IGNORE.equals(excludePerDir)
+      || !hasContent(new File(repo.getDirectory(), Constants.INFO_EXCLUDE).toPath(), infoExcludeId)
+      || !hasContent(IgnoreRules.excludesFile(repo), excludesFileId)) {
+      LOG.debug("Untracked cache can't be used");
+      return false;
+    }
+
+    int blockCount = (int) readVarint(buffer);
+    if (blockCount == 0) {
+      return false;
+    }
+    readBlock(buffer, IgnoreIndex.ROOT);
+    BitSet valid = readEwah(buffer);
+    BitSet checkOnly = readEwah(buffer);
+    BitSet excludeIdValid = readEwah(buffer);
+    for (int i = valid.nextSetBit(0); i >= 0; i = valid.nextSetBit(i + 1)) {
+      ByteBuffer stat = buffer.slice();
+      blocks.get(i).mtime = Instant.ofEpochSecond(Integer.toUnsignedLong(stat.getInt(MTIME_OFFSET)), Integer.toUnsignedLong(stat.getInt(MTIME_OFFSET + 4)));
+      blocks.get(i).valid = !checkOnly.get(i);
+      buffer.position(buffer.position() + STAT_DATA_SIZE);
+    }
+    for (int i = excludeIdValid.nextSetBit(0); i >= 0; i = excludeIdValid.nextSetBit(i + 1)) {
+      blocks.get(i).excludeId = readObjectId(buffer);
+    }
+    return true;
+  }
+
+  private void readBlock(ByteBuffer buffer, String parentPath) {
+    int untrackedCount = (int) readVarint(buffer);
+    int dirCount = (int) readVarint(buffer);
+    String name = readString(buffer, lengthUntilNul(buffer) + 1);
+    Block block = new Block(blocks.isEmpty() ? IgnoreIndex.ROOT : IgnoreIndex.child(parentPath, name));
+    blocks.add(block);
+    for (int i = 0; i < untrackedCount; i++) {
+      block.untracked.add(readString(buffer, lengthUntilNul(buffer) + 1));
+    }
+    for (int i = 0; i < dirCount; i++) {
+      int child = blocks.size();
+      readBlock(buffer, block.path);
+      block.subdirectories.add(blocks.get(child).path);
+    }
+  }
+
+  private IgnoreIndex toIgnoreIndex(Repository repo, String baseDir, Map<String, Long> globalStamps, @Nullable SparseCheckout sparseCheckout) throws IOException {
+    // the index is not reused when the ignore rules of the parents of the base directory changed
+    for (String dir = IgnoreIndex.parent(baseDir); dir != null; dir = IgnoreIndex.parent(dir)) {
+      Block block = block(dir);
+      if (block == null || !hasContent(gitIgnore(dir), block.excludeId)) {
+        return null;
+      }
+    }
+
+    IgnoreIndex index = new IgnoreIndex(baseDir, indexTime.toEpochMilli(), globalStamps);
+    IgnoreRules rules = new IgnoreRules(repo);
+    for (Block block : blocks) {
+      if (!block.path.equals(baseDir) && !block.path.startsWith(baseDir.isEmpty() ? "" : (baseDir + "/"))) {
+        continue;
+      }
+      if (sparseCheckout != null && !sparseCheckout.mayInclude(block.path)) {
+        continue;
+      }
+      Path gitIgnore = gitIgnore(block.path);
+      boolean rulesValid = hasContent(gitIgnore, block.excludeId);
+      long ignoreFileMtime = rulesValid ? IgnoreIndex.mtime(gitIgnore) : IgnoreIndex.UNKNOWN;
+      if (!rulesValid || !block.valid || !isUpToDate(block)) {
+        index.newDirectory(block.path, IgnoreIndex.UNKNOWN, ignoreFileMtime);
+        continue;
+      }
+      IgnoreIndex.Directory directory = index.newDirectory(block.path, block.mtime.toEpochMilli(), ignoreFileMtime);
+      // Git lists the untracked entries that are not ignored, but tracked entries may match the ignore rules as well
+      Set<String> files = new LinkedHashSet<>();
+      for (String name : trackedFiles.getOrDefault(block.path, Collections.emptySet())) {
+        if (!rules.isIgnored(IgnoreIndex.child(block.path, name), false)) {
+          files.add(name);
+        }
+      }
+      Set<String> subdirectories = new LinkedHashSet<>();
+      for (String name : trackedDirectories.getOrDefault(block.path, Collections.emptySet())) {
+        if (!rules.isIgnored(IgnoreIndex.child(block.path, name), true)) {
+          subdirectories.add(name);
+        }
+      }
+      for (String untracked : block.untracked) {
+        if (untracked.endsWith("/")) {
+          subdirectories.add(untracked.substring(0, untracked.length() - 1));
+        } else {
+          files.add(untracked);
+        }
+      }
+      block.subdirectories.forEach(path -> subdirectories.add(path.substring(path.lastIndexOf('/') + 1)));
+      files.stream()
+        .filter(name -> sparseCheckout == null || sparseCheckout.includes(IgnoreIndex.child(block.path, name)))
+        .forEach(directory::addFile);
+      subdirectories.stream()
+        .filter(name -> sparseCheckout == null || sparseCheckout.mayInclude(IgnoreIndex.child(block.path, name)))
+        .forEach(directory::addSubdirectory);
+    }
+
+    // sub-directories that are not in the cache have to be walked
+    for (Block block : new ArrayList<>(blocks)) {
+      IgnoreIndex.Directory directory = index.directory(block.path);
+      if (directory == null) {
+        continue;
+      }
+      for (String subdirectory : directory.subdirectories()) {
+        String path = IgnoreIndex.child(block.path, subdirectory);
+        if (index.directory(path) == null) {
+          index.newDirectory(path, IgnoreIndex.UNKNOWN, IgnoreIndex.mtime(gitIgnore(path)));
+        }
+      }
+    }
+    return index.directory(baseDir) == null ? null : index;
+  }
+
+  private boolean isUpToDate(Block block) {
+    try {
+      Instant actual = Files.getLastModifiedTime(IgnoreIndex.resolve(workTreeRoot, block.path), LinkOption.NOFOLLOW_LINKS).toInstant();
+      boolean sameTime = actual.getEpochSecond() == block.mtime.getEpochSecond()
+        // Git may be built without support for nanoseconds
+        && (block.mtime.getNano() == 0 || actual.getNano() == block.mtime.getNano());
+      // racily clean: the directory may have changed after it was listed, in the same time slot
+      return sameTime && block.mtime.isBefore(indexTime);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  @CheckForNull
+  private Block block(String path) {
+    return blocks.stream().filter(b -> b.path.equals(path)).findFirst().orElse(null);
+  }
+
+  private Path gitIgnore(String dir) {
+    return IgnoreIndex.resolve(workTreeRoot, dir).resolve(Constants.DOT_GIT_IGNORE);
+  }
+
+  /**
+   * Whether the given file has the content of the blob recorded by Git, the zero id standing for a missing file.
+   * Git either reuses the id of the file in the index or hashes the content read by the ignore rules parser, which always
+   * ends with an additional line feed.
+   */
+  private static boolean hasContent(Path file, ObjectId id) throws IOException {
+    if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+      return id.equals(ObjectId.zeroId());
+    }
+    byte[] content = Files.readAllBytes(file);
+    ObjectInserter.Formatter formatter = new ObjectInserter.Formatter();
+    if (id.equals(formatter.idFor(Constants.OBJ_BLOB, content))) {
+      return true;
+    }
+    byte[] withLineFeed = Arrays.copyOf(content, content.length + 1);
+    withLineFeed[content.length] = '\n';
+    return id.equals(formatter.idFor(Constants.OBJ_BLOB, withLineFeed));
+  }
+
+  private static ObjectId readObjectId(ByteBuffer buffer) {
+    byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+    buffer.get(raw);
+    return ObjectId.fromRaw(raw);
+  }
+
+  /**
+   * Reads a string of the given length, including its NUL terminator.
+   */
+  private static String readString(ByteBuffer buffer, int lengthWithNul) {
+    byte[] raw = new byte[lengthWithNul];
+    buffer.get(raw);
+    return new String(raw, 0, lengthWithNul - 1, StandardCharsets.UTF_8);
+  }
+
+  private static int lengthUntilNul(ByteBuffer buffer) {
+    int start = buffer.position();
+    int i = start;
+    while (buffer.get(i) != 0) {
+      i++;
+    }
+    return i - start;
+  }
+
+  /**
+   * Variable width integer, as encoded by varint.c in the Git sources.
+   */
+  static long readVarint(ByteBuffer buffer) {
+    int c = buffer.get() & 0xff;
+    long value = c & 0x7f;
+    while ((c & 0x80) != 0) {
+      value += 1;
+      c = buffer.get() & 0xff;
+      value = (value << 7) + (c & 0x7f);
+    }
+    return value;
+  }
+
+  /**
+   * Reads an EWAH compressed bitmap, as serialized by ewah/ewah_io.c in the Git sources.
+   */
+  static BitSet readEwah(ByteBuffer buffer) {
+    buffer.getInt();
+    int wordCount = buffer.getInt();
+    BitSet bits = new BitSet();
+    int bitPosition = 0;
+    int word = 0;
+    while (word < wordCount) {
+      long marker = buffer.getLong();
+      word++;
+      boolean runningBit = (marker & 1) != 0;
+      long runningLength = (marker >>> 1) & 0xffffffffL;
+      int literalWords = (int) (marker >>> 33);
+      if (runningBit) {
+        bits.set(bitPosition, bitPosition + (int) (runningLength * 64));
+      }
+      bitPosition += (int) (runningLength * 64);
+      for (int i = 0; i < literalWords; i++) {
+        long literal = buffer.getLong();
+        word++;
+        for (int bit = 0; bit < 64; bit++) {
+          if ((literal & (1L << bit)) != 0) {
+            bits.set(bitPosition + bit);
+          }
+        }
+        bitPosition += 64;
+      }
+    }
+    // position of the last running length word
+    buffer.getInt();
+    return bits;
+  }
+
+  private static class Block {
+    private final String path;
+    private final List<String> untracked = new ArrayList<>();
+    private final List<String> subdirectories = new ArrayList<>();
+    private ObjectId excludeId = ObjectId.zeroId();
+    private Instant mtime = Instant.MAX;
+    private boolean valid = false;
+
+    private Block(String path) {
+      this.path = path;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+
+/**
+ * Compares lines like {@link RawTextComparator#WS_IGNORE_ALL}, but hashes all lines of a text in a single pass over its
+ * content, testing whitespace with a table lookup, instead of a {@link #hashRegion} call per line.
+ * <p>
+ * The diff algorithms compare lines without comparing their hashes first, so lines with different hashes are told apart
+ * without reading their content. Lines with the same hash are mostly identical, which a plain comparison of their bytes
+ * tells before skipping whitespace.
+ * <p>
+ * The line bounds and hashes of the two texts last compared are kept, since a diff only compares the lines of the same
+ * two texts. Not safe to use from several threads: each blame needs its own instance.
+ */
+class WhitespaceIgnoringComparator extends RawTextComparator {
+
+  private static final int SEED = 5381;
+  private static final boolean[] WHITESPACE = new boolean[256];
+
+  static {
+    WHITESPACE[' '] = true;
+    WHITESPACE['\t'] = true;
+    WHITESPACE['\r'] = true;
+    WHITESPACE['\n'] = true;
+  }
+
+  private HashedLines last;
+  private HashedLines beforeLast;
+
+  @Override
+  public int hash(RawText seq, int lno) {
+    return lines(seq).hashes[lno];
+  }
+
+  @Override
+  public boolean equals(RawText a, int ai, RawText b, int bi) {
+    HashedLines aLines = lines(a);
+    HashedLines bLines = lines(b);
+    if (aLines.hashes[ai] != bLines.hashes[bi]) {
+      return false;
+    }
+    byte[] aContent = aLines.content;
+    byte[] bContent = bLines.content;
+    int aPtr = aLines.starts[ai];
+    int aEnd = aLines.starts[ai + 1];
+    int bPtr = bLines.starts[bi];
+    int bEnd = bLines.starts[bi + 1];
+    if (aEnd - aPtr == bEnd - bPtr && sameBytes(aContent, aPtr, bContent, bPtr, aEnd - aPtr)) {
+      return true;
+    }
+    while (true) {
+      while (aPtr < aEnd && WHITESPACE[aContent[aPtr] & 0xff]) {
+        aPtr++;
+      }
+      while (bPtr < bEnd && WHITESPACE[bContent[bPtr] & 0xff]) {
+        bPtr++;
+      }
+      if (aPtr == aEnd || bPtr == bEnd) {
+        return aPtr == aEnd && bPtr == bEnd;
+      }
+      if (aContent[aPtr++] != bContent[bPtr++]) {
+        return false;
+      }
+    }
+  }
+
+  private static boolean sameBytes(byte[] a, int aPtr, byte[] b, int bPtr, int length) {
+    for (int i = 0; i < length; i++) {
+      if (a[aPtr + i] != b[bPtr + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  protected int hashRegion(byte[] raw, int ptr, int end) {
+    int hash = SEED;
+    for (; ptr < end; ptr++) {
+      int c = raw[ptr] & 0xff;
+      if (!WHITESPACE[c]) {
+        hash = (hash << 5) + hash + c;
+      }
+    }
+    return hash;
+  }
+
+  private HashedLines lines(RawText text) {
+    if (last == null || last.text != text) {
+      HashedLines lines = beforeLast != null && beforeLast.text == text ? beforeLast : new HashedLines(text);
+      beforeLast = last;
+      last = lines;
+    }
+    return last;
+  }
+
+  private static class HashedLines {
+    private final RawText text;
+    private final byte[] content;
+    private final int[] starts;
+    private final int[] hashes;
+
+    /**
+     * Lines end after each line feed, like {@link org.eclipse.jgit.util.RawParseUtils#lineMap}.
+     */
+    private HashedLines(RawText text) {
+      this.text = text;
+      this.content = text.getRawContent();
+      int size = text.size();
+      this.starts = new int[size + 1];
+      this.hashes = new int[size];
+      int line = 0;
+      int hash = SEED;
+      for (int ptr = 0; ptr < content.length; ptr++) {
+        int c = content[ptr] & 0xff;
+        if (c == '\n') {
+          hashes[line] = hash;
+          starts[++line] = ptr + 1;
+          hash = SEED;
+        } else if (!WHITESPACE[c]) {
+          hash = (hash << 5) + hash + c;
+        }
+      }
+      if (line < size) {
+        // last line without line feed
+        hashes[line] = hash;
+        starts[size] = content.length;
+      }
+    }
+  }
+}
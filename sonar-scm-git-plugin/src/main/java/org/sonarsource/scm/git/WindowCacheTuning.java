@@ -0,0 +1,125 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.util.Optional;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.MessageException;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import static org.eclipse.jgit.storage.file.WindowCacheConfig.KB;
+import static org.eclipse.jgit.storage.file.WindowCacheConfig.MB;
+
+/**
+ * Settings of the JGit window cache, which holds the pack file data read by all repositories of the JVM. JGit defaults
+ * suit servers hosting many repositories, and make blame read the same windows of multi-gigabyte packs over and over.
+ * Unless set explicitly, each value is derived from the total size of the packs and from the available heap.
+ */
+class WindowCacheTuning {
+
+  private static final Logger LOG = Loggers.get(WindowCacheTuning.class);
+
+  private static final long LARGE_PACKS = 128L * MB;
+  private static final long HUGE_PACKS = 1024L * MB;
+  private static final int MAX_DELTA_BASE_CACHE_LIMIT = 64 * MB;
+
+  private final Configuration config;
+
+  WindowCacheTuning(Configuration config) {
+    this.config = config;
+  }
+
+  /**
+   * Installs the window cache settings for the repository with the given Git directory.
+   */
+  void install(File gitDir) {
+    WindowCacheConfig windowCacheConfig = configFor(totalPackSize(gitDir), Runtime.getRuntime().maxMemory());
+    windowCacheConfig.install();
+    LOG.debug("JGit window cache: packed Git limit {} MB, window size {} KB, delta base cache limit {} MB, memory mapping {}",
+      windowCacheConfig.getPackedGitLimit() / MB, windowCacheConfig.getPackedGitWindowSize() / KB,
+      windowCacheConfig.getDeltaBaseCacheLimit() / MB, windowCacheConfig.isPackedGitMMAP());
+  }
+
+  WindowCacheConfig configFor(long totalPackSize, long maxHeap) {
+    WindowCacheConfig defaults = new WindowCacheConfig();
+    WindowCacheConfig tuned = new WindowCacheConfig();
+
+    // whole packs are cached as long as they fit in a quarter of the heap
+    long packedGitLimit = Math.max(defaults.getPackedGitLimit(), Math.min(totalPackSize, maxHeap / 4));
+    int windowSize = defaults.getPackedGitWindowSize();
+    int deltaBaseCacheLimit = defaults.getDeltaBaseCacheLimit();
+    if (totalPackSize >= HUGE_PACKS) {
+      windowSize = 64 * KB;
+    } else if (totalPackSize >= LARGE_PACKS) {
+      windowSize = 16 * KB;
+    }
+    if (totalPackSize >= LARGE_PACKS) {
+      deltaBaseCacheLimit = (int) Math.max(deltaBaseCacheLimit, Math.min(maxHeap / 32, MAX_DELTA_BASE_CACHE_LIMIT));
+    }
+
+    tuned.setPackedGitLimit(setting(GitConfiguration.PACKED_GIT_LIMIT_PROP_KEY, MB).orElse(packedGitLimit));
+    tuned.setPackedGitWindowSize(windowSizeSetting().orElse(windowSize));
+    tuned.setDeltaBaseCacheLimit(deltaBaseCacheLimitSetting().orElse(deltaBaseCacheLimit));
+    tuned.setPackedGitMMAP(config.getBoolean(GitConfiguration.PACKED_GIT_MMAP_PROP_KEY).orElse(false));
+    if (tuned.getPackedGitLimit() < tuned.getPackedGitWindowSize()) {
+      throw MessageException.of("The packed Git limit must not be smaller than the packed Git window size");
+    }
+    return tuned;
+  }
+
+  private Optional<Long> setting(String key, int unit) {
+    Optional<Long> value = config.getLong(key);
+    if (value.isPresent() && value.get() <= 0) {
+      throw MessageException.of("Property " + key + " must be positive: " + value.get());
+    }
+    return value.map(v -> v * unit);
+  }
+
+  private Optional<Integer> deltaBaseCacheLimitSetting() {
+    Optional<Long> value = setting(GitConfiguration.DELTA_BASE_CACHE_LIMIT_PROP_KEY, MB);
+    if (value.isPresent() && value.get() > Integer.MAX_VALUE) {
+      throw MessageException.of("Property " + GitConfiguration.DELTA_BASE_CACHE_LIMIT_PROP_KEY + " must not be greater than "
+        + Integer.MAX_VALUE / MB + ": " + value.get() / MB);
+    }
+    return value.map(Long::intValue);
+  }
+
+  private Optional<Integer> windowSizeSetting() {
+    Optional<Integer> value = config.getInt(GitConfiguration.PACKED_GIT_WINDOW_SIZE_PROP_KEY);
+    if (value.isPresent() && (value.get() < 4 || Integer.bitCount(value.get()) != 1)) {
+      throw MessageException.of("Property " + GitConfiguration.PACKED_GIT_WINDOW_SIZE_PROP_KEY + " must be a power of 2 of at least 4: " + value.get());
+    }
+    return value.map(kb -> kb * KB);
+  }
+
+  static long totalPackSize(File gitDir) {
+    File[] packs = new File(gitDir, "objects/pack").listFiles((dir, name) -> name.endsWith(".pack"));
+    long total = 0L;
+    if (packs != null) {
+      for (File pack : packs) {
+        total += pack.length();
+      }
+    }
+    return total;
+  }
+}
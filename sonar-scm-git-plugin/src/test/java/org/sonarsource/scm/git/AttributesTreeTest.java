@@ -0,0 +1,108 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AttributesTreeTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private Git git;
+  private Path worktree;
+
+  @Before
+  public void prepare() throws IOException, GitAPIException {
+    File dir = temp.newFolder();
+    git = Git.init().setDirectory(dir).call();
+    worktree = dir.toPath();
+  }
+
+  @After
+  public void close() {
+    git.close();
+  }
+
+  @Test
+  public void match_patterns_relative_to_their_directory() throws IOException {
+    write(".gitattributes", "*.min.js linguist-generated\n/build/** linguist-generated=true\n");
+    write("src/.gitattributes", "parser/*.java linguist-generated\n");
+
+    AttributesTree underTest = new AttributesTree(repo());
+
+    assertThat(underTest.isSet("app.min.js", "linguist-generated")).isTrue();
+    assertThat(underTest.isSet("web/lib/app.min.js", "linguist-generated")).isTrue();
+    assertThat(underTest.isSet("build/out/Foo.java", "linguist-generated")).isTrue();
+    assertThat(underTest.isSet("src/parser/Parser.java", "linguist-generated")).isTrue();
+    assertThat(underTest.isSet("parser/Parser.java", "linguist-generated")).isFalse();
+    assertThat(underTest.isSet("src/Main.java", "linguist-generated")).isFalse();
+    assertThat(underTest.get("src/Main.java", "linguist-generated")).isNull();
+  }
+
+  @Test
+  public void deeper_and_later_rules_win() throws IOException {
+    write(".gitattributes", "*.js -diff\n*.js diff\n*.txt -diff\n");
+    write("docs/.gitattributes", "*.txt diff\n");
+    write(".git/info/attributes", "docs/notes.txt -diff\n");
+
+    AttributesTree underTest = new AttributesTree(repo());
+
+    assertThat(underTest.isUnset("app.js", "diff")).isFalse();
+    assertThat(underTest.isUnset("readme.txt", "diff")).isTrue();
+    assertThat(underTest.isUnset("docs/guide.txt", "diff")).isFalse();
+    // info/attributes takes precedence over the .gitattributes files
+    assertThat(underTest.isUnset("docs/notes.txt", "diff")).isTrue();
+  }
+
+  @Test
+  public void expand_binary_macro_to_unset_diff() throws IOException {
+    write(".gitattributes", "*.dat binary\n");
+
+    AttributesTree underTest = new AttributesTree(repo());
+
+    assertThat(underTest.isUnset("data/table.dat", "diff")).isTrue();
+    assertThat(underTest.isUnset("data/table.csv", "diff")).isFalse();
+  }
+
+  private Repository repo() {
+    return git.getRepository();
+  }
+
+  private void write(String relativePath, String content) throws IOException {
+    Path file = worktree.resolve(relativePath);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(UTF_8));
+  }
+}
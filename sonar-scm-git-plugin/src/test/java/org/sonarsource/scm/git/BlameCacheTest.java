@@ -0,0 +1,140 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.sonarsource.scm.git.Utils.COMMIT_1;
+import static org.sonarsource.scm.git.Utils.COMMIT_2;
+
+public class BlameCacheTest {
+
+  private static final ObjectId BLOB_1 = ObjectId.fromString("e69de29bb2d1d6434b8b29ae775ad8c2e48c5391");
+  private static final ObjectId BLOB_2 = ObjectId.fromString("d00491fd7e5bb6fa28c517a0bb32b8b506539d4d");
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void save_and_load_on_and_off_heap() throws IOException {
+    Path file = temp.getRoot().toPath().resolve("cache/blame-cache");
+    CommitTable commits = new CommitTable();
+    int first = commits.indexOf(COMMIT_1, "david@gageot.net", 1000L);
+    int second = commits.indexOf(COMMIT_2, "duarte.meneses@sonarsource.com", 2000L);
+    BlameCache.Writer writer = new BlameCache.Writer();
+    writer.add("src/Foo.java", BLOB_1, new FileBlame.Builder(commits).add(first, 25).add(second, 3).add(first).build());
+    writer.add("src/Bar.java", BLOB_2, new FileBlame.Builder(commits).add(first, 2).build());
+    writer.add("é.txt", BLOB_2, new FileBlame.Builder(commits).build());
+    writer.save(file, 42L);
+
+    for (boolean offHeap : new boolean[] {false, true}) {
+      BlameCache cache = BlameCache.load(file, 42L, offHeap);
+      assertThat(cache).isNotNull();
+      assertThat(cache.size()).isEqualTo(3);
+
+      FileBlame foo = cache.get("src/Foo.java", BLOB_1);
+      assertThat(foo.lineCount()).isEqualTo(29);
+      assertThat(foo.runCount()).isEqualTo(3);
+      assertThat(foo.toBlameLines()).isEqualTo(new FileBlame.Builder(commits).add(first, 25).add(second, 3).add(first).build().toBlameLines());
+      assertThat(cache.get("src/Bar.java", BLOB_2).toBlameLines()).extracting("author").containsExactly("david@gageot.net", "david@gageot.net");
+      assertThat(cache.get("é.txt", BLOB_2).lineCount()).isZero();
+
+      assertThat(cache.get("src/Foo.java", BLOB_2)).isNull();
+      assertThat(cache.get("src/Baz.java", BLOB_1)).isNull();
+    }
+  }
+
+  @Test
+  public void resave_cached_blame() throws IOException {
+    Path file = temp.getRoot().toPath().resolve("blame-cache");
+    CommitTable commits = new CommitTable();
+    BlameCache.Writer writer = new BlameCache.Writer();
+    writer.add("Foo.java", BLOB_1, new FileBlame.Builder(commits).add(commits.indexOf(COMMIT_2, "duarte.meneses@sonarsource.com", 2000L), 3).build());
+    writer.save(file, 42L);
+
+    BlameCache cache = BlameCache.load(file, 42L, false);
+    CommitTable newCommits = new CommitTable();
+    BlameCache.Writer newWriter = new BlameCache.Writer();
+    newWriter.add("Foo.java", BLOB_1, cache.get("Foo.java", BLOB_1));
+    newWriter.add("Bar.java", BLOB_2, new FileBlame.Builder(newCommits).add(newCommits.indexOf(COMMIT_1, "david@gageot.net", 1000L), 2).build());
+    newWriter.save(file, 42L);
+
+    BlameCache newCache = BlameCache.load(file, 42L, false);
+    assertThat(newCache.get("Foo.java", BLOB_1).toBlameLines()).extracting("revision").containsOnly(COMMIT_2.getName());
+    assertThat(newCache.get("Bar.java", BLOB_2).toBlameLines()).extracting("revision").containsOnly(COMMIT_1.getName());
+    assertThat(newCache.get("Bar.java", BLOB_2).commits().size()).isEqualTo(2);
+  }
+
+  @Test
+  public void save_generation_while_the_previous_one_is_mapped() throws IOException {
+    Path file = temp.getRoot().toPath().resolve("cache/blame-cache");
+    assertThat(BlameCache.loadLatest(file, 42L, true)).isNull();
+    CommitTable commits = new CommitTable();
+    BlameCache.Writer writer = new BlameCache.Writer();
+    writer.add("Foo.java", BLOB_1, new FileBlame.Builder(commits).add(commits.indexOf(COMMIT_1, "david@gageot.net", 1000L), 3).build());
+    assertThat(writer.saveGeneration(file, 42L)).isEqualTo(file.resolveSibling("blame-cache.1"));
+
+    BlameCache mapped = BlameCache.loadLatest(file, 42L, true);
+    BlameCache.Writer newWriter = new BlameCache.Writer();
+    newWriter.add("Foo.java", BLOB_1, mapped.get("Foo.java", BLOB_1));
+    newWriter.add("Bar.java", BLOB_2, new FileBlame.Builder(commits).add(commits.indexOf(COMMIT_2, "duarte.meneses@sonarsource.com", 2000L), 2).build());
+    Files.write(file.resolveSibling("blame-cache.tmp"), "interrupted save".getBytes(UTF_8));
+    Files.write(file.resolveSibling("blame-cache-other.9"), "other cache".getBytes(UTF_8));
+    assertThat(newWriter.saveGeneration(file, 42L)).isEqualTo(file.resolveSibling("blame-cache.2"));
+
+    BlameCache latest = BlameCache.loadLatest(file, 42L, true);
+    assertThat(latest.size()).isEqualTo(2);
+    assertThat(latest.get("Bar.java", BLOB_2).toBlameLines()).extracting("revision").containsOnly(COMMIT_2.getName());
+    assertThat(mapped.get("Foo.java", BLOB_1).lineCount()).isEqualTo(3);
+    assertThat(file.getParent().toFile().list()).containsOnly("blame-cache.2", "blame-cache-other.9");
+  }
+
+  @Test
+  public void ignore_cache_with_another_fingerprint_or_format() throws IOException {
+    Path file = temp.getRoot().toPath().resolve("blame-cache");
+    assertThat(BlameCache.load(file, 42L, true)).isNull();
+
+    new BlameCache.Writer().save(file, 42L);
+    assertThat(BlameCache.load(file, 42L, true).size()).isZero();
+    assertThat(BlameCache.load(file, 43L, true)).isNull();
+
+    Files.write(file, "not a cache".getBytes(UTF_8));
+    assertThat(BlameCache.load(file, 42L, false)).isNull();
+  }
+
+  @Test
+  public void fingerprint_settings_and_boundary() {
+    long fingerprint = BlameCache.fingerprint(Arrays.asList(COMMIT_1, COMMIT_2), "ignoreAll", "HISTOGRAM");
+    assertThat(BlameCache.fingerprint(Arrays.asList(COMMIT_2, COMMIT_1), "ignoreAll", "HISTOGRAM")).isEqualTo(fingerprint);
+    assertThat(BlameCache.fingerprint(Collections.singleton(COMMIT_1), "ignoreAll", "HISTOGRAM")).isNotEqualTo(fingerprint);
+    assertThat(BlameCache.fingerprint(Arrays.asList(COMMIT_1, COMMIT_2), "exact", "HISTOGRAM")).isNotEqualTo(fingerprint);
+    assertThat(BlameCache.fingerprint(Collections.emptySet(), "ignoreAllHISTOGRAM")).isNotEqualTo(BlameCache.fingerprint(Collections.emptySet(), "ignoreAll", "HISTOGRAM"));
+  }
+}
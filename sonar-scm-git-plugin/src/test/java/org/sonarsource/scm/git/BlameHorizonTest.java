@@ -0,0 +1,146 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.function.UnaryOperator;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlameHorizonTest {
+
+  private static final long DAY = 24 * 3600 * 1000L;
+  private static final Instant START = Instant.parse("2019-01-01T00:00:00Z");
+  private static final Instant AFTER_COMMIT_5 = START.plusMillis(5 * DAY + 3600 * 1000L);
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Rule
+  public GitSessionTester gitTester = new GitSessionTester();
+
+  private final List<RevCommit> commits = new ArrayList<>();
+  private File worktree;
+
+  @Before
+  public void prepare() throws IOException, GitAPIException {
+    worktree = temp.newFolder();
+    try (Git git = Git.init().setDirectory(worktree).call()) {
+      // one line appended per day
+      for (int i = 0; i < 10; i++) {
+        Files.write(worktree.toPath().resolve("file.txt"), ("line " + i + "\n").getBytes(UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        git.add().addFilepattern("file.txt").call();
+        PersonIdent ident = new PersonIdent("author", "author@example.com", new Date(START.toEpochMilli() + i * DAY), TimeZone.getTimeZone("UTC"));
+        commits.add(git.commit().setMessage("commit " + i).setAuthor(ident).setCommitter(ident).call());
+      }
+    }
+  }
+
+  @Test
+  public void no_boundary_without_limit() throws IOException {
+    try (SessionRepository repo = gitTester.session().open(worktree.toPath())) {
+      assertThat(BlameHorizon.compute(repo, head(repo), null, null).boundary()).isEmpty();
+      assertThat(BlameHorizon.compute(repo, head(repo), 10, START).boundary()).isEmpty();
+    }
+  }
+
+  @Test
+  public void stop_at_depth() throws IOException {
+    try (SessionRepository repo = gitTester.session().open(worktree.toPath())) {
+      BlameHorizon horizon = BlameHorizon.compute(repo, head(repo), 3, null);
+      assertThat(horizon.boundary()).containsOnly(commits.get(7));
+
+      BlameResult result = blameWith(repo, horizon);
+      for (int line = 0; line < 7; line++) {
+        assertThat(result.getSourceCommit(line)).isEqualTo(commits.get(7));
+      }
+      assertThat(result.getSourceCommit(7)).isEqualTo(commits.get(7));
+      assertThat(result.getSourceCommit(8)).isEqualTo(commits.get(8));
+      assertThat(result.getSourceCommit(9)).isEqualTo(commits.get(9));
+    }
+  }
+
+  @Test
+  public void stop_at_first_commits_older_than_date() throws IOException {
+    try (SessionRepository repo = gitTester.session().open(worktree.toPath())) {
+      BlameHorizon horizon = BlameHorizon.compute(repo, head(repo), null, AFTER_COMMIT_5);
+      assertThat(horizon.boundary()).containsOnly(commits.get(5));
+
+      BlameResult result = blameWith(repo, horizon);
+      assertThat(result.getSourceCommit(0)).isEqualTo(commits.get(5));
+      assertThat(result.getSourceCommit(5)).isEqualTo(commits.get(5));
+      assertThat(result.getSourceCommit(6)).isEqualTo(commits.get(6));
+    }
+  }
+
+  @Test
+  public void use_the_closest_of_both_limits() throws IOException {
+    try (SessionRepository repo = gitTester.session().open(worktree.toPath())) {
+      assertThat(BlameHorizon.compute(repo, head(repo), 2, AFTER_COMMIT_5).boundary()).containsOnly(commits.get(8));
+      assertThat(BlameHorizon.compute(repo, head(repo), 8, AFTER_COMMIT_5).boundary()).containsOnly(commits.get(5));
+    }
+  }
+
+  @Test
+  public void count_depth_from_start_commit() throws IOException {
+    try (SessionRepository repo = gitTester.session().open(worktree.toPath())) {
+      assertThat(BlameHorizon.compute(repo, commits.get(5), 3, null).boundary()).containsOnly(commits.get(3));
+      assertThat(BlameHorizon.compute(repo, null, 3, null).boundary()).isEmpty();
+    }
+  }
+
+  private static ObjectId head(Repository repo) throws IOException {
+    return repo.resolve(Constants.HEAD);
+  }
+
+  private BlameResult blameWith(SessionRepository repo, BlameHorizon horizon) throws IOException {
+    UnaryOperator<ObjectReader> hiddenHistory = horizon::wrap;
+    repo.addReaderDecorator(hiddenHistory);
+    try {
+      GitBlamer blamer = new GitBlamer(repo, gitTester.metrics());
+      assertThat(blamer.isBoundary(commits.get(9))).isFalse();
+      return blamer.blame("file.txt");
+    } finally {
+      repo.removeReaderDecorator(hiddenHistory);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlamePipelineTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void emit_results_of_all_blamed_files_from_calling_thread() throws IOException, GitAPIException, InterruptedException {
+    List<InputFile> files = IntStream.range(0, 50)
+      .mapToObj(i -> new TestInputFileBuilder("foo", "File" + i + ".java").build())
+      .collect(Collectors.toList());
+    RecordingStages stages = new RecordingStages();
+
+    try (Git git = Git.init().setDirectory(temp.newFolder()).call()) {
+      new BlamePipeline<String>(git.getRepository(), 3).run(files, stages);
+    }
+
+    // files whose blame fails are skipped, the others are all emitted
+    assertThat(stages.emitted).hasSize(45);
+    assertThat(stages.emitted).doesNotContain("File0.java", "File10.java", "File20.java", "File30.java", "File40.java");
+    assertThat(stages.emittingThreads).containsExactly(Thread.currentThread().getName());
+    assertThat(stages.blamingThreads).allMatch(name -> name.startsWith("git-scm-"));
+  }
+
+  @Test
+  public void run_without_files() throws IOException, GitAPIException, InterruptedException {
+    RecordingStages stages = new RecordingStages();
+
+    try (Git git = Git.init().setDirectory(temp.newFolder()).call()) {
+      new BlamePipeline<String>(git.getRepository(), 2).run(new ArrayList<>(), stages);
+    }
+
+    assertThat(stages.emitted).isEmpty();
+  }
+
+  private static class RecordingStages implements BlamePipeline.Stages<String> {
+    private final List<String> emitted = new ArrayList<>();
+    private final Set<String> emittingThreads = new HashSet<>();
+    private final Set<String> blamingThreads = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public String path(InputFile inputFile) {
+      return inputFile.relativePath();
+    }
+
+    @CheckForNull
+    @Override
+    public String blame(InputFile inputFile, String path) {
+      blamingThreads.add(Thread.currentThread().getName());
+      return path.matches("File\\d?0\\.java") ? null : path;
+    }
+
+    @Override
+    public void emit(InputFile inputFile, String result) {
+      emittingThreads.add(Thread.currentThread().getName());
+      emitted.add(result);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.UnaryOperator;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlobCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Rule
+  public GitSessionTester gitTester = new GitSessionTester();
+
+  @Test
+  public void evict_least_recently_used_contents() {
+    BlobCache underTest = new BlobCache(8 * (100 + 96), gitTester.metrics());
+    ObjectId first = id(1);
+    ObjectId second = id(2);
+    underTest.put(first, new byte[100]);
+    underTest.put(second, new byte[100]);
+    for (int i = 3; i <= 8; i++) {
+      underTest.put(id(i), new byte[100]);
+    }
+    assertThat(underTest.weight()).isEqualTo(8 * (100 + 96));
+
+    // first becomes the most recently used, second is the first evicted
+    assertThat(underTest.get(first)).isNotNull();
+    underTest.put(id(9), new byte[100]);
+
+    assertThat(underTest.get(first)).isNotNull();
+    assertThat(underTest.get(second)).isNull();
+    assertThat(underTest.weight()).isEqualTo(8 * (100 + 96));
+    assertThat(gitTester.metrics().count(GitMetrics.BLOB_CACHE_EVICTIONS)).isEqualTo(1);
+  }
+
+  @Test
+  public void do_not_cache_contents_larger_than_an_eighth_of_the_limit() {
+    BlobCache underTest = new BlobCache(8 * 1000, gitTester.metrics());
+
+    underTest.put(id(1), new byte[1000]);
+    underTest.put(id(2), new byte[1000 - 96]);
+
+    assertThat(underTest.get(id(1))).isNull();
+    assertThat(underTest.get(id(2))).isNotNull();
+  }
+
+  @Test
+  public void share_blobs_between_readers_of_session_repository() throws IOException, GitAPIException {
+    File worktree = temp.newFolder();
+    Git.init().setDirectory(worktree).call().close();
+    try (SessionRepository repo = gitTester.session().open(worktree.toPath())) {
+      ObjectId blob;
+      try (ObjectInserter inserter = repo.newObjectInserter()) {
+        blob = inserter.insert(Constants.OBJ_BLOB, "content".getBytes(UTF_8));
+        inserter.flush();
+      }
+      BlobCache underTest = new BlobCache(1024 * 1024, gitTester.metrics());
+      UnaryOperator<ObjectReader> decorator = underTest::wrap;
+      repo.addReaderDecorator(decorator);
+
+      try (ObjectReader reader = repo.newObjectReader(); ObjectReader otherReader = repo.newObjectReader()) {
+        assertThat(reader.open(blob, Constants.OBJ_BLOB).getCachedBytes()).isEqualTo("content".getBytes(UTF_8));
+        assertThat(otherReader.open(blob, Constants.OBJ_BLOB).getCachedBytes()).isEqualTo("content".getBytes(UTF_8));
+        assertThat(otherReader.newReader().open(blob, Constants.OBJ_BLOB).getType()).isEqualTo(Constants.OBJ_BLOB);
+      }
+      assertThat(gitTester.metrics().count(GitMetrics.BLOB_CACHE_MISSES)).isEqualTo(1);
+      assertThat(gitTester.metrics().count(GitMetrics.BLOB_CACHE_HITS)).isEqualTo(2);
+
+      repo.removeReaderDecorator(decorator);
+      try (ObjectReader reader = repo.newObjectReader()) {
+        reader.open(blob, Constants.OBJ_BLOB);
+      }
+      assertThat(gitTester.metrics().count(GitMetrics.BLOB_CACHE_HITS)).isEqualTo(2);
+    }
+  }
+
+  private static ObjectId id(int i) {
+    return ObjectId.fromString(String.format("%040x", i));
+  }
+}
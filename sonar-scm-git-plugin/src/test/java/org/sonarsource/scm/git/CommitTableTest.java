@@ -0,0 +1,60 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.sonarsource.scm.git.Utils.COMMIT_1;
+import static org.sonarsource.scm.git.Utils.COMMIT_2;
+
+public class CommitTableTest {
+
+  @Test
+  public void store_each_commit_once() {
+    CommitTable underTest = new CommitTable();
+    assertThat(underTest.indexOf(COMMIT_1, "david@gageot.net", 1000L)).isZero();
+    assertThat(underTest.indexOf(COMMIT_2, "david@gageot.net", 2000L)).isEqualTo(1);
+    assertThat(underTest.indexOf(COMMIT_1.copy(), "other", 3000L)).isZero();
+
+    assertThat(underTest.size()).isEqualTo(2);
+    assertThat(underTest.id(1)).isEqualTo(COMMIT_2);
+    assertThat(underTest.author(1)).isEqualTo("david@gageot.net");
+    assertThat(underTest.date(1)).isEqualTo(2000L);
+    assertThat(underTest.author(0)).isEqualTo("david@gageot.net");
+    assertThat(underTest.date(0)).isEqualTo(1000L);
+  }
+
+  @Test
+  public void grow_beyond_initial_capacity() {
+    CommitTable underTest = new CommitTable();
+    for (int i = 0; i < 1000; i++) {
+      assertThat(underTest.indexOf(id(i), "author" + (i % 3), i)).isEqualTo(i);
+    }
+    assertThat(underTest.id(999)).isEqualTo(id(999));
+    assertThat(underTest.author(999)).isEqualTo("author0");
+    assertThat(underTest.date(999)).isEqualTo(999L);
+  }
+
+  private static ObjectId id(int i) {
+    return ObjectId.fromString(String.format("%040x", i));
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.util.Date;
+import java.util.List;
+import org.junit.Test;
+import org.sonar.api.batch.scm.BlameLine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.sonarsource.scm.git.Utils.COMMIT_1;
+import static org.sonarsource.scm.git.Utils.COMMIT_2;
+
+public class FileBlameTest {
+
+  @Test
+  public void merge_consecutive_lines_of_the_same_commit() {
+    FileBlame underTest = new FileBlame.Builder(new CommitTable()).add(0).add(0, 3).add(1).add(1, 0).add(0, 2).repeatLastLine().build();
+
+    assertThat(underTest.lineCount()).isEqualTo(8);
+    assertThat(underTest.runCount()).isEqualTo(3);
+    assertThat(underTest.runEnd(0)).isEqualTo(4);
+    assertThat(underTest.runCommit(0)).isZero();
+    assertThat(underTest.runEnd(1)).isEqualTo(5);
+    assertThat(underTest.runCommit(1)).isEqualTo(1);
+    assertThat(underTest.runEnd(2)).isEqualTo(8);
+    assertThat(underTest.runCommit(2)).isZero();
+  }
+
+  @Test
+  public void empty_file() {
+    FileBlame underTest = new FileBlame.Builder(new CommitTable()).repeatLastLine().build();
+    assertThat(underTest.lineCount()).isZero();
+    assertThat(underTest.toBlameLines()).isEmpty();
+  }
+
+  @Test
+  public void expand_to_blame_lines() {
+    CommitTable commits = new CommitTable();
+    int first = commits.indexOf(COMMIT_1, "david@gageot.net", 1000L);
+    int second = commits.indexOf(COMMIT_2, "duarte.meneses@sonarsource.com", 2000L);
+
+    List<BlameLine> lines = new FileBlame.Builder(commits).add(second, 2).add(first).build().toBlameLines();
+
+    BlameLine secondLine = new BlameLine().revision(COMMIT_2.getName()).author("duarte.meneses@sonarsource.com").date(new Date(2000L));
+    BlameLine firstLine = new BlameLine().revision(COMMIT_1.getName()).author("david@gageot.net").date(new Date(1000L));
+    assertThat(lines).containsExactly(secondLine, secondLine, firstLine);
+  }
+}
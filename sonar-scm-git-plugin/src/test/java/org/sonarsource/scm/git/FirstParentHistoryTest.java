@@ -0,0 +1,101 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.function.UnaryOperator;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FirstParentHistoryTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Rule
+  public GitSessionTester gitTester = new GitSessionTester();
+
+  private File worktree;
+  private RevCommit root;
+  private RevCommit branchCommit;
+  private RevCommit merge;
+
+  @Before
+  public void prepare() throws IOException, GitAPIException {
+    worktree = temp.newFolder();
+    try (Git git = Git.init().setDirectory(worktree).call()) {
+      root = commit(git, "main line");
+      git.checkout().setCreateBranch(true).setName("feature").call();
+      branchCommit = commit(git, "feature line");
+      git.checkout().setName("master").call();
+      git.merge().include(branchCommit).setFastForward(MergeCommand.FastForwardMode.NO_FF).setMessage("merge").call();
+      merge = git.log().setMaxCount(1).call().iterator().next();
+    }
+  }
+
+  @Test
+  public void drop_other_parents_of_merge_commits() throws IOException {
+    try (SessionRepository repo = gitTester.session().open(worktree.toPath())) {
+      repo.addReaderDecorator(FirstParentHistory::wrap);
+      try (RevWalk walk = new RevWalk(repo)) {
+        RevCommit parsed = walk.parseCommit(merge);
+        assertThat(parsed.getParents()).containsExactly(root);
+        assertThat(parsed.getAuthorIdent()).isEqualTo(merge.getAuthorIdent());
+        assertThat(parsed.getFullMessage()).isEqualTo(merge.getFullMessage());
+        assertThat(walk.parseCommit(branchCommit).getParents()).containsExactly(root);
+        assertThat(walk.parseCommit(root).getParentCount()).isZero();
+      }
+    }
+  }
+
+  @Test
+  public void attribute_merged_lines_to_merge_commit() throws IOException {
+    try (SessionRepository repo = gitTester.session().open(worktree.toPath())) {
+      assertThat(new GitBlamer(repo, gitTester.metrics()).blame("file.txt").getSourceCommit(1)).isEqualTo(branchCommit);
+
+      UnaryOperator<ObjectReader> firstParents = FirstParentHistory::wrap;
+      repo.addReaderDecorator(firstParents);
+      BlameResult result = new GitBlamer(repo, gitTester.metrics()).blame("file.txt");
+      assertThat(result.getSourceCommit(0)).isEqualTo(root);
+      assertThat(result.getSourceCommit(1)).isEqualTo(merge);
+    }
+  }
+
+  private RevCommit commit(Git git, String line) throws IOException, GitAPIException {
+    Files.write(worktree.toPath().resolve("file.txt"), (line + "\n").getBytes(UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    git.add().addFilepattern("file.txt").call();
+    return git.commit().setMessage(line).call();
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.StreamSupport;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonarsource.scm.git.RepositoryGenerator.GeneratedRepository;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GitBlamerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final GitMetrics metrics = new GitMetrics(new MapSettings().asConfig());
+
+  @Test
+  public void blame_like_jgit_blame_command() throws IOException, GitAPIException {
+    RepositoryGenerator generator = new RepositoryGenerator()
+      .setFiles(40)
+      .setLines(5, 30)
+      .setCommits(30)
+      .setChangedFilesPerCommit(3)
+      .setBranches(3)
+      .setRenameRatio(0.2);
+    try (GeneratedRepository generated = generator.generate(temp.newFolder().toPath())) {
+      String modified = generated.paths().get(0);
+      generated.modifyLines(modified, 2);
+      Files.write(generated.worktree().resolve("uncommitted.txt"), "new\n".getBytes(UTF_8));
+      Repository repo = generated.git().getRepository();
+
+      GitBlamer underTest = new GitBlamer(repo, metrics);
+      for (String path : generated.paths()) {
+        assertSameBlame(underTest.blame(path), generated.git().blame().setTextComparator(RawTextComparator.WS_IGNORE_ALL).setFilePath(path).call());
+      }
+      assertSameBlame(underTest.blame("uncommitted.txt"), generated.git().blame().setFilePath("uncommitted.txt").call());
+
+      assertThat(metrics.count(GitMetrics.BLAME_COMMITS_SKIPPED)).isPositive();
+      // each commit is compared to its parents once for all files
+      long commits = StreamSupport.stream(generated.git().log().call().spliterator(), false).count();
+      assertThat(metrics.count(GitMetrics.CHANGED_PATHS_COMPUTED)).isLessThanOrEqualTo(commits);
+    }
+  }
+
+  @Test
+  public void attribute_files_added_by_a_single_commit_without_blaming_them() throws IOException, GitAPIException {
+    Path worktree = temp.newFolder().toPath();
+    try (Git git = Git.init().setDirectory(worktree.toFile()).call()) {
+      write(worktree, "added.txt", "a\nb\nc\n");
+      write(worktree, "modified.txt", "a\n");
+      write(worktree, "renamed.txt", "a\nb\n");
+      RevCommit first = commit(git);
+      write(worktree, "modified.txt", "a\nb\n");
+      commit(git);
+      Files.move(worktree.resolve("renamed.txt"), worktree.resolve("moved.txt"));
+      git.rm().addFilepattern("renamed.txt").call();
+      commit(git);
+      write(worktree, "changed.txt", "a\n");
+      commit(git);
+      write(worktree, "changed.txt", "b\n");
+
+      GitBlamer underTest = new GitBlamer(git.getRepository(), metrics);
+      GitBlamer.CommittedFile added = underTest.lastCommit("added.txt");
+      assertThat(added).isNotNull();
+      assertThat(underTest.isAddedAsAWhole("added.txt", added)).isTrue();
+      assertThat(added.commit()).isEqualTo(first);
+      assertThat(added.blobId()).isEqualTo(git.getRepository().resolve("HEAD:added.txt"));
+      BlameResult blame = git.blame().setFilePath("added.txt").call();
+      for (int i = 0; i < 3; i++) {
+        assertThat(blame.getSourceCommit(i)).isEqualTo(added.commit());
+      }
+      // lines were added by another commit
+      assertThat(underTest.isAddedAsAWhole("modified.txt", underTest.lastCommit("modified.txt"))).isFalse();
+      // lines come from another path
+      assertThat(underTest.isAddedAsAWhole("moved.txt", underTest.lastCommit("moved.txt"))).isFalse();
+      // lines are not committed
+      assertThat(underTest.lastCommit("changed.txt")).isNull();
+      assertThat(underTest.blobId("changed.txt")).isNull();
+      assertThat(underTest.blobId("added.txt")).isEqualTo(added.blobId());
+
+      GitBlamer atFirstCommit = new GitBlamer(git.getRepository(), metrics, first, DiffAlgorithm.SupportedAlgorithm.HISTOGRAM,
+        GitConfiguration.WHITESPACE_IGNORE_ALL);
+      assertThat(atFirstCommit.lastCommit("modified.txt").commit()).isEqualTo(first);
+      assertThat(atFirstCommit.blobId("renamed.txt")).isEqualTo(git.getRepository().resolve(first.name() + ":renamed.txt"));
+      assertThat(atFirstCommit.blobId("changed.txt")).isNull();
+    }
+  }
+
+  @Test
+  public void compare_lines_with_the_configured_whitespace_option() throws IOException, GitAPIException {
+    Path worktree = temp.newFolder().toPath();
+    try (Git git = Git.init().setDirectory(worktree.toFile()).call()) {
+      write(worktree, "file.txt", "a b\nc\n");
+      RevCommit first = commit(git);
+      write(worktree, "file.txt", "a  b\n c\n");
+      RevCommit second = commit(git);
+      Repository repo = git.getRepository();
+
+      BlameResult ignoreAll = new GitBlamer(repo, metrics, DiffAlgorithm.SupportedAlgorithm.MYERS, GitConfiguration.WHITESPACE_IGNORE_ALL).blame("file.txt");
+      assertThat(ignoreAll.getSourceCommit(0)).isEqualTo(first);
+      assertThat(ignoreAll.getSourceCommit(1)).isEqualTo(first);
+      BlameResult ignoreChange = new GitBlamer(repo, metrics, DiffAlgorithm.SupportedAlgorithm.HISTOGRAM, GitConfiguration.WHITESPACE_IGNORE_CHANGE)
+        .blame("file.txt");
+      assertThat(ignoreChange.getSourceCommit(0)).isEqualTo(first);
+      assertThat(ignoreChange.getSourceCommit(1)).isEqualTo(second);
+      BlameResult exact = new GitBlamer(repo, metrics, DiffAlgorithm.SupportedAlgorithm.HISTOGRAM, GitConfiguration.WHITESPACE_EXACT).blame("file.txt");
+      assertThat(exact.getSourceCommit(0)).isEqualTo(second);
+      assertThat(exact.getSourceCommit(1)).isEqualTo(second);
+    }
+  }
+
+  @Test
+  public void return_null_for_unknown_path() throws IOException, GitAPIException {
+    try (GeneratedRepository generated = new RepositoryGenerator().setFiles(5).setCommits(2).generate(temp.newFolder().toPath())) {
+      assertThat(new GitBlamer(generated.git().getRepository(), metrics).blame("missing.txt")).isNull();
+    }
+  }
+
+  private static void write(Path worktree, String path, String content) throws IOException {
+    Files.write(worktree.resolve(path), content.getBytes(UTF_8));
+  }
+
+  private static RevCommit commit(Git git) throws GitAPIException {
+    git.add().addFilepattern(".").call();
+    return git.commit().setMessage("commit").call();
+  }
+
+  private static void assertSameBlame(BlameResult actual, BlameResult expected) {
+    assertThat(actual).isNotNull();
+    assertThat(actual.getResultContents().size()).isEqualTo(expected.getResultContents().size());
+    for (int i = 0; i < expected.getResultContents().size(); i++) {
+      assertThat(actual.getSourceCommit(i)).as(expected.getResultPath() + ":" + (i + 1)).isEqualTo(expected.getSourceCommit(i));
+      assertThat(actual.getSourcePath(i)).isEqualTo(expected.getSourcePath(i));
+      assertThat(actual.getSourceLine(i)).isEqualTo(expected.getSourceLine(i));
+    }
+  }
+}
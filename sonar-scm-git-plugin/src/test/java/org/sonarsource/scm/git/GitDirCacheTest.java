@@ -0,0 +1,103 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GitDirCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final GitDirCache underTest = new GitDirCache();
+
+  @Test
+  public void find_work_tree_of_nested_directories() throws IOException, GitAPIException {
+    Path worktree = temp.newFolder().toPath();
+    Git.init().setDirectory(worktree.toFile()).call().close();
+    Path subDir = Files.createDirectories(worktree.resolve("a/b"));
+
+    GitDirCache.WorkTree workTree = underTest.find(subDir);
+
+    assertThat(workTree.root()).isEqualTo(worktree);
+    assertThat(workTree.gitDir()).isEqualTo(worktree.resolve(".git").toFile());
+    assertThat(underTest.find(worktree.resolve("a/Foo.java"))).isSameAs(workTree);
+  }
+
+  @Test
+  public void no_discovery_once_work_tree_is_known() throws IOException, GitAPIException {
+    Path worktree = temp.newFolder().toPath();
+    Git.init().setDirectory(worktree.toFile()).call().close();
+    GitDirCache.WorkTree workTree = underTest.find(worktree);
+
+    Files.move(worktree.resolve(".git"), worktree.resolve("moved"));
+
+    assertThat(underTest.find(worktree.resolve("a/b/c"))).isSameAs(workTree);
+  }
+
+  @Test
+  public void return_null_outside_of_work_tree() throws IOException {
+    assertThat(underTest.find(temp.newFolder().toPath())).isNull();
+  }
+
+  @Test
+  public void discover_work_tree_of_submodule() throws IOException, GitAPIException {
+    Path worktree = temp.newFolder().toPath();
+    Git.init().setDirectory(worktree.toFile()).call().close();
+    Files.write(worktree.resolve(".gitmodules"), Arrays.asList("[submodule \"lib\"]", "\tpath = libs/lib", "\turl = ../lib.git"),
+      StandardCharsets.UTF_8);
+    Path submodule = Files.createDirectories(worktree.resolve("libs/lib"));
+    Git.init().setDirectory(submodule.toFile()).call().close();
+
+    GitDirCache.WorkTree outer = underTest.find(worktree);
+
+    assertThat(underTest.find(worktree.resolve("libs"))).isSameAs(outer);
+    assertThat(underTest.find(submodule.resolve("src")).root()).isEqualTo(submodule);
+    assertThat(underTest.find(submodule).root()).isEqualTo(submodule);
+  }
+
+  @Test
+  public void discover_work_tree_of_nested_repository() throws IOException, GitAPIException {
+    Path worktree = temp.newFolder().toPath();
+    Git.init().setDirectory(worktree.toFile()).call().close();
+    Path nested = Files.createDirectories(worktree.resolve("tools/nested"));
+    Git.init().setDirectory(nested.toFile()).call().close();
+
+    GitDirCache.WorkTree outer = underTest.find(worktree);
+
+    assertThat(underTest.find(worktree.resolve("tools"))).isSameAs(outer);
+    GitDirCache.WorkTree inner = underTest.find(nested.resolve("src/Foo.java"));
+    assertThat(inner.root()).isEqualTo(nested);
+    assertThat(inner.gitDir()).isEqualTo(nested.resolve(".git").toFile());
+    assertThat(underTest.find(nested.resolve("src"))).isSameAs(inner);
+    assertThat(underTest.find(worktree.resolve("tools/Bar.java"))).isSameAs(outer);
+  }
+}
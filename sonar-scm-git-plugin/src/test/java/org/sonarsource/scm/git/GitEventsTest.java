@@ -0,0 +1,115 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.internal.MapSettings;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class GitEventsTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Before
+  public void requireFlightRecorder() {
+    assumeTrue(FlightRecorder.isAvailable());
+  }
+
+  @Test
+  public void record_ignore_index_event() throws IOException, GitAPIException {
+    Path worktree = temp.newFolder().toPath();
+    Git.init().setDirectory(worktree.toFile()).call().close();
+    Files.write(worktree.resolve(".gitignore"), "*.log\n".getBytes(UTF_8));
+    Files.write(worktree.resolve("Foo.java"), new byte[0]);
+    Files.write(worktree.resolve("build.log"), new byte[0]);
+
+    List<RecordedEvent> events = record("org.sonarsource.scm.git.IgnoreIndex", () -> {
+      try (Git git = Git.open(worktree.toFile())) {
+        new IncludedFilesRepository(git.getRepository(), worktree, new GitMetrics(new MapSettings().asConfig()));
+      }
+    });
+
+    assertThat(events).hasSize(1);
+    RecordedEvent event = events.get(0);
+    assertThat(event.getString("baseDir")).isEqualTo(worktree.toString());
+    // .git is never listed by the walk
+    assertThat(event.getInt("visited")).isEqualTo(3);
+    assertThat(event.getInt("ignored")).isEqualTo(1);
+    assertThat(event.getInt("included")).isEqualTo(2);
+    assertThat(event.getInt("directoriesIndexed")).isEqualTo(1);
+  }
+
+  @Test
+  public void record_blame_file_event() throws IOException {
+    List<RecordedEvent> events = record("org.sonarsource.scm.git.BlameFile",
+      () -> GitEvents.commitBlameFile(GitEvents.beginBlameFile(), "src/Foo.java", 12, 3));
+
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).getString("path")).isEqualTo("src/Foo.java");
+    assertThat(events.get(0).getInt("lines")).isEqualTo(12);
+    assertThat(events.get(0).getInt("commits")).isEqualTo(3);
+  }
+
+  @Test
+  public void ignore_missing_events() {
+    GitEvents.commitMergeBase(null, "refs/heads/master", "abc");
+    GitEvents.commitChangedLines(null, "Foo.java", 1);
+  }
+
+  private List<RecordedEvent> record(String eventName, Action action) throws IOException {
+    Path dump = temp.newFile("recording.jfr").toPath();
+    try (Recording recording = new Recording()) {
+      recording.enable(eventName).withoutThreshold();
+      recording.start();
+      action.run();
+      recording.stop();
+      recording.dump(dump);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+    return RecordingFile.readAllEvents(dump).stream()
+      .filter(e -> e.getEventType().getName().equals(eventName))
+      .collect(Collectors.toList());
+  }
+
+  @FunctionalInterface
+  private interface Action {
+    void run() throws Exception;
+  }
+}
@@ -25,15 +25,26 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.internal.MapSettings;
 import org.sonar.api.utils.log.LogTester;
 import org.sonar.api.utils.log.LoggerLevel;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
 import static org.sonarsource.scm.git.Utils.javaUnzip;
 
 public class GitIgnoreCommandTest {
@@ -44,15 +55,41 @@ public class GitIgnoreCommandTest {
   @Rule
   public TemporaryFolder temp = new TemporaryFolder();
 
+  @Rule
+  public GitSessionTester gitTester = new GitSessionTester();
+
   @Test
   public void ignored_files_should_match_files_ignored_by_git() throws IOException {
     Path projectDir = temp.newFolder().toPath();
     javaUnzip(new File("test-repos/ignore-git.zip"), projectDir.toFile());
 
     Path baseDir = projectDir.resolve("ignore-git");
-    GitIgnoreCommand underTest = new GitIgnoreCommand();
+    GitIgnoreCommand underTest = newGitIgnoreCommand();
+    underTest.init(baseDir);
+
+    assertThat(underTest.isIgnored(baseDir.resolve(".gitignore"))).isFalse();
+    assertThat(underTest.isIgnored(baseDir.resolve("pom.xml"))).isFalse();
+    assertThat(underTest.isIgnored(baseDir.resolve("src/main/java/org/dummy/.gitignore"))).isFalse();
+    assertThat(underTest.isIgnored(baseDir.resolve("src/main/java/org/dummy/AnotherDummy.java"))).isFalse();
+    assertThat(underTest.isIgnored(baseDir.resolve("src/test/java/org/dummy/AnotherDummyTest.java"))).isFalse();
+
+    assertThat(underTest.isIgnored(baseDir.resolve("src/main/java/org/dummy/Dummy.java"))).isTrue();
+    assertThat(underTest.isIgnored(baseDir.resolve("target"))).isTrue();
+  }
+
+  @Test
+  public void native_git_should_match_files_ignored_by_git() throws IOException {
+    Path projectDir = temp.newFolder().toPath();
+    javaUnzip(new File("test-repos/ignore-git.zip"), projectDir.toFile());
+
+    Path baseDir = projectDir.resolve("ignore-git");
+    assumeTrue(new NativeGitLsFiles("git").includedFiles(baseDir) != null);
+
+    logTester.setLevel(LoggerLevel.DEBUG);
+    GitIgnoreCommand underTest = newGitIgnoreCommand(new MapSettings().setProperty(GitConfiguration.NATIVE_IGNORE_PROP_KEY, true));
     underTest.init(baseDir);
 
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("5 non excluded files in this Git repository");
     assertThat(underTest.isIgnored(baseDir.resolve(".gitignore"))).isFalse();
     assertThat(underTest.isIgnored(baseDir.resolve("pom.xml"))).isFalse();
     assertThat(underTest.isIgnored(baseDir.resolve("src/main/java/org/dummy/.gitignore"))).isFalse();
@@ -61,6 +98,24 @@ public class GitIgnoreCommandTest {
 
     assertThat(underTest.isIgnored(baseDir.resolve("src/main/java/org/dummy/Dummy.java"))).isTrue();
     assertThat(underTest.isIgnored(baseDir.resolve("target"))).isTrue();
+    assertThat(underTest.isIgnored(baseDir.resolve("target/classes/org/dummy/Dummy.class"))).isTrue();
+  }
+
+  @Test
+  public void fallback_to_jgit_when_git_executable_is_not_available() throws IOException {
+    Path projectDir = temp.newFolder().toPath();
+    javaUnzip(new File("test-repos/ignore-git.zip"), projectDir.toFile());
+
+    Path baseDir = projectDir.resolve("ignore-git");
+    logTester.setLevel(LoggerLevel.DEBUG);
+    GitIgnoreCommand underTest = newGitIgnoreCommand(new MapSettings()
+      .setProperty(GitConfiguration.NATIVE_IGNORE_PROP_KEY, true)
+      .setProperty(GitConfiguration.EXECUTABLE_PROP_KEY, projectDir.resolve("missing-git").toString()));
+    underTest.init(baseDir);
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).anyMatch(s -> s.startsWith("Git executable '" + projectDir.resolve("missing-git") + "' is not available"));
+    assertThat(underTest.isIgnored(baseDir.resolve("pom.xml"))).isFalse();
+    assertThat(underTest.isIgnored(baseDir.resolve("src/main/java/org/dummy/Dummy.java"))).isTrue();
   }
 
   @Test
@@ -75,7 +130,7 @@ public class GitIgnoreCommandTest {
 
     logTester.setLevel(LoggerLevel.DEBUG);
 
-    GitIgnoreCommand underTest = new GitIgnoreCommand();
+    GitIgnoreCommand underTest = newGitIgnoreCommand();
     underTest.init(projectDir);
 
     assertThat(underTest
@@ -101,7 +156,7 @@ public class GitIgnoreCommandTest {
 
     logTester.setLevel(LoggerLevel.DEBUG);
 
-    GitIgnoreCommand underTest = new GitIgnoreCommand();
+    GitIgnoreCommand underTest = newGitIgnoreCommand();
     // Define project baseDir as folder_0_0 so that folder_0_1 is excluded
     Path projectBasedir = repoRoot.resolve("folder_0_0");
     underTest.init(projectBasedir);
@@ -117,6 +172,252 @@ public class GitIgnoreCommandTest {
     assertThat(logTester.logs(LoggerLevel.DEBUG)).contains(expectedIncludedFiles + " non excluded files in this Git repository");
   }
 
+  @Test
+  public void reuse_index_of_previous_analysis_when_nothing_changed() throws Exception {
+    Path projectDir = temp.newFolder().toPath();
+    Git.init().setDirectory(projectDir.toFile()).call();
+
+    Files.write(projectDir.resolve(".gitignore"), Arrays.asList("**/*.java"), StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
+    createDeepFolderStructure(projectDir, 2, 0, 3);
+    setModificationTimesInThePast(projectDir);
+
+    logTester.setLevel(LoggerLevel.DEBUG);
+
+    GitIgnoreCommand underTest = newGitIgnoreCommand();
+    underTest.init(projectDir);
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("15 of 15 directories re-indexed");
+
+    logTester.clear();
+    underTest = newGitIgnoreCommand();
+    underTest.init(projectDir);
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("Ignored files are unchanged since the previous analysis", "9 non excluded files in this Git repository");
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/folder_1_1/folder_2_0/Foo.php"))).isFalse();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/folder_1_1/folder_2_0/Foo.java"))).isTrue();
+  }
+
+  @Test
+  public void reindex_only_changed_directories() throws Exception {
+    Path projectDir = temp.newFolder().toPath();
+    Git.init().setDirectory(projectDir.toFile()).call();
+
+    Files.write(projectDir.resolve(".gitignore"), Arrays.asList("**/*.java"), StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
+    createDeepFolderStructure(projectDir, 2, 0, 3);
+    setModificationTimesInThePast(projectDir);
+    newGitIgnoreCommand().init(projectDir);
+
+    Files.createFile(projectDir.resolve("folder_0_1/folder_1_0/Bar.php"));
+    Files.createFile(projectDir.resolve("folder_0_1/folder_1_0/Bar.java"));
+    Files.delete(projectDir.resolve("folder_0_0/folder_1_0/folder_2_1/Foo.php"));
+
+    logTester.setLevel(LoggerLevel.DEBUG);
+    GitIgnoreCommand underTest = newGitIgnoreCommand();
+    underTest.init(projectDir);
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("2 of 15 directories re-indexed", "9 non excluded files in this Git repository");
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_1/folder_1_0/Bar.php"))).isFalse();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_1/folder_1_0/Bar.java"))).isTrue();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/folder_1_0/folder_2_1/Foo.php"))).isTrue();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/folder_1_0/folder_2_0/Foo.php"))).isFalse();
+  }
+
+  @Test
+  public void reindex_subtree_when_ignore_rules_changed() throws Exception {
+    Path projectDir = temp.newFolder().toPath();
+    Git.init().setDirectory(projectDir.toFile()).call();
+
+    Files.write(projectDir.resolve(".gitignore"), Arrays.asList("**/*.java"), StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
+    createDeepFolderStructure(projectDir, 2, 0, 3);
+    setModificationTimesInThePast(projectDir);
+    newGitIgnoreCommand().init(projectDir);
+
+    Files.write(projectDir.resolve("folder_0_1/.gitignore"), Arrays.asList("*.php"), StandardCharsets.UTF_8);
+
+    logTester.setLevel(LoggerLevel.DEBUG);
+    GitIgnoreCommand underTest = newGitIgnoreCommand();
+    underTest.init(projectDir);
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("7 of 15 directories re-indexed", "6 non excluded files in this Git repository");
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_1/folder_1_0/folder_2_0/Foo.php"))).isTrue();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_1/.gitignore"))).isFalse();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/folder_1_0/folder_2_0/Foo.php"))).isFalse();
+  }
+
+  @Test
+  public void only_index_directories_of_sparse_checkout() throws Exception {
+    Path projectDir = temp.newFolder().toPath();
+    Git git = Git.init().setDirectory(projectDir.toFile()).call();
+    StoredConfig config = git.getRepository().getConfig();
+    config.setBoolean("core", null, "sparseCheckout", true);
+    config.setBoolean("core", null, "sparseCheckoutCone", true);
+    config.save();
+    Files.createDirectories(projectDir.resolve(".git/info"));
+    Files.write(projectDir.resolve(".git/info/sparse-checkout"), Arrays.asList("/*", "!/*/", "/folder_0_0/"), StandardCharsets.UTF_8);
+
+    Files.write(projectDir.resolve(".gitignore"), Arrays.asList("*.log"), StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
+    createDeepFolderStructure(projectDir, 2, 0, 2);
+
+    logTester.setLevel(LoggerLevel.DEBUG);
+    GitIgnoreCommand underTest = newGitIgnoreCommand();
+    underTest.init(projectDir);
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("4 of 4 directories re-indexed", "5 non excluded files in this Git repository");
+    assertThat(underTest.isIgnored(projectDir.resolve(".gitignore"))).isFalse();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/folder_1_1/Foo.java"))).isFalse();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_1/folder_1_1/Foo.java"))).isTrue();
+  }
+
+  @Test
+  public void only_index_directories_of_sparse_checkout_set_by_native_git() throws Exception {
+    Path projectDir = temp.newFolder().toPath();
+    Git git = Git.init().setDirectory(projectDir.toFile()).call();
+    createDeepFolderStructure(projectDir, 2, 0, 2);
+    git.add().addFilepattern(".").call();
+    git.commit().setMessage("Initial commit").call();
+    // since Git 2.25, the settings are written to config.worktree
+    assumeTrue(runNativeGit(projectDir, "sparse-checkout", "set", "--cone", "folder_0_0"));
+    Files.createDirectories(projectDir.resolve("folder_0_1"));
+    Files.createFile(projectDir.resolve("folder_0_1/Foo.java"));
+
+    GitIgnoreCommand underTest = newGitIgnoreCommand();
+    underTest.init(projectDir);
+
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/folder_1_1/Foo.java"))).isFalse();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_1/Foo.java"))).isTrue();
+  }
+
+  @Test
+  public void use_untracked_cache_of_git_index() throws Exception {
+    Path projectDir = temp.newFolder().toPath();
+    Git git = Git.init().setDirectory(projectDir.toFile()).call();
+
+    Files.write(projectDir.resolve(".gitignore"), Arrays.asList("*.log"), StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
+    createDeepFolderStructure(projectDir, 2, 0, 2);
+    git.add().addFilepattern(".").call();
+    Files.createFile(projectDir.resolve("folder_0_0/folder_1_0/Bar.php"));
+    Files.createFile(projectDir.resolve("folder_0_0/folder_1_0/Bar.log"));
+    setModificationTimesInThePast(projectDir);
+    assumeTrue(runNativeGit(projectDir, "-c", "core.untrackedCache=true", "status", "--porcelain"));
+
+    logTester.setLevel(LoggerLevel.DEBUG);
+    GitIgnoreCommand underTest = newGitIgnoreCommand();
+    underTest.init(projectDir);
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("0 of 7 directories re-indexed", "10 non excluded files in this Git repository");
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/folder_1_0/Bar.php"))).isFalse();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/folder_1_0/Foo.java"))).isFalse();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/folder_1_0/Bar.log"))).isTrue();
+
+    // a directory changed since Git updated the cache is listed again
+    Files.delete(projectDir.resolve(".git/sonar-scm-git/ignore-index"));
+    Files.createFile(projectDir.resolve("folder_0_1/folder_1_1/Baz.php"));
+    logTester.clear();
+    underTest = newGitIgnoreCommand();
+    underTest.init(projectDir);
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("1 of 7 directories re-indexed", "11 non excluded files in this Git repository");
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_1/folder_1_1/Baz.php"))).isFalse();
+  }
+
+  @Test
+  public void tracked_files_matching_ignore_rules_are_ignored_with_and_without_untracked_cache() throws Exception {
+    Path projectDir = temp.newFolder().toPath();
+    Git git = Git.init().setDirectory(projectDir.toFile()).call();
+
+    createDeepFolderStructure(projectDir, 2, 0, 2);
+    Files.createFile(projectDir.resolve("folder_0_0/Tracked.log"));
+    Files.createDirectory(projectDir.resolve("build"));
+    Files.createFile(projectDir.resolve("build/Generated.java"));
+    git.add().addFilepattern(".").call();
+    Files.write(projectDir.resolve(".gitignore"), Arrays.asList("*.log", "build/"), StandardCharsets.UTF_8);
+    git.add().addFilepattern(".gitignore").call();
+    setModificationTimesInThePast(projectDir);
+
+    // walk of the work tree
+    GitIgnoreCommand underTest = newGitIgnoreCommand();
+    underTest.init(projectDir);
+
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/Tracked.log"))).isTrue();
+    assertThat(underTest.isIgnored(projectDir.resolve("build/Generated.java"))).isTrue();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/folder_1_0/Foo.java"))).isFalse();
+
+    // untracked cache of the Git index
+    Files.delete(projectDir.resolve(".git/sonar-scm-git/ignore-index"));
+    assumeTrue(runNativeGit(projectDir, "-c", "core.untrackedCache=true", "status", "--porcelain"));
+    logTester.setLevel(LoggerLevel.DEBUG);
+    underTest = newGitIgnoreCommand();
+    underTest.init(projectDir);
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("0 of 7 directories re-indexed");
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/Tracked.log"))).isTrue();
+    assertThat(underTest.isIgnored(projectDir.resolve("build/Generated.java"))).isTrue();
+    assertThat(underTest.isIgnored(projectDir.resolve("folder_0_0/folder_1_0/Foo.java"))).isFalse();
+  }
+
+  @Test
+  public void gitignore_takes_precedence_over_info_exclude_with_and_without_untracked_cache() throws Exception {
+    Path projectDir = temp.newFolder().toPath();
+    Git git = Git.init().setDirectory(projectDir.toFile()).call();
+
+    createDeepFolderStructure(projectDir, 1, 0, 1);
+    Files.createFile(projectDir.resolve("keep.log"));
+    Files.createFile(projectDir.resolve("drop.log"));
+    git.add().addFilepattern(".").call();
+    Files.write(projectDir.resolve(".gitignore"), Collections.singletonList("!keep.log"), StandardCharsets.UTF_8);
+    Files.createDirectories(projectDir.resolve(".git/info"));
+    Files.write(projectDir.resolve(".git/info/exclude"), Collections.singletonList("*.log"), StandardCharsets.UTF_8);
+    git.add().addFilepattern(".gitignore").call();
+    setModificationTimesInThePast(projectDir);
+
+    // walk of the work tree
+    GitIgnoreCommand underTest = newGitIgnoreCommand();
+    underTest.init(projectDir);
+
+    assertThat(underTest.isIgnored(projectDir.resolve("keep.log"))).isFalse();
+    assertThat(underTest.isIgnored(projectDir.resolve("drop.log"))).isTrue();
+
+    // untracked cache of the Git index
+    Files.delete(projectDir.resolve(".git/sonar-scm-git/ignore-index"));
+    assumeTrue(runNativeGit(projectDir, "-c", "core.untrackedCache=true", "status", "--porcelain"));
+    logTester.setLevel(LoggerLevel.DEBUG);
+    underTest = newGitIgnoreCommand();
+    underTest.init(projectDir);
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).anyMatch(log -> log.endsWith("directories re-indexed"));
+    assertThat(underTest.isIgnored(projectDir.resolve("keep.log"))).isFalse();
+    assertThat(underTest.isIgnored(projectDir.resolve("drop.log"))).isTrue();
+  }
+
+  private static boolean runNativeGit(Path dir, String... args) throws InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add("git");
+    command.addAll(Arrays.asList(args));
+    try {
+      Process process = new ProcessBuilder(command).directory(dir.toFile()).redirectErrorStream(true).start();
+      IOUtils.copy(process.getInputStream(), new NullOutputStream());
+      return process.waitFor() == 0;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private GitIgnoreCommand newGitIgnoreCommand() {
+    return newGitIgnoreCommand(new MapSettings());
+  }
+
+  private GitIgnoreCommand newGitIgnoreCommand(MapSettings settings) {
+    return new GitIgnoreCommand(new GitConfiguration(settings.asConfig()), gitTester.session(), gitTester.metrics());
+  }
+
+  private static void setModificationTimesInThePast(Path dir) throws IOException {
+    FileTime past = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        Files.setLastModifiedTime(path, past);
+      }
+    }
+  }
+
   private void createDeepFolderStructure(Path current, int childCount, int currentDepth, int maxDepth) throws IOException {
     if (currentDepth >= maxDepth) {
       Path javaFile = current.resolve("Foo.java");
@@ -0,0 +1,94 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.internal.MapSettings;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GitMetricsTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final MapSettings settings = new MapSettings();
+  private final GitMetrics underTest = new GitMetrics(settings.asConfig());
+
+  @Test
+  public void write_counters_and_timers_as_json() {
+    underTest.increment(GitMetrics.BLAME_FILES);
+    underTest.add(GitMetrics.BLAME_LINES, 10);
+    underTest.add(GitMetrics.BLAME_LINES, 5);
+    underTest.startTimer(GitMetrics.BLAME_TIME).stop();
+    underTest.startTimer(GitMetrics.BLAME_TIME).stop();
+
+    StringWriter writer = new StringWriter();
+    underTest.writeJson(writer);
+
+    assertThat(underTest.count(GitMetrics.BLAME_LINES)).isEqualTo(15);
+    assertThat(underTest.count(GitMetrics.BLAME_ERRORS)).isZero();
+    assertThat(writer.toString())
+      .startsWith("{\"counters\":{\"blame.files\":1,\"blame.lines\":15},\"timers\":{\"blame\":{\"count\":2,\"totalMs\":");
+  }
+
+  @Test
+  public void write_report_to_work_directory_of_analysis() throws IOException {
+    Path workDir = temp.newFolder().toPath();
+    underTest.reportTo(workDir.toFile());
+    underTest.reportTo(null);
+    underTest.increment(GitMetrics.REPOSITORY_OPENS);
+
+    underTest.stop();
+
+    assertThat(new String(Files.readAllBytes(workDir.resolve(GitMetrics.REPORT_FILE)), UTF_8)).contains("\"repository.opens\":1");
+  }
+
+  @Test
+  public void resolve_work_directory_from_scanner_properties() throws IOException {
+    Path baseDir = temp.newFolder().toPath();
+    settings.setProperty("sonar.projectBaseDir", baseDir.toString());
+    underTest.increment(GitMetrics.REPOSITORY_OPENS);
+
+    underTest.stop();
+    assertThat(baseDir.resolve(".scannerwork").resolve(GitMetrics.REPORT_FILE)).exists();
+
+    settings.setProperty("sonar.working.directory", "build/sonar");
+    underTest.stop();
+    assertThat(baseDir.resolve("build/sonar").resolve(GitMetrics.REPORT_FILE)).exists();
+  }
+
+  @Test
+  public void write_nothing_without_metrics() throws IOException {
+    Path workDir = temp.newFolder().toPath();
+    underTest.reportTo(workDir.toFile());
+
+    underTest.stop();
+
+    assertThat(workDir.resolve(GitMetrics.REPORT_FILE)).doesNotExist();
+  }
+}
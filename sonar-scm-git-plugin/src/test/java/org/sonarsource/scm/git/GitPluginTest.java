@@ -35,7 +35,7 @@ public class GitPluginTest {
     SonarRuntime runtime = SonarRuntimeImpl.forSonarQube(Version.create(5, 6), SonarQubeSide.SCANNER);
     Plugin.Context context = new Plugin.Context(runtime);
     new GitPlugin().define(context);
-    assertThat(context.getExtensions()).hasSize(3);
+    assertThat(context.getExtensions()).hasSize(25);
   }
 
   @Test
@@ -43,6 +43,14 @@ public class GitPluginTest {
     SonarRuntime runtime = SonarRuntimeImpl.forSonarQube(Version.create(7, 7), SonarQubeSide.SCANNER);
     Plugin.Context context = new Plugin.Context(runtime);
     new GitPlugin().define(context);
-    assertThat(context.getExtensions()).hasSize(4);
+    assertThat(context.getExtensions()).hasSize(26);
+  }
+
+  @Test
+  public void git_executable_can_not_be_set_on_projects() {
+    assertThat(GitConfiguration.getProperties())
+      .filteredOn(property -> property.key().equals(GitConfiguration.EXECUTABLE_PROP_KEY))
+      .allMatch(property -> property.qualifiers().isEmpty() && !property.global())
+      .hasSize(1);
   }
 }
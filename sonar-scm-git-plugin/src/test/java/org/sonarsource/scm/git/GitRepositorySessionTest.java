@@ -0,0 +1,90 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.utils.MessageException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GitRepositorySessionTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Rule
+  public GitSessionTester gitTester = new GitSessionTester();
+
+  private final GitRepositorySession underTest = gitTester.session();
+
+  @Test
+  public void share_repository_between_directories_of_work_tree() throws IOException, GitAPIException {
+    Path worktree = temp.newFolder().toPath();
+    Git.init().setDirectory(worktree.toFile()).call().close();
+    Path subDir = Files.createDirectories(worktree.resolve("module"));
+
+    try (Repository first = underTest.open(worktree); Repository second = underTest.open(subDir)) {
+      assertThat(second).isSameAs(first);
+      assertThat(first.getWorkTree()).isEqualTo(worktree.toFile());
+    }
+    // still usable after being closed by callers
+    try (Repository repo = underTest.open(worktree)) {
+      assertThat(repo.exactRef("HEAD")).isNotNull();
+    }
+  }
+
+  @Test
+  public void reopen_repository_after_stop() throws IOException, GitAPIException {
+    Path worktree = temp.newFolder().toPath();
+    Git.init().setDirectory(worktree.toFile()).call().close();
+
+    Repository first;
+    try (Repository repo = underTest.open(worktree)) {
+      first = repo;
+    }
+    underTest.stop();
+
+    try (Repository repo = underTest.open(worktree)) {
+      assertThat(repo).isNotSameAs(first);
+    }
+  }
+
+  @Test
+  public void fail_when_not_inside_work_tree() throws IOException {
+    Path dir = temp.newFolder().toPath();
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("Not inside a Git work tree: " + dir);
+
+    underTest.open(dir);
+  }
+}
@@ -21,6 +21,7 @@ package org.sonarsource.scm.git;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -39,6 +40,7 @@ import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.junit.Before;
@@ -99,6 +101,9 @@ public class GitScmProviderBefore77Test {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public GitSessionTester gitTester = new GitSessionTester();
+
   private static final Random random = new Random();
 
   private Path worktree;
@@ -123,8 +128,8 @@ public class GitScmProviderBefore77Test {
 
   @Test
   public void returnImplem() {
-    JGitBlameCommand jblameCommand = new JGitBlameCommand(new PathResolver(), analysisWarnings);
-    GitScmProviderBefore77 gitScmProvider = new GitScmProviderBefore77(jblameCommand, analysisWarnings);
+    JGitBlameCommand jblameCommand = new JGitBlameCommand(new PathResolver(), analysisWarnings, gitTester.configuration(), gitTester.session(), gitTester.metrics());
+    GitScmProviderBefore77 gitScmProvider = new GitScmProviderBefore77(jblameCommand, analysisWarnings, gitTester.session(), gitTester.metrics());
 
     assertThat(gitScmProvider.blameCommand()).isEqualTo(jblameCommand);
   }
@@ -291,6 +296,28 @@ public class GitScmProviderBefore77Test {
     verifyZeroInteractions(analysisWarnings);
   }
 
+  @Test
+  public void branchChangedFiles_should_only_consider_files_of_sparse_checkout() throws IOException, GitAPIException {
+    git.branchCreate().setName("b1").call();
+    git.checkout().setName("b1").call();
+    createAndCommitFile("module-a/file-b1.xoo");
+    createAndCommitFile("module-b/file-b1.xoo");
+    createAndCommitFile("file-b1.xoo");
+
+    StoredConfig config = git.getRepository().getConfig();
+    config.setBoolean("core", null, "sparseCheckout", true);
+    config.setBoolean("core", null, "sparseCheckoutCone", true);
+    config.save();
+    Path patternsFile = worktree.resolve(".git/info/sparse-checkout");
+    Files.createDirectories(patternsFile.getParent());
+    Files.write(patternsFile, Arrays.asList("/*", "!/*/", "/module-a/"), StandardCharsets.UTF_8);
+
+    assertThat(newScmProvider().branchChangedFiles("master", worktree))
+      .containsExactlyInAnyOrder(
+        worktree.resolve("module-a/file-b1.xoo"),
+        worktree.resolve("file-b1.xoo"));
+  }
+
   @Test
   public void branchChangedFiles_should_return_null_when_branch_nonexistent() {
     assertThat(newScmProvider().branchChangedFiles("nonexistent", worktree)).isNull();
@@ -312,7 +339,7 @@ public class GitScmProviderBefore77Test {
 
   @Test
   public void branchChangedFiles_should_return_null_on_io_errors_of_repo_builder() {
-    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings) {
+    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings, gitTester.session(), gitTester.metrics()) {
       @Override
       Repository buildRepo(Path basedir) throws IOException {
         throw new IOException();
@@ -329,7 +356,7 @@ public class GitScmProviderBefore77Test {
     when(repository.getRefDatabase()).thenReturn(refDatabase);
     when(refDatabase.getRef("branch")).thenReturn(null);
 
-    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings) {
+    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings, gitTester.session(), gitTester.metrics()) {
       @Override
       Repository buildRepo(Path basedir) throws IOException {
         return repository;
@@ -347,7 +374,7 @@ public class GitScmProviderBefore77Test {
     RevWalk walk = mock(RevWalk.class);
     when(walk.parseCommit(any())).thenThrow(new IOException());
 
-    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings) {
+    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings, gitTester.session(), gitTester.metrics()) {
       @Override
       RevWalk newRevWalk(Repository repo) {
         return walk;
@@ -356,6 +383,22 @@ public class GitScmProviderBefore77Test {
     assertThat(provider.branchChangedFiles("branch", worktree)).isNull();
   }
 
+  @Test
+  public void branchChangedFiles_should_measure_failed_merge_base() throws IOException {
+    RevWalk walk = mock(RevWalk.class);
+    when(walk.parseCommit(any())).thenThrow(new IOException());
+
+    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings, gitTester.session(), gitTester.metrics()) {
+      @Override
+      RevWalk newRevWalk(Repository repo) {
+        return walk;
+      }
+    };
+    assertThat(provider.branchChangedFiles("master", worktree)).isNull();
+    assertThat(gitTester.metrics().count(GitMetrics.MERGE_BASE_WALKS)).isEqualTo(1);
+    assertThat(gitTester.metrics().timerCount(GitMetrics.MERGE_BASE_TIME)).isEqualTo(1);
+  }
+
   @Test
   public void branchChangedFiles_should_return_null_on_git_api_errors() throws GitAPIException {
     DiffCommand diffCommand = mock(DiffCommand.class);
@@ -367,7 +410,7 @@ public class GitScmProviderBefore77Test {
     Git git = mock(Git.class);
     when(git.diff()).thenReturn(diffCommand);
 
-    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings) {
+    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings, gitTester.session(), gitTester.metrics()) {
       @Override
       Git newGit(Repository repo) {
         return git;
@@ -398,7 +441,7 @@ public class GitScmProviderBefore77Test {
     Git git = mock(Git.class);
     when(git.diff()).thenReturn(diffCommand);
 
-    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings) {
+    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings, gitTester.session(), gitTester.metrics()) {
       @Override
       Git newGit(Repository repo) {
         return git;
@@ -412,7 +455,7 @@ public class GitScmProviderBefore77Test {
 
   @Test
   public void branchChangedLines_returns_null_on_io_errors_of_repo_builder() {
-    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings) {
+    GitScmProviderBefore77 provider = new GitScmProviderBefore77(mockCommand(), analysisWarnings, gitTester.session(), gitTester.metrics()) {
       @Override
       Repository buildRepo(Path basedir) throws IOException {
         throw new IOException();
@@ -427,7 +470,7 @@ public class GitScmProviderBefore77Test {
   }
 
   private GitScmProviderBefore77 newGitScmProvider() {
-    return new GitScmProviderBefore77(mock(JGitBlameCommand.class), analysisWarnings);
+    return new GitScmProviderBefore77(mock(JGitBlameCommand.class), analysisWarnings, gitTester.session(), gitTester.metrics());
   }
 
   @Test
@@ -520,6 +563,6 @@ public class GitScmProviderBefore77Test {
   }
 
   private GitScmProviderBefore77 newScmProvider() {
-    return new GitScmProviderBefore77(mockCommand(), analysisWarnings);
+    return new GitScmProviderBefore77(mockCommand(), analysisWarnings, gitTester.session(), gitTester.metrics());
   }
 }
@@ -0,0 +1,55 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import org.junit.rules.ExternalResource;
+import org.sonar.api.config.internal.MapSettings;
+
+/**
+ * Settings, metrics and repository session shared by the components of a test. The session is stopped after each
+ * test, releasing the repositories it opened.
+ */
+public class GitSessionTester extends ExternalResource {
+
+  private final MapSettings settings = new MapSettings();
+  private final GitMetrics metrics = new GitMetrics(settings.asConfig());
+  private final GitRepositorySession session = new GitRepositorySession(settings.asConfig(), metrics);
+
+  public MapSettings settings() {
+    return settings;
+  }
+
+  public GitConfiguration configuration() {
+    return new GitConfiguration(settings.asConfig());
+  }
+
+  public GitMetrics metrics() {
+    return metrics;
+  }
+
+  public GitRepositorySession session() {
+    return session;
+  }
+
+  @Override
+  protected void after() {
+    session.stop();
+  }
+}
@@ -31,6 +31,8 @@ public class GitThreadFactoryTest {
     ForkJoinPool pool = new ForkJoinPool();
     assertThat(factory.newThread(pool).getName()).isEqualTo("git-scm-0");
     assertThat(factory.newThread(pool).getName()).isEqualTo("git-scm-1");
+    assertThat(factory.newThread(() -> {
+    }).getName()).isEqualTo("git-scm-2");
 
   }
 }
@@ -21,6 +21,7 @@ package org.sonarsource.scm.git;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Collections;
@@ -32,6 +33,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.internal.DefaultFileSystem;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
@@ -45,10 +47,15 @@ import org.sonar.api.utils.DateUtils;
 import org.sonar.api.utils.MessageException;
 import org.sonar.api.utils.System2;
 import org.sonar.api.utils.log.LogTester;
+import org.sonar.api.utils.log.LoggerLevel;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -69,6 +76,9 @@ public class JGitBlameCommandTest {
   @Rule
   public LogTester logTester = new LogTester();
 
+  @Rule
+  public GitSessionTester gitTester = new GitSessionTester();
+
   private final BlameInput input = mock(BlameInput.class);
 
   @Test
@@ -79,7 +89,7 @@ public class JGitBlameCommandTest {
     JGitBlameCommand jGitBlameCommand = newJGitBlameCommand();
 
     File baseDir = new File(projectDir, "dummy-git");
-    DefaultFileSystem fs = new DefaultFileSystem(baseDir);
+    DefaultFileSystem fs = newFileSystem(baseDir);
     when(input.fileSystem()).thenReturn(fs);
     DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA)
       .setModuleBaseDir(baseDir.toPath())
@@ -111,6 +121,37 @@ public class JGitBlameCommandTest {
     }
 
     verify(blameResult).blameResult(inputFile, expectedBlame);
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_FILES)).isEqualTo(1);
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_LINES)).isEqualTo(29);
+    assertThat(gitTester.metrics().count(GitMetrics.BLOB_CACHE_MISSES)).isPositive();
+  }
+
+  @Test
+  public void report_other_files_when_output_fails_for_one_file() throws IOException {
+    File projectDir = temp.newFolder();
+    javaUnzip(new File("test-repos/dummy-git.zip"), projectDir);
+    File baseDir = new File(projectDir, "dummy-git");
+
+    DefaultFileSystem fs = newFileSystem(baseDir);
+    when(input.fileSystem()).thenReturn(fs);
+    DefaultInputFile failing = new TestInputFileBuilder("foo", DUMMY_JAVA)
+      .setModuleBaseDir(baseDir.toPath())
+      .setLines(29)
+      .build();
+    DefaultInputFile reported = new TestInputFileBuilder("foo", "src/main/java/org/dummy/AnotherDummy.java")
+      .setModuleBaseDir(baseDir.toPath())
+      .setLines(29)
+      .build();
+    when(input.filesToBlame()).thenReturn(Arrays.asList(failing, reported));
+
+    BlameOutput output = mock(BlameOutput.class);
+    doThrow(new IllegalStateException("rejected")).when(output).blameResult(eq(failing), anyList());
+    newJGitBlameCommand().blame(input, output);
+
+    verify(output).blameResult(eq(reported), anyList());
+    assertThat(logTester.logs(LoggerLevel.WARN)).contains("Unable to report blame of file " + DUMMY_JAVA);
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_FILES)).isEqualTo(1);
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_ERRORS)).isEqualTo(1);
   }
 
   @Test
@@ -125,7 +166,7 @@ public class JGitBlameCommandTest {
     // Delete .git
     FileUtils.forceDelete(new File(baseDir, ".git"));
 
-    DefaultFileSystem fs = new DefaultFileSystem(baseDir);
+    DefaultFileSystem fs = newFileSystem(baseDir);
     when(input.fileSystem()).thenReturn(fs);
     DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA).build();
     fs.add(inputFile);
@@ -139,6 +180,38 @@ public class JGitBlameCommandTest {
     jGitBlameCommand.blame(input, blameResult);
   }
 
+  @Test
+  public void fail_on_non_positive_blame_horizon() throws IOException {
+    File projectDir = temp.newFolder();
+    javaUnzip(new File("test-repos/dummy-git.zip"), projectDir);
+    File baseDir = new File(projectDir, "dummy-git");
+    gitTester.settings().setProperty(GitConfiguration.BLAME_MAX_DEPTH_PROP_KEY, 0);
+
+    when(input.fileSystem()).thenReturn(newFileSystem(baseDir));
+    when(input.filesToBlame()).thenReturn(Collections.emptyList());
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("Property sonar.git.blameMaxDepth must be positive: 0");
+
+    newJGitBlameCommand().blame(input, mock(BlameOutput.class));
+  }
+
+  @Test
+  public void fail_on_unknown_blame_whitespace_option() throws IOException {
+    File projectDir = temp.newFolder();
+    javaUnzip(new File("test-repos/dummy-git.zip"), projectDir);
+    File baseDir = new File(projectDir, "dummy-git");
+    gitTester.settings().setProperty(GitConfiguration.BLAME_WHITESPACE_PROP_KEY, "none");
+
+    when(input.fileSystem()).thenReturn(newFileSystem(baseDir));
+    when(input.filesToBlame()).thenReturn(Collections.emptyList());
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("Property sonar.git.blameWhitespace must be one of 'ignoreAll', 'ignoreChange', 'exact': none");
+
+    newJGitBlameCommand().blame(input, mock(BlameOutput.class));
+  }
+
   @Test
   public void testBlameOnNestedModule() throws IOException {
     File projectDir = temp.newFolder();
@@ -147,7 +220,7 @@ public class JGitBlameCommandTest {
     JGitBlameCommand jGitBlameCommand = newJGitBlameCommand();
 
     File baseDir = new File(projectDir, "dummy-git-nested/dummy-project");
-    DefaultFileSystem fs = new DefaultFileSystem(baseDir);
+    DefaultFileSystem fs = newFileSystem(baseDir);
     when(input.fileSystem()).thenReturn(fs);
     DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA)
       .setModuleBaseDir(baseDir.toPath())
@@ -191,6 +264,197 @@ public class JGitBlameCommandTest {
         new BlameLine().revision(revision).date(revisionDate).author(author)));
   }
 
+  @Test
+  public void blame_outliers_from_their_last_commit_or_skip_them() throws IOException {
+    File projectDir = temp.newFolder();
+    javaUnzip(new File("test-repos/dummy-git.zip"), projectDir);
+    File baseDir = new File(projectDir, "dummy-git");
+    Files.write(baseDir.toPath().resolve(".git/info/attributes"), "*.java linguist-generated\n".getBytes(StandardCharsets.UTF_8));
+    gitTester.settings().setProperty(GitConfiguration.BLAME_OUTLIERS_PROP_KEY, GitConfiguration.OUTLIERS_LAST_COMMIT);
+
+    DefaultFileSystem fs = newFileSystem(baseDir);
+    when(input.fileSystem()).thenReturn(fs);
+    DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA)
+      .setModuleBaseDir(baseDir.toPath())
+      .setLines(29)
+      .build();
+    when(input.filesToBlame()).thenReturn(Collections.singletonList(inputFile));
+
+    BlameOutput output = mock(BlameOutput.class);
+    newJGitBlameCommand().blame(input, output);
+
+    BlameLine lastCommit = new BlameLine()
+      .revision("0d269c1acfb8e6d4d33f3c43041eb87e0df0f5e7")
+      .date(DateUtils.parseDateTime("2015-05-19T13:31:09+0200"))
+      .author("duarte.meneses@sonarsource.com");
+    verify(output).blameResult(inputFile, Collections.nCopies(29, lastCommit));
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_OUTLIERS_LAST_COMMIT)).isEqualTo(1);
+
+    gitTester.settings().setProperty(GitConfiguration.BLAME_OUTLIERS_PROP_KEY, GitConfiguration.OUTLIERS_SKIP);
+    BlameOutput skippedOutput = mock(BlameOutput.class);
+    newJGitBlameCommand().blame(input, skippedOutput);
+
+    verifyZeroInteractions(skippedOutput);
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_OUTLIERS_SKIPPED)).isEqualTo(1);
+  }
+
+  @Test
+  public void blame_outliers_line_by_line_by_default() throws IOException {
+    File projectDir = temp.newFolder();
+    javaUnzip(new File("test-repos/dummy-git.zip"), projectDir);
+    File baseDir = new File(projectDir, "dummy-git");
+    Files.write(baseDir.toPath().resolve(".git/info/attributes"), "*.java linguist-generated\n".getBytes(StandardCharsets.UTF_8));
+    gitTester.settings().setProperty(GitConfiguration.BLAME_MAX_LINES_PROP_KEY, 1);
+
+    DefaultFileSystem fs = newFileSystem(baseDir);
+    when(input.fileSystem()).thenReturn(fs);
+    DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA)
+      .setModuleBaseDir(baseDir.toPath())
+      .setLines(29)
+      .build();
+    when(input.filesToBlame()).thenReturn(Collections.singletonList(inputFile));
+
+    BlameOutput output = mock(BlameOutput.class);
+    newJGitBlameCommand().blame(input, output);
+
+    verify(output).blameResult(eq(inputFile), anyList());
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_FILES)).isEqualTo(1);
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_OUTLIERS_LAST_COMMIT)).isZero();
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_OUTLIERS_SKIPPED)).isZero();
+  }
+
+  @Test
+  public void do_not_attribute_modified_outliers_to_their_last_commit() throws IOException {
+    File projectDir = temp.newFolder();
+    javaUnzip(new File("test-repos/dummy-git.zip"), projectDir);
+    File baseDir = new File(projectDir, "dummy-git");
+    gitTester.settings().setProperty(GitConfiguration.BLAME_MAX_LINES_PROP_KEY, 1);
+    gitTester.settings().setProperty(GitConfiguration.BLAME_OUTLIERS_PROP_KEY, GitConfiguration.OUTLIERS_LAST_COMMIT);
+    Files.write(baseDir.toPath().resolve(DUMMY_JAVA), "modification and \n some new line".getBytes(StandardCharsets.UTF_8));
+
+    DefaultFileSystem fs = newFileSystem(baseDir);
+    when(input.fileSystem()).thenReturn(fs);
+    DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA)
+      .setModuleBaseDir(baseDir.toPath())
+      .setLines(2)
+      .build();
+    when(input.filesToBlame()).thenReturn(Collections.singletonList(inputFile));
+
+    BlameOutput output = mock(BlameOutput.class);
+    newJGitBlameCommand().blame(input, output);
+
+    verifyZeroInteractions(output);
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_OUTLIERS_LAST_COMMIT)).isZero();
+  }
+
+  @Test
+  public void reuse_cached_blame_of_files_whose_content_did_not_change() throws IOException {
+    File projectDir = temp.newFolder();
+    javaUnzip(new File("test-repos/dummy-git.zip"), projectDir);
+    File baseDir = new File(projectDir, "dummy-git");
+    gitTester.settings().setProperty(GitConfiguration.BLAME_CACHE_PROP_KEY, true);
+
+    DefaultFileSystem fs = newFileSystem(baseDir);
+    when(input.fileSystem()).thenReturn(fs);
+    DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA)
+      .setModuleBaseDir(baseDir.toPath())
+      .build();
+    when(input.filesToBlame()).thenReturn(Collections.singletonList(inputFile));
+
+    BlameOutput output = mock(BlameOutput.class);
+    newJGitBlameCommand().blame(input, output);
+    ArgumentCaptor<List<BlameLine>> blame = ArgumentCaptor.forClass(List.class);
+    verify(output).blameResult(eq(inputFile), blame.capture());
+    assertThat(blame.getValue()).hasSize(29);
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_CACHE_MISSES)).isEqualTo(1);
+    assertThat(new File(baseDir, ".git/sonar-scm-git/blame-cache.1")).isFile();
+
+    for (boolean offHeap : new boolean[] {false, true}) {
+      gitTester.settings().setProperty(GitConfiguration.BLAME_CACHE_OFF_HEAP_PROP_KEY, offHeap);
+      BlameOutput cachedOutput = mock(BlameOutput.class);
+      newJGitBlameCommand().blame(input, cachedOutput);
+      verify(cachedOutput).blameResult(inputFile, blame.getValue());
+    }
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_CACHE_HITS)).isEqualTo(2);
+    assertThat(new File(baseDir, ".git/sonar-scm-git/blame-cache.3")).isFile();
+    assertThat(new File(baseDir, ".git/sonar-scm-git/blame-cache.2")).doesNotExist();
+
+    // the cache is not reused with other settings
+    gitTester.settings().setProperty(GitConfiguration.BLAME_WHITESPACE_PROP_KEY, GitConfiguration.WHITESPACE_EXACT);
+    newJGitBlameCommand().blame(input, mock(BlameOutput.class));
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_CACHE_HITS)).isEqualTo(2);
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_CACHE_MISSES)).isEqualTo(2);
+  }
+
+  @Test
+  public void keep_cached_blame_of_files_not_blamed_by_an_analysis() throws IOException {
+    File projectDir = temp.newFolder();
+    javaUnzip(new File("test-repos/dummy-git.zip"), projectDir);
+    File baseDir = new File(projectDir, "dummy-git");
+    gitTester.settings().setProperty(GitConfiguration.BLAME_CACHE_PROP_KEY, true);
+
+    DefaultFileSystem fs = newFileSystem(baseDir);
+    when(input.fileSystem()).thenReturn(fs);
+    DefaultInputFile dummy = new TestInputFileBuilder("foo", DUMMY_JAVA)
+      .setModuleBaseDir(baseDir.toPath())
+      .build();
+    DefaultInputFile anotherDummy = new TestInputFileBuilder("foo", "src/main/java/org/dummy/AnotherDummy.java")
+      .setModuleBaseDir(baseDir.toPath())
+      .build();
+
+    when(input.filesToBlame()).thenReturn(Collections.singletonList(dummy));
+    newJGitBlameCommand().blame(input, mock(BlameOutput.class));
+    when(input.filesToBlame()).thenReturn(Collections.singletonList(anotherDummy));
+    newJGitBlameCommand().blame(input, mock(BlameOutput.class));
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_CACHE_MISSES)).isEqualTo(2);
+
+    when(input.filesToBlame()).thenReturn(Arrays.asList(dummy, anotherDummy));
+    newJGitBlameCommand().blame(input, mock(BlameOutput.class));
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_CACHE_HITS)).isEqualTo(2);
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_CACHE_MISSES)).isEqualTo(2);
+  }
+
+  @Test
+  public void use_blame_index_written_ahead_of_time() throws Exception {
+    File projectDir = temp.newFolder();
+    javaUnzip(new File("test-repos/dummy-git.zip"), projectDir);
+    File baseDir = new File(projectDir, "dummy-git");
+
+    DefaultFileSystem fs = newFileSystem(baseDir);
+    when(input.fileSystem()).thenReturn(fs);
+    DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA)
+      .setModuleBaseDir(baseDir.toPath())
+      .setLines(30)
+      .build();
+    when(input.filesToBlame()).thenReturn(Collections.singletonList(inputFile));
+
+    // the index has the layout of the blame cache
+    gitTester.settings().setProperty(GitConfiguration.BLAME_CACHE_PROP_KEY, true);
+    BlameOutput output = mock(BlameOutput.class);
+    newJGitBlameCommand().blame(input, output);
+    ArgumentCaptor<List<BlameLine>> blame = ArgumentCaptor.forClass(List.class);
+    verify(output).blameResult(eq(inputFile), blame.capture());
+    Files.move(baseDir.toPath().resolve(".git/sonar-scm-git/blame-cache.1"), baseDir.toPath().resolve("blame-index"));
+    gitTester.settings().setProperty(GitConfiguration.BLAME_CACHE_PROP_KEY, false);
+    gitTester.settings().setProperty(GitConfiguration.BLAME_INDEX_PROP_KEY, "blame-index");
+
+    BlameOutput indexedOutput = mock(BlameOutput.class);
+    newJGitBlameCommand().blame(input, indexedOutput);
+    verify(indexedOutput).blameResult(inputFile, blame.getValue());
+    assertThat(blame.getValue()).hasSize(30);
+    assertThat(blame.getValue().get(29).revision()).isEqualTo("6b3aab35a3ea32c1636fee56f996e677653c48ea");
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_CACHE_HITS)).isEqualTo(1);
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_CACHE_MISSES)).isEqualTo(1);
+
+    // the index is not used with other settings
+    gitTester.settings().setProperty(GitConfiguration.BLAME_WHITESPACE_PROP_KEY, GitConfiguration.WHITESPACE_EXACT);
+    BlameOutput otherOutput = mock(BlameOutput.class);
+    newJGitBlameCommand().blame(input, otherOutput);
+    verify(otherOutput).blameResult(inputFile, blame.getValue());
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_CACHE_HITS)).isEqualTo(1);
+    assertThat(logTester.logs(LoggerLevel.WARN)).anyMatch(log -> log.startsWith("Blame index ") && log.endsWith("files will be blamed"));
+  }
+
   @Test
   public void dontFailOnModifiedFile() throws IOException {
     File projectDir = temp.newFolder();
@@ -199,7 +463,7 @@ public class JGitBlameCommandTest {
     JGitBlameCommand jGitBlameCommand = newJGitBlameCommand();
 
     File baseDir = new File(projectDir, "dummy-git");
-    DefaultFileSystem fs = new DefaultFileSystem(baseDir);
+    DefaultFileSystem fs = newFileSystem(baseDir);
     when(input.fileSystem()).thenReturn(fs);
     String relativePath = DUMMY_JAVA;
     DefaultInputFile inputFile = new TestInputFileBuilder("foo", relativePath).build();
@@ -222,7 +486,7 @@ public class JGitBlameCommandTest {
     JGitBlameCommand jGitBlameCommand = newJGitBlameCommand();
 
     File baseDir = new File(projectDir, "dummy-git");
-    DefaultFileSystem fs = new DefaultFileSystem(baseDir);
+    DefaultFileSystem fs = newFileSystem(baseDir);
     when(input.fileSystem()).thenReturn(fs);
     String relativePath = DUMMY_JAVA;
     String relativePath2 = "src/main/java/org/dummy/Dummy2.java";
@@ -249,7 +513,7 @@ public class JGitBlameCommandTest {
     JGitBlameCommand jGitBlameCommand = newJGitBlameCommand();
 
     File baseDir = new File(projectDir, "dummy-git");
-    DefaultFileSystem fs = new DefaultFileSystem(baseDir);
+    DefaultFileSystem fs = newFileSystem(baseDir);
     when(input.fileSystem()).thenReturn(fs);
     String relativePath = DUMMY_JAVA;
     String relativePath2 = "src/main/java/org/dummy/Dummy2.java";
@@ -278,7 +542,7 @@ public class JGitBlameCommandTest {
 
     File baseDir = new File(projectDir, "shallow-git");
 
-    DefaultFileSystem fs = new DefaultFileSystem(baseDir);
+    DefaultFileSystem fs = newFileSystem(baseDir);
     when(input.fileSystem()).thenReturn(fs);
 
     DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA).build();
@@ -287,25 +551,61 @@ public class JGitBlameCommandTest {
     // register warning with default wrapper
     AnalysisWarnings analysisWarnings = mock(AnalysisWarnings.class);
     AnalysisWarningsWrapper analysisWarningsWrapper = new DefaultAnalysisWarningsWrapper(analysisWarnings);
-    JGitBlameCommand jGitBlameCommand = new JGitBlameCommand(new PathResolver(), analysisWarningsWrapper);
+    JGitBlameCommand jGitBlameCommand = new JGitBlameCommand(new PathResolver(), analysisWarningsWrapper, gitTester.configuration(), gitTester.session(), gitTester.metrics());
     BlameOutput output = mock(BlameOutput.class);
     jGitBlameCommand.blame(input, output);
 
-    assertThat(logTester.logs()).first()
+    assertThat(logTester.logs(LoggerLevel.WARN)).first()
       .matches(s -> s.contains("Shallow clone detected, no blame information will be provided."));
     verifyZeroInteractions(output);
 
     verify(analysisWarnings).addUnique(startsWith("Shallow clone detected"));
 
     // do not register warning with noop wrapper
-    jGitBlameCommand = new JGitBlameCommand(new PathResolver(), new NoOpAnalysisWarningsWrapper());
+    jGitBlameCommand = new JGitBlameCommand(new PathResolver(), new NoOpAnalysisWarningsWrapper(), gitTester.configuration(), gitTester.session(), gitTester.metrics());
     jGitBlameCommand.blame(input, output);
 
     verifyNoMoreInteractions(analysisWarnings);
   }
 
+  @Test
+  public void blame_up_to_shallow_boundary_when_enabled() throws IOException {
+    File projectDir = temp.newFolder();
+    javaUnzip(new File("test-repos/shallow-git.zip"), projectDir);
+    File baseDir = new File(projectDir, "shallow-git");
+    gitTester.settings().setProperty(GitConfiguration.BLAME_SHALLOW_CLONES_PROP_KEY, true);
+
+    DefaultFileSystem fs = newFileSystem(baseDir);
+    when(input.fileSystem()).thenReturn(fs);
+    DefaultInputFile inputFile = new TestInputFileBuilder("foo", "date.out")
+      .setModuleBaseDir(baseDir.toPath())
+      .setLines(3)
+      .build();
+    when(input.filesToBlame()).thenReturn(Collections.singleton(inputFile));
+
+    BlameOutput output = mock(BlameOutput.class);
+    newJGitBlameCommand().blame(input, output);
+
+    String boundary = "91e2289b8d101394bb4658d5a561c5798ec59d53";
+    verify(output).blameResult(eq(inputFile), argThat(lines -> lines.size() == 3
+      && lines.stream().allMatch(line -> line.revision().equals(boundary) && !line.author().equals("unknown"))));
+    assertThat(gitTester.metrics().count(GitMetrics.BLAME_BOUNDARY_LINES)).isEqualTo(3);
+
+    // report an unknown author for the lines attributed to the boundary
+    gitTester.settings().setProperty(GitConfiguration.SHALLOW_BOUNDARY_AUTHOR_PROP_KEY, "unknown");
+    BlameOutput markedOutput = mock(BlameOutput.class);
+    newJGitBlameCommand().blame(input, markedOutput);
+
+    verify(markedOutput).blameResult(eq(inputFile), argThat(lines -> lines.size() == 3
+      && lines.stream().allMatch(line -> line.revision().equals(boundary) && line.author().equals("unknown"))));
+  }
+
+  private DefaultFileSystem newFileSystem(File baseDir) throws IOException {
+    return new DefaultFileSystem(baseDir).setWorkDir(temp.newFolder().toPath());
+  }
+
   private JGitBlameCommand newJGitBlameCommand() {
-    return new JGitBlameCommand(new PathResolver(), mock(AnalysisWarningsWrapper.class));
+    return new JGitBlameCommand(new PathResolver(), mock(AnalysisWarningsWrapper.class), gitTester.configuration(), gitTester.session(), gitTester.metrics());
   }
 
 }
@@ -0,0 +1,83 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NativeGitLsFilesTest {
+
+  @Test
+  public void read_nul_terminated_entries() throws IOException {
+    assertThat(read("a.txt\0dir/b.txt\0dir/sub dir/c.txt\0".getBytes(StandardCharsets.UTF_8)))
+      .containsExactly("a.txt", "dir/b.txt", "dir/sub dir/c.txt");
+  }
+
+  @Test
+  public void read_utf8_entries() throws IOException {
+    assertThat(read("café/über.txt\0日本.java\0".getBytes(StandardCharsets.UTF_8)))
+      .containsExactly("café/über.txt", "日本.java");
+  }
+
+  @Test
+  public void read_entry_without_trailing_nul() throws IOException {
+    assertThat(read("a.txt\0b.txt".getBytes(StandardCharsets.UTF_8))).containsExactly("a.txt", "b.txt");
+    assertThat(read(new byte[0])).isEmpty();
+  }
+
+  @Test
+  public void read_entries_spanning_several_reads_and_longer_than_buffer() throws IOException {
+    StringBuilder longName = new StringBuilder();
+    for (int i = 0; i < 200_000; i++) {
+      longName.append((char) ('a' + i % 26));
+    }
+    List<String> expected = new ArrayList<>();
+    StringBuilder output = new StringBuilder();
+    for (int i = 0; i < 10_000; i++) {
+      String entry = i == 5_000 ? longName.toString() : ("dir" + i + "/File" + i + ".java");
+      expected.add(entry);
+      output.append(entry).append('\0');
+    }
+
+    InputStream chunked = new ByteArrayInputStream(output.toString().getBytes(StandardCharsets.UTF_8)) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 777));
+      }
+    };
+    List<String> entries = new ArrayList<>();
+    NativeGitLsFiles.readEntries(chunked, entries::add);
+
+    assertThat(entries).isEqualTo(expected);
+  }
+
+  private static List<String> read(byte[] output) throws IOException {
+    List<String> entries = new ArrayList<>();
+    NativeGitLsFiles.readEntries(new ByteArrayInputStream(output), entries::add);
+    return entries;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OutlierFilesTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private Git git;
+  private Path worktree;
+
+  @Before
+  public void prepare() throws IOException, GitAPIException {
+    File dir = temp.newFolder();
+    git = Git.init().setDirectory(dir).call();
+    worktree = dir.toPath();
+  }
+
+  @After
+  public void close() {
+    git.close();
+  }
+
+  @Test
+  public void detect_outliers_from_attributes_lines_size_and_content() throws IOException {
+    Files.write(worktree.resolve(".gitattributes"), "*.gen.java linguist-generated\n*.lock -diff\n".getBytes(UTF_8));
+    write("Foo.gen.java", 10);
+    write("yarn.lock", 10);
+    write("Long.java", 101);
+    write("Large.java", 60);
+    write("Small.java", 10);
+    Files.write(worktree.resolve("image.png"), new byte[] {(byte) 0x89, 'P', 'N', 'G', 0, 0, 0, 13});
+
+    OutlierFiles underTest = new OutlierFiles(worktree.toFile(), new AttributesTree(git.getRepository()), 1, 100);
+
+    assertThat(underTest.reason(inputFile("Foo.gen.java", 10), "Foo.gen.java")).isEqualTo("marked as linguist-generated");
+    assertThat(underTest.reason(inputFile("yarn.lock", 10), "yarn.lock")).isEqualTo("marked as -diff");
+    assertThat(underTest.reason(inputFile("Long.java", 101), "Long.java")).isEqualTo("longer than 100 lines");
+    assertThat(underTest.reason(inputFile("Large.java", 60), "Large.java")).isEqualTo("larger than 1 KB");
+    assertThat(underTest.reason(inputFile("image.png", 1), "image.png")).isEqualTo("binary");
+    assertThat(underTest.reason(inputFile("Small.java", 10), "Small.java")).isNull();
+    assertThat(underTest.reason(inputFile("Missing.java", 10), "Missing.java")).isNull();
+  }
+
+  @Test
+  public void no_line_or_size_limit_by_default() throws IOException {
+    write("Long.java", 2000);
+
+    OutlierFiles underTest = new OutlierFiles(worktree.toFile(), new AttributesTree(git.getRepository()), null, null);
+
+    assertThat(underTest.reason(inputFile("Long.java", 2000), "Long.java")).isNull();
+  }
+
+  private void write(String relativePath, int lines) throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      content.append("line ").append(i).append(" of ").append(relativePath).append('\n');
+    }
+    Files.write(worktree.resolve(relativePath), content.toString().getBytes(UTF_8));
+  }
+
+  private static InputFile inputFile(String relativePath, int lines) {
+    return new TestInputFileBuilder("foo", relativePath).setLines(lines).build();
+  }
+}
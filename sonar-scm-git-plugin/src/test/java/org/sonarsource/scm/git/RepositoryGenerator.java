@@ -0,0 +1,370 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Generates Git repositories of a given shape, for performance and regression tests. The content, authors and dates
+ * only depend on the settings and on the seed, so that the same settings always produce the same commits.
+ */
+public class RepositoryGenerator {
+
+  private static final long START_TIME = 1_500_000_000_000L;
+  private static final String MASTER = "master";
+
+  private long seed = 42L;
+  private int files = 100;
+  private int filesPerDirectory = 20;
+  private int minLines = 20;
+  private int maxLines = 200;
+  private int commits = 10;
+  private int changedFilesPerCommit = 5;
+  private int branches = 0;
+  private double renameRatio = 0.0;
+  private double generatedFileRatio = 0.0;
+  private int ignoreRules = 0;
+  private int authors = 5;
+
+  public RepositoryGenerator setSeed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  /**
+   * Number of committed files, generated files included.
+   */
+  public RepositoryGenerator setFiles(int files) {
+    this.files = files;
+    return this;
+  }
+
+  public RepositoryGenerator setFilesPerDirectory(int filesPerDirectory) {
+    this.filesPerDirectory = filesPerDirectory;
+    return this;
+  }
+
+  /**
+   * Range of the initial number of lines of files.
+   */
+  public RepositoryGenerator setLines(int minLines, int maxLines) {
+    this.minLines = minLines;
+    this.maxLines = maxLines;
+    return this;
+  }
+
+  /**
+   * Number of commits, the first one adding all files. Merge commits of branches are not counted.
+   */
+  public RepositoryGenerator setCommits(int commits) {
+    this.commits = commits;
+    return this;
+  }
+
+  public RepositoryGenerator setChangedFilesPerCommit(int changedFilesPerCommit) {
+    this.changedFilesPerCommit = changedFilesPerCommit;
+    return this;
+  }
+
+  /**
+   * Number of topic branches, each one forked from master, having commits interleaved with the ones of master, and
+   * merged back into master.
+   */
+  public RepositoryGenerator setBranches(int branches) {
+    this.branches = branches;
+    return this;
+  }
+
+  /**
+   * Probability for a changed file of master to be renamed by the commit.
+   */
+  public RepositoryGenerator setRenameRatio(double renameRatio) {
+    this.renameRatio = renameRatio;
+    return this;
+  }
+
+  /**
+   * Ratio of files that are generated: located in {@code generated} directories, with a generated header and long lines.
+   */
+  public RepositoryGenerator setGeneratedFileRatio(double generatedFileRatio) {
+    this.generatedFileRatio = generatedFileRatio;
+    return this;
+  }
+
+  /**
+   * Number of ignore rules, spread over the root and nested {@code .gitignore} files. Untracked files matched by each
+   * rule are created as well.
+   */
+  public RepositoryGenerator setIgnoreRules(int ignoreRules) {
+    this.ignoreRules = ignoreRules;
+    return this;
+  }
+
+  public RepositoryGenerator setAuthors(int authors) {
+    this.authors = authors;
+    return this;
+  }
+
+  public GeneratedRepository generate(Path worktree) throws IOException, GitAPIException {
+    GeneratedRepository repository = new GeneratedRepository(worktree, Git.init().setDirectory(worktree.toFile()).call(), new Random(seed), authors);
+    int generatedFiles = (int) Math.round(files * generatedFileRatio);
+    for (int i = 0; i < files; i++) {
+      String path = directory(i, i < generatedFiles) + "/File" + i + ".java";
+      if (i < generatedFiles) {
+        repository.writeGeneratedFile(path, lines(repository.random));
+      } else {
+        repository.writeFile(path, lines(repository.random));
+      }
+      repository.paths.add(path);
+    }
+    writeIgnoreRules(repository);
+    repository.commit();
+
+    int remaining = commits - 1;
+    int commitsPerBranch = branches == 0 ? 0 : (remaining / branches);
+    for (int b = 0; b < branches && commitsPerBranch > 0; b++) {
+      String topic = "topic-" + b;
+      repository.git.branchCreate().setName(topic).call();
+      for (int j = 0; j < commitsPerBranch; j++) {
+        // master and topic branches change distinct files, so that merges never conflict
+        boolean onTopic = j % 2 == 0;
+        repository.git.checkout().setName(onTopic ? topic : MASTER).call();
+        changeFiles(repository, onTopic ? 1 : 0, !onTopic);
+        repository.commit();
+      }
+      repository.git.checkout().setName(MASTER).call();
+      repository.merge(topic);
+      remaining -= commitsPerBranch;
+    }
+    for (int i = 0; i < remaining; i++) {
+      changeFiles(repository, branches == 0 ? -1 : 0, true);
+      repository.commit();
+    }
+    return repository;
+  }
+
+  private String directory(int fileIndex, boolean generated) {
+    int dir = fileIndex / filesPerDirectory;
+    return "module" + (dir % 10) + "/src/" + (generated ? "generated/" : "") + "dir" + dir;
+  }
+
+  private int lines(Random random) {
+    return minLines + random.nextInt(maxLines - minLines + 1);
+  }
+
+  /**
+   * @param parity only change files with an index of this parity, or any file when negative
+   */
+  private void changeFiles(GeneratedRepository repository, int parity, boolean allowRenames) throws IOException {
+    int count = Math.min(changedFilesPerCommit, parity < 0 ? files : (files / 2));
+    for (int i = 0; i < count; i++) {
+      int index = repository.random.nextInt(files);
+      if (parity >= 0 && index % 2 != parity) {
+        index = (index + 1) % files;
+        if (index % 2 != parity) {
+          continue;
+        }
+      }
+      String path = repository.paths.get(index);
+      if (allowRenames && repository.random.nextDouble() < renameRatio) {
+        path = repository.rename(index);
+      }
+      repository.modifyLines(path, 1 + repository.random.nextInt(5));
+    }
+  }
+
+  private void writeIgnoreRules(GeneratedRepository repository) throws IOException {
+    if (ignoreRules == 0) {
+      return;
+    }
+    int directories = Math.max(1, (files + filesPerDirectory - 1) / filesPerDirectory);
+    List<List<String>> rules = new ArrayList<>();
+    for (int i = 0; i <= directories; i++) {
+      rules.add(new ArrayList<>());
+    }
+    for (int k = 0; k < ignoreRules; k++) {
+      // even rules are in the root .gitignore, odd ones in the .gitignore of a directory
+      int dir = k % 2 == 0 ? directories : ((k / 2) % directories);
+      String base = dir == directories ? "" : (directory(dir * filesPerDirectory, false) + "/");
+      switch (k % 4) {
+        case 0:
+          rules.get(dir).add("*.tmp" + k);
+          repository.writeFile(base + "ignored.tmp" + k, 1);
+          break;
+        case 1:
+          rules.get(dir).add("out" + k + "/");
+          repository.writeFile(base + "out" + k + "/Ignored.class", 1);
+          break;
+        case 2:
+          rules.get(dir).add("**/cache" + k + "/**");
+          repository.writeFile(base + "sub/cache" + k + "/ignored.bin", 1);
+          break;
+        default:
+          rules.get(dir).add("*.bak" + k);
+          rules.get(dir).add("!keep.bak" + k);
+          repository.writeFile(base + "ignored.bak" + k, 1);
+          repository.writeFile(base + "keep.bak" + k, 1);
+          break;
+      }
+    }
+    for (int dir = 0; dir <= directories; dir++) {
+      if (!rules.get(dir).isEmpty()) {
+        Path gitIgnore = repository.worktree.resolve(dir == directories ? ".gitignore" : (directory(dir * filesPerDirectory, false) + "/.gitignore"));
+        Files.createDirectories(gitIgnore.getParent());
+        Files.write(gitIgnore, rules.get(dir), StandardCharsets.UTF_8);
+      }
+    }
+  }
+
+  /**
+   * A generated repository, that can be changed further with the same pseudo-random content.
+   */
+  public static class GeneratedRepository implements AutoCloseable {
+    private final Path worktree;
+    private final Git git;
+    private final Random random;
+    private final int authors;
+    private final List<String> paths = new ArrayList<>();
+    private int commitCount;
+
+    private GeneratedRepository(Path worktree, Git git, Random random, int authors) {
+      this.worktree = worktree;
+      this.git = git;
+      this.random = random;
+      this.authors = authors;
+    }
+
+    public Path worktree() {
+      return worktree;
+    }
+
+    public Git git() {
+      return git;
+    }
+
+    /**
+     * Paths of the committed files, relative to the work tree, in creation order and after renames.
+     */
+    public List<String> paths() {
+      return paths;
+    }
+
+    public Path writeFile(String relativePath, int lineCount) throws IOException {
+      List<String> lines = new ArrayList<>(lineCount);
+      for (int i = 0; i < lineCount; i++) {
+        lines.add(randomLine());
+      }
+      return write(relativePath, lines);
+    }
+
+    private Path writeGeneratedFile(String relativePath, int lineCount) throws IOException {
+      List<String> lines = new ArrayList<>(lineCount + 1);
+      lines.add("// Code generated by a tool. DO NOT EDIT.");
+      for (int i = 0; i < lineCount; i++) {
+        StringBuilder line = new StringBuilder();
+        for (int j = 0; j < 10; j++) {
+          line.append(randomLine());
+        }
+        lines.add(line.toString());
+      }
+      return write(relativePath, lines);
+    }
+
+    private Path write(String relativePath, List<String> lines) throws IOException {
+      Path file = worktree.resolve(relativePath);
+      Files.createDirectories(file.getParent());
+      return Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Replaces the given number of lines, picked at random. The first line is kept, so that headers are preserved.
+     */
+    public void modifyLines(String relativePath, int count) throws IOException {
+      Path file = worktree.resolve(relativePath);
+      List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+      for (int i = 0; i < count; i++) {
+        lines.set(lines.size() == 1 ? 0 : (1 + random.nextInt(lines.size() - 1)), randomLine());
+      }
+      Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    private String rename(int index) throws IOException {
+      String path = paths.get(index);
+      String renamed = path.substring(0, path.length() - ".java".length()) + "_r" + commitCount + ".java";
+      Files.move(worktree.resolve(path), worktree.resolve(renamed));
+      paths.set(index, renamed);
+      return renamed;
+    }
+
+    /**
+     * Commits all changes of the work tree, with a date one hour after the previous commit.
+     */
+    public RevCommit commit() throws GitAPIException {
+      git.add().addFilepattern(".").call();
+      git.add().setUpdate(true).addFilepattern(".").call();
+      PersonIdent ident = nextIdent();
+      return git.commit().setMessage("Commit " + commitCount).setAuthor(ident).setCommitter(ident).call();
+    }
+
+    private void merge(String branch) throws GitAPIException, IOException {
+      git.merge()
+        .include(git.getRepository().exactRef("refs/heads/" + branch))
+        .setFastForward(MergeCommand.FastForwardMode.NO_FF)
+        .setCommit(false)
+        .call();
+      PersonIdent ident = nextIdent();
+      git.commit().setMessage("Merge " + branch).setAuthor(ident).setCommitter(ident).call();
+    }
+
+    private PersonIdent nextIdent() {
+      int author = commitCount % authors;
+      PersonIdent ident = new PersonIdent("Author " + author, "author" + author + "@example.com",
+        START_TIME + TimeUnit.HOURS.toMillis(commitCount), 0);
+      commitCount++;
+      return ident;
+    }
+
+    private String randomLine() {
+      StringBuilder line = new StringBuilder("  ");
+      int words = 1 + random.nextInt(10);
+      for (int i = 0; i < words; i++) {
+        line.append(Integer.toString(random.nextInt(Integer.MAX_VALUE), 36)).append(' ');
+      }
+      return line.append(';').toString();
+    }
+
+    @Override
+    public void close() {
+      git.close();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonarsource.scm.git.RepositoryGenerator.GeneratedRepository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RepositoryGeneratorTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final RepositoryGenerator generator = new RepositoryGenerator()
+    .setFiles(50)
+    .setFilesPerDirectory(10)
+    .setLines(5, 30)
+    .setCommits(11)
+    .setChangedFilesPerCommit(3)
+    .setBranches(2)
+    .setRenameRatio(0.2)
+    .setGeneratedFileRatio(0.1)
+    .setIgnoreRules(8);
+
+  @Test
+  public void same_settings_generate_same_commits() throws IOException, GitAPIException {
+    try (GeneratedRepository first = generator.generate(temp.newFolder().toPath());
+      GeneratedRepository second = generator.generate(temp.newFolder().toPath())) {
+      assertThat(head(second)).isEqualTo(head(first));
+    }
+    try (GeneratedRepository other = generator.setSeed(1).generate(temp.newFolder().toPath());
+      GeneratedRepository first = generator.setSeed(42).generate(temp.newFolder().toPath())) {
+      assertThat(head(other)).isNotEqualTo(head(first));
+    }
+  }
+
+  @Test
+  public void generate_repository_of_given_shape() throws IOException, GitAPIException {
+    try (GeneratedRepository repository = generator.generate(temp.newFolder().toPath())) {
+      List<RevCommit> commits = new ArrayList<>();
+      repository.git().log().call().forEach(commits::add);
+      assertThat(commits).hasSize(11 + 2);
+      assertThat(commits.stream().filter(c -> c.getParentCount() == 2)).hasSize(2);
+
+      List<String> tracked = trackedFiles(repository.git().getRepository());
+      assertThat(repository.paths()).hasSize(50);
+      assertThat(tracked).containsAll(repository.paths());
+      assertThat(repository.paths()).anyMatch(path -> path.contains("_r"));
+      assertThat(repository.paths()).filteredOn(path -> path.contains("/generated/")).hasSize(5);
+      assertThat(tracked).contains(".gitignore", "module1/src/dir1/.gitignore", "module1/src/dir1/keep.bak3");
+
+      Path worktree = repository.worktree();
+      assertThat(worktree.resolve("ignored.tmp0")).exists();
+      assertThat(worktree.resolve("sub/cache2/ignored.bin")).exists();
+      assertThat(tracked).noneMatch(path -> path.contains("ignored"));
+      assertThat(Files.readAllLines(worktree.resolve(repository.paths().get(0))).get(0)).startsWith("// Code generated");
+    }
+  }
+
+  private static String head(GeneratedRepository repository) throws IOException {
+    return repository.git().getRepository().exactRef("HEAD").getObjectId().getName();
+  }
+
+  private static List<String> trackedFiles(Repository repo) throws IOException {
+    List<String> files = new ArrayList<>();
+    try (TreeWalk treeWalk = new TreeWalk(repo)) {
+      treeWalk.addTree(repo.parseCommit(repo.resolve("HEAD")).getTree());
+      treeWalk.setRecursive(true);
+      while (treeWalk.next()) {
+        files.add(treeWalk.getPathString());
+      }
+    }
+    return files;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.internal.MapSettings;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RepositoryWarmUpTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final GitMetrics metrics = new GitMetrics(new MapSettings().asConfig());
+  private Git git;
+
+  @Before
+  public void prepare() throws IOException, GitAPIException {
+    git = Git.init().setDirectory(temp.newFolder()).call();
+    for (int i = 0; i < 5; i++) {
+      git.commit().setMessage("commit " + i).call();
+    }
+    git.gc().call();
+    git.commit().setMessage("loose commit").call();
+  }
+
+  @Test
+  public void load_pack_indexes_and_commits_from_head() {
+    new RepositoryWarmUp(git.getRepository(), metrics, Long.MAX_VALUE).run();
+
+    assertThat(metrics.count(GitMetrics.WARM_UP_PACK_INDEXES)).isEqualTo(1);
+    assertThat(metrics.count(GitMetrics.WARM_UP_COMMITS)).isEqualTo(6);
+  }
+
+  @Test
+  public void stop_when_memory_budget_is_spent() {
+    new RepositoryWarmUp(git.getRepository(), metrics, 1).run();
+
+    assertThat(metrics.count(GitMetrics.WARM_UP_PACK_INDEXES)).isEqualTo(1);
+    assertThat(metrics.count(GitMetrics.WARM_UP_COMMITS)).isZero();
+  }
+
+  @Test
+  public void do_nothing_once_cancelled() {
+    RepositoryWarmUp warmUp = new RepositoryWarmUp(git.getRepository(), metrics, Long.MAX_VALUE);
+    warmUp.cancel();
+    warmUp.run();
+
+    assertThat(metrics.count(GitMetrics.WARM_UP_PACK_INDEXES)).isZero();
+    assertThat(metrics.count(GitMetrics.WARM_UP_COMMITS)).isZero();
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReusableBlameTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void reuse_blame_of_files_with_the_same_content_and_ancestor_commits() throws IOException, GitAPIException {
+    Path worktree = temp.newFolder().toPath();
+    try (Git git = Git.init().setDirectory(worktree.toFile()).call()) {
+      write(worktree, "changed.txt", "a\n");
+      write(worktree, "unchanged.txt", "a\n");
+      RevCommit first = commit(git);
+      write(worktree, "changed.txt", "a\nb\n");
+      RevCommit onMaster = commit(git);
+      // the same change, cherry-picked on a branch
+      git.checkout().setCreateBranch(true).setName("feature").setStartPoint(first).call();
+      write(worktree, "changed.txt", "a\nb\n");
+      git.add().addFilepattern(".").call();
+      git.commit().setMessage("cherry-pick").call();
+
+      ObjectId changed = git.getRepository().resolve("HEAD:changed.txt");
+      ObjectId unchanged = git.getRepository().resolve("HEAD:unchanged.txt");
+      assertThat(git.getRepository().resolve(onMaster.name() + ":changed.txt")).isEqualTo(changed);
+      CommitTable commits = new CommitTable();
+      int firstIndex = commits.indexOf(first, "first@example.com", date(first));
+      int onMasterIndex = commits.indexOf(onMaster, "master@example.com", date(onMaster));
+      BlameCache.Writer writer = new BlameCache.Writer();
+      writer.add("changed.txt", changed, new FileBlame.Builder(commits).add(firstIndex).add(onMasterIndex).build());
+      writer.add("unchanged.txt", unchanged, new FileBlame.Builder(commits).add(firstIndex).build());
+      Path file = temp.getRoot().toPath().resolve("blame-cache");
+      writer.save(file, 42L);
+      BlameCache cache = BlameCache.load(file, 42L, false);
+
+      ReusableBlame onFeature = ReusableBlame.of(git.getRepository(), cache);
+      assertThat(onFeature.ancestorCount()).isEqualTo(1);
+      assertThat(onFeature.get("unchanged.txt", unchanged).lineCount()).isEqualTo(1);
+      assertThat(onFeature.get("changed.txt", changed)).isNull();
+      assertThat(onFeature.get("unchanged.txt", changed)).isNull();
+
+      git.checkout().setName("master").call();
+      ReusableBlame onMain = ReusableBlame.of(git.getRepository(), cache);
+      assertThat(onMain.ancestorCount()).isEqualTo(2);
+      assertThat(onMain.get("changed.txt", changed).lineCount()).isEqualTo(2);
+    }
+  }
+
+  private static long date(RevCommit commit) {
+    return commit.getCommitterIdent().getWhen().getTime();
+  }
+
+  private static void write(Path worktree, String path, String content) throws IOException {
+    Files.write(worktree.resolve(path), content.getBytes(UTF_8));
+  }
+
+  private static RevCommit commit(Git git) throws GitAPIException {
+    git.add().addFilepattern(".").call();
+    return git.commit().setMessage("commit").call();
+  }
+}
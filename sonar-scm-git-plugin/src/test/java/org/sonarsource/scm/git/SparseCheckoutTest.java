@@ -0,0 +1,79 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SparseCheckoutTest {
+
+  @Test
+  public void cone_mode_includes_selected_directories_and_files_of_their_parents() {
+    SparseCheckout underTest = SparseCheckout.parse(Arrays.asList("/*", "!/*/", "/a/", "!/a/*/", "/a/b/", "/c/"), true);
+
+    assertThat(underTest.includes("root.txt")).isTrue();
+    assertThat(underTest.includes("a/file.txt")).isTrue();
+    assertThat(underTest.includes("a/b/file.txt")).isTrue();
+    assertThat(underTest.includes("a/b/d/file.txt")).isTrue();
+    assertThat(underTest.includes("a/e/file.txt")).isFalse();
+    assertThat(underTest.includes("c/d/file.txt")).isTrue();
+    assertThat(underTest.includes("f/file.txt")).isFalse();
+
+    assertThat(underTest.mayInclude("a")).isTrue();
+    assertThat(underTest.mayInclude("a/b/d")).isTrue();
+    assertThat(underTest.mayInclude("a/e")).isFalse();
+    assertThat(underTest.mayInclude("f")).isFalse();
+  }
+
+  @Test
+  public void cone_mode_includes_files_of_ancestors_of_selected_directories() {
+    SparseCheckout underTest = SparseCheckout.parse(Arrays.asList("/*", "!/*/", "/a/b/c/"), true);
+
+    assertThat(underTest.includes("a/file.txt")).isTrue();
+    assertThat(underTest.includes("a/b/file.txt")).isTrue();
+    assertThat(underTest.includes("a/b/c/d/file.txt")).isTrue();
+    assertThat(underTest.includes("a/x/file.txt")).isFalse();
+    assertThat(underTest.mayInclude("a/b")).isTrue();
+    assertThat(underTest.mayInclude("a/x")).isFalse();
+  }
+
+  @Test
+  public void fallback_to_full_patterns_when_patterns_are_not_cone_shaped() {
+    SparseCheckout underTest = SparseCheckout.parse(Arrays.asList("/*", "!/*/", "*.md"), true);
+
+    assertThat(underTest.includes("root.txt")).isTrue();
+    assertThat(underTest.includes("docs/README.md")).isTrue();
+    assertThat(underTest.includes("docs/file.txt")).isFalse();
+    assertThat(underTest.mayInclude("docs")).isTrue();
+  }
+
+  @Test
+  public void full_patterns_last_matching_rule_wins() {
+    SparseCheckout underTest = SparseCheckout.parse(Arrays.asList("# comment", "src/", "!src/generated/", "!*.tmp"), false);
+
+    assertThat(underTest.includes("src/Foo.java")).isTrue();
+    assertThat(underTest.includes("src/main/Foo.java")).isTrue();
+    assertThat(underTest.includes("src/generated/Foo.java")).isFalse();
+    assertThat(underTest.includes("src/Foo.tmp")).isFalse();
+    assertThat(underTest.includes("test/Foo.java")).isFalse();
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UntrackedCacheTest {
+
+  @Test
+  public void read_varint() {
+    assertThat(UntrackedCache.readVarint(ByteBuffer.wrap(new byte[] {0x05}))).isEqualTo(5);
+    assertThat(UntrackedCache.readVarint(ByteBuffer.wrap(new byte[] {0x7f}))).isEqualTo(127);
+    assertThat(UntrackedCache.readVarint(ByteBuffer.wrap(new byte[] {(byte) 0x80, 0x00}))).isEqualTo(128);
+    assertThat(UntrackedCache.readVarint(ByteBuffer.wrap(new byte[] {(byte) 0x80, 0x7f}))).isEqualTo(255);
+    assertThat(UntrackedCache.readVarint(ByteBuffer.wrap(new byte[] {(byte) 0xfe, 0x7f}))).isEqualTo(16383);
+    assertThat(UntrackedCache.readVarint(ByteBuffer.wrap(new byte[] {(byte) 0xff, 0x00}))).isEqualTo(16384);
+  }
+
+  @Test
+  public void read_ewah_with_literal_words() {
+    // 5 bits, one marker word announcing one literal word, as written by Git for a cache of 5 directories
+    ByteBuffer buffer = ByteBuffer.allocate(28);
+    buffer.putInt(5).putInt(2).putLong(1L << 33).putLong(0b11001L).putInt(0);
+    buffer.flip();
+
+    BitSet bits = UntrackedCache.readEwah(buffer);
+
+    assertThat(bits.stream().toArray()).containsExactly(0, 3, 4);
+    assertThat(buffer.hasRemaining()).isFalse();
+  }
+
+  @Test
+  public void read_ewah_with_running_length() {
+    // 2 words of ones, then a literal word with the bit 1 set
+    ByteBuffer buffer = ByteBuffer.allocate(28);
+    buffer.putInt(130).putInt(2).putLong((1L << 33) | (2L << 1) | 1L).putLong(0b10L).putInt(0);
+    buffer.flip();
+
+    BitSet bits = UntrackedCache.readEwah(buffer);
+
+    assertThat(bits.cardinality()).isEqualTo(129);
+    assertThat(bits.get(0)).isTrue();
+    assertThat(bits.get(127)).isTrue();
+    assertThat(bits.get(128)).isFalse();
+    assertThat(bits.get(129)).isTrue();
+  }
+}
@@ -25,11 +25,18 @@ import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.ObjectId;
 
 import static java.lang.String.format;
 
 public class Utils {
 
+  /**
+   * Commits of the test repositories, for tests that don't need an actual repository.
+   */
+  public static final ObjectId COMMIT_1 = ObjectId.fromString("6b3aab35a3ea32c1636fee56f996e677653c48ea");
+  public static final ObjectId COMMIT_2 = ObjectId.fromString("0d269c1acfb8e6d4d33f3c43041eb87e0df0f5e7");
+
   public static void javaUnzip(File zip, File toDir) {
     try {
       try (ZipFile zipFile = new ZipFile(zip)) {
@@ -0,0 +1,93 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.util.Random;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WhitespaceIgnoringComparatorTest {
+
+  private static final String[] WHITESPACES = {"", " ", "  ", "\t", "\r", " \t"};
+
+  @Test
+  public void compare_lines_like_jgit_whitespace_ignoring_comparator() {
+    Random random = new Random(42);
+    RawText a = randomText(random, 200);
+    RawText b = randomText(random, 200);
+    WhitespaceIgnoringComparator underTest = new WhitespaceIgnoringComparator();
+    for (int i = 0; i < a.size(); i++) {
+      for (int j = 0; j < b.size(); j++) {
+        assertThat(underTest.equals(a, i, b, j)).as(a.getString(i) + " = " + b.getString(j)).isEqualTo(RawTextComparator.WS_IGNORE_ALL.equals(a, i, b, j));
+      }
+      assertThat(underTest.hash(a, i)).isEqualTo(RawTextComparator.WS_IGNORE_ALL.hash(a, i));
+    }
+  }
+
+  @Test
+  public void diff_like_jgit_whitespace_ignoring_comparator() {
+    Random random = new Random(42);
+    WhitespaceIgnoringComparator underTest = new WhitespaceIgnoringComparator();
+    for (DiffAlgorithm.SupportedAlgorithm algorithm : DiffAlgorithm.SupportedAlgorithm.values()) {
+      DiffAlgorithm diff = DiffAlgorithm.getAlgorithm(algorithm);
+      RawText previous = randomText(random, 300);
+      for (int i = 0; i < 10; i++) {
+        RawText next = randomText(random, 300);
+        assertThat(diff.diff(underTest, previous, next)).isEqualTo(diff.diff(RawTextComparator.WS_IGNORE_ALL, previous, next));
+        previous = next;
+      }
+    }
+  }
+
+  @Test
+  public void hash_last_line_without_line_feed() {
+    RawText a = text("a\n b \nc");
+    RawText b = text("a\nb\n c \n");
+    WhitespaceIgnoringComparator underTest = new WhitespaceIgnoringComparator();
+    assertThat(underTest.equals(a, 2, b, 2)).isTrue();
+    assertThat(underTest.hash(a, 2)).isEqualTo(underTest.hash(b, 2));
+    assertThat(underTest.equals(a, 1, b, 2)).isFalse();
+    assertThat(underTest.equals(text("\n"), 0, text(" \t"), 0)).isTrue();
+    assertThat(underTest.equals(text("\n"), 0, text(" x"), 0)).isFalse();
+  }
+
+  private static RawText randomText(Random random, int lines) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      for (int tokens = random.nextInt(3); tokens > 0; tokens--) {
+        sb.append(WHITESPACES[random.nextInt(WHITESPACES.length)]).append((char) ('a' + random.nextInt(3)));
+      }
+      sb.append(WHITESPACES[random.nextInt(WHITESPACES.length)]);
+      if (i < lines - 1 || random.nextBoolean()) {
+        sb.append('\n');
+      }
+    }
+    return text(sb.toString());
+  }
+
+  private static RawText text(String content) {
+    return new RawText(content.getBytes(UTF_8));
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * SonarQube :: Plugins :: SCM :: Git
+ * Copyright (C) 2014-2019 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scm.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.MessageException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eclipse.jgit.storage.file.WindowCacheConfig.KB;
+import static org.eclipse.jgit.storage.file.WindowCacheConfig.MB;
+
+public class WindowCacheTuningTest {
+
+  private static final long HEAP = 2048L * MB;
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final MapSettings settings = new MapSettings();
+  private final WindowCacheTuning underTest = new WindowCacheTuning(settings.asConfig());
+
+  @Test
+  public void keep_jgit_defaults_for_small_repositories() {
+    WindowCacheConfig defaults = new WindowCacheConfig();
+
+    WindowCacheConfig config = underTest.configFor(2 * MB, HEAP);
+
+    assertThat(config.getPackedGitLimit()).isEqualTo(defaults.getPackedGitLimit());
+    assertThat(config.getPackedGitWindowSize()).isEqualTo(defaults.getPackedGitWindowSize());
+    assertThat(config.getDeltaBaseCacheLimit()).isEqualTo(defaults.getDeltaBaseCacheLimit());
+    assertThat(config.isPackedGitMMAP()).isFalse();
+  }
+
+  @Test
+  public void cache_whole_packs_when_they_fit_in_heap() {
+    WindowCacheConfig config = underTest.configFor(300L * MB, HEAP);
+
+    assertThat(config.getPackedGitLimit()).isEqualTo(300L * MB);
+    assertThat(config.getPackedGitWindowSize()).isEqualTo(16 * KB);
+    assertThat(config.getDeltaBaseCacheLimit()).isEqualTo(64 * MB);
+  }
+
+  @Test
+  public void use_quarter_of_heap_for_huge_packs() {
+    WindowCacheConfig config = underTest.configFor(4096L * MB, HEAP);
+
+    assertThat(config.getPackedGitLimit()).isEqualTo(HEAP / 4);
+    assertThat(config.getPackedGitWindowSize()).isEqualTo(64 * KB);
+  }
+
+  @Test
+  public void settings_override_heuristic() {
+    settings.setProperty(GitConfiguration.PACKED_GIT_LIMIT_PROP_KEY, 512);
+    settings.setProperty(GitConfiguration.PACKED_GIT_WINDOW_SIZE_PROP_KEY, 32);
+    settings.setProperty(GitConfiguration.DELTA_BASE_CACHE_LIMIT_PROP_KEY, 20);
+    settings.setProperty(GitConfiguration.PACKED_GIT_MMAP_PROP_KEY, true);
+
+    WindowCacheConfig config = underTest.configFor(2 * MB, HEAP);
+
+    assertThat(config.getPackedGitLimit()).isEqualTo(512L * MB);
+    assertThat(config.getPackedGitWindowSize()).isEqualTo(32 * KB);
+    assertThat(config.getDeltaBaseCacheLimit()).isEqualTo(20 * MB);
+    assertThat(config.isPackedGitMMAP()).isTrue();
+  }
+
+  @Test
+  public void fail_on_window_size_not_power_of_two() {
+    settings.setProperty(GitConfiguration.PACKED_GIT_WINDOW_SIZE_PROP_KEY, 12);
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("Property sonar.git.packedGitWindowSizeKb must be a power of 2 of at least 4: 12");
+
+    underTest.configFor(2 * MB, HEAP);
+  }
+
+  @Test
+  public void fail_on_negative_limit() {
+    settings.setProperty(GitConfiguration.PACKED_GIT_LIMIT_PROP_KEY, -1);
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("Property sonar.git.packedGitLimitMb must be positive: -1");
+
+    underTest.configFor(2 * MB, HEAP);
+  }
+
+  @Test
+  public void fail_on_delta_base_cache_limit_overflowing_int() {
+    settings.setProperty(GitConfiguration.DELTA_BASE_CACHE_LIMIT_PROP_KEY, 2048);
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("Property sonar.git.deltaBaseCacheLimitMb must not be greater than 2047: 2048");
+
+    underTest.configFor(2 * MB, HEAP);
+  }
+
+  @Test
+  public void sum_sizes_of_packs() throws IOException {
+    File gitDir = temp.newFolder();
+    Path packDir = Files.createDirectories(gitDir.toPath().resolve("objects/pack"));
+    Files.write(packDir.resolve("pack-1.pack"), new byte[10]);
+    Files.write(packDir.resolve("pack-1.idx"), new byte[100]);
+    Files.write(packDir.resolve("pack-2.pack"), new byte[20]);
+
+    assertThat(WindowCacheTuning.totalPackSize(gitDir)).isEqualTo(30);
+    assertThat(WindowCacheTuning.totalPackSize(temp.newFolder())).isZero();
+  }
+}